@@ -0,0 +1,96 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparison of two lines by {@link Chunk#compareMarkers(long, long)} within one chunk
+ * and by {@link Chunk#compareMarkers(byte[], long, byte[], long)} across two chunks.
+ * Every operation compares all the neighbouring lines of the chunk.
+ *
+ * @author Serj Sintsov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompareMarkersBenchmark {
+
+   private static final int LINES = 1024;
+
+   @Param({"16", "100", "1000"})
+   public int lineLength;
+
+   @Param({"0", "12"})
+   public int sharedPrefix;
+
+   @Param({"0", "50"})
+   public int duplicatePercent;
+
+   private Chunk chunk;
+   private Chunk other;
+
+   @Setup
+   public void setUp() {
+      byte[] data = LineData.generate(LINES, lineLength, sharedPrefix, duplicatePercent);
+      chunk = LineData.chunkOf(data);
+      other = LineData.chunkOf(data.clone());
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(LINES - 1)
+   public int sameChunk() {
+      int sum = 0;
+      for (int i = 1; i < chunk.size(); i++)
+         sum += chunk.compareMarkers(chunk.markerAt(i - 1), chunk.markerAt(i));
+      return sum;
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(LINES - 1)
+   public int twoChunks() {
+      byte[] data1 = chunk.rawData();
+      byte[] data2 = other.rawData();
+      int sum = 0;
+      for (int i = 1; i < chunk.size(); i++)
+         sum += Chunk.compareMarkers(data1, chunk.markerAt(i - 1), data2, other.markerAt(i));
+      return sum;
+   }
+
+   /**
+    * The same comparisons as {@link #sameChunk()} one byte at a time, for reference.
+    */
+   @Benchmark
+   @OperationsPerInvocation(LINES - 1)
+   public int bytewise() {
+      byte[] data = chunk.rawData();
+      int sum = 0;
+      for (int i = 1; i < chunk.size(); i++) {
+         long m1 = chunk.markerAt(i - 1);
+         long m2 = chunk.markerAt(i);
+         int c = UnsignedBytes.compareBytes(data, Chunk.offsetOf(m1), data, Chunk.offsetOf(m2),
+                                            Math.min(Chunk.lengthOf(m1), Chunk.lengthOf(m2)));
+         sum += c != 0 ? c : Chunk.lengthOf(m1) - Chunk.lengthOf(m2);
+      }
+      return sum;
+   }
+
+}
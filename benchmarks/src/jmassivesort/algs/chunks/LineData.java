@@ -0,0 +1,114 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generates lines for the benchmarks. Every line is {@code lineLength} random
+ * letters, the first {@code sharedPrefix} of them are the same in all lines,
+ * and {@code duplicatePercent} percent of the lines repeat one of the lines
+ * before them.
+ *
+ * @author Serj Sintsov
+ */
+final class LineData {
+
+   private static final long SEED = 42;
+
+   private LineData() {
+   }
+
+   /**
+    * @return EOL terminated lines
+    */
+   static byte[] generate(int numLines, int lineLength, int sharedPrefix, int duplicatePercent) {
+      if (sharedPrefix > lineLength)
+         throw new IllegalArgumentException("Shared prefix is longer than the lines");
+
+      Random rnd = new Random(SEED);
+      int lineSz = lineLength + 1;
+      byte[] data = new byte[numLines * lineSz];
+
+      for (int i = 0; i < numLines; i++) {
+         int off = i * lineSz;
+         if (i > 0 && rnd.nextInt(100) < duplicatePercent)
+            System.arraycopy(data, rnd.nextInt(i) * lineSz, data, off, lineLength);
+         else {
+            for (int b = 0; b < lineLength; b++)
+               data[off + b] = (byte) (b < sharedPrefix ? 'k' : 'a' + rnd.nextInt(26));
+         }
+         data[off + lineLength] = '\n';
+      }
+
+      return data;
+   }
+
+   /**
+    * @return unsorted chunk of all the lines
+    */
+   static Chunk chunkOf(byte[] data) {
+      Chunk ch = new Chunk();
+      ch.setRawData(data);
+
+      int start = 0;
+      for (int i = 0; i < data.length; i++) {
+         if (data[i] == '\n') {
+            ch.addMarkerUnsafely(start, i - start);
+            start = i + 1;
+         }
+      }
+
+      return ch;
+   }
+
+   static Chunk sortedChunkOf(byte[] data) {
+      Chunk ch = chunkOf(data);
+      SortEngine.QUICK.sort(ch);
+      return ch;
+   }
+
+   /**
+    * @return the raw local file system, to measure the parsing and not the checksums
+    */
+   static FileSystem localFs() throws IOException {
+      return FileSystem.getLocal(new Configuration()).getRawFileSystem();
+   }
+
+   static Path writeTempFile(FileSystem fs, byte[] data) throws IOException {
+      File file = File.createTempFile("jmassivesort-bench", ".txt");
+      file.deleteOnExit();
+
+      Path path = new Path(file.toURI());
+      OutputStream out = fs.create(path, true);
+      try {
+         out.write(data);
+      }
+      finally {
+         out.close();
+      }
+
+      return path;
+   }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The merge loop of {@link ChunkMerging}: the same lines split into {@code runs}
+ * sorted runs are merged by {@link LoserTree}. Runs are held in memory, so the
+ * numbers are for the comparisons and the tree only, not for the I/O.
+ *
+ * @author Serj Sintsov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+
+   @Param({"2", "16", "128"})
+   public int runs;
+
+   @Param({"100000"})
+   public int lines;
+
+   @Param({"16", "100"})
+   public int lineLength;
+
+   @Param({"0", "12"})
+   public int sharedPrefix;
+
+   @Param({"0", "50"})
+   public int duplicatePercent;
+
+   private Chunk[] sortedRuns;
+
+   /**
+    * Returns its chunk once.
+    */
+   private static class RunReader implements ChunkReader {
+      private Chunk chunk;
+
+      RunReader(Chunk chunk) {
+         this.chunk = chunk;
+      }
+
+      @Override
+      public Chunk nextChunk() {
+         Chunk ch = chunk;
+         chunk = null;
+         return ch;
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+
+   @Setup
+   public void setUp() {
+      byte[] data = LineData.generate(lines, lineLength, sharedPrefix, duplicatePercent);
+      int lineSz = lineLength + 1;
+
+      sortedRuns = new Chunk[runs];
+      for (int r = 0; r < runs; r++) {
+         int from = (int) ((long) lines * r / runs) * lineSz;
+         int to = (int) ((long) lines * (r + 1) / runs) * lineSz;
+         sortedRuns[r] = LineData.sortedChunkOf(Arrays.copyOfRange(data, from, to));
+      }
+   }
+
+   @Benchmark
+   public long merge() throws IOException {
+      ChunkReader[] readers = new ChunkReader[runs];
+      for (int r = 0; r < runs; r++)
+         readers[r] = new RunReader(sortedRuns[r]);
+
+      LoserTree tree = new LoserTree(readers);
+      long sum = 0;
+      while (!tree.isEmpty()) {
+         sum += tree.minChunk().markerAt(tree.minIndex());
+         tree.next();
+      }
+      tree.close();
+
+      return sum;
+   }
+
+}
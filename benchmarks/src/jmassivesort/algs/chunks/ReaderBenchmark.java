@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Reading and splitting a local file into lines by {@link OneOffChunkReader}
+ * and {@link SequentialChunkReader}. The file is small enough to stay in the
+ * page cache, so the numbers are mostly for the line parsing.
+ *
+ * @author Serj Sintsov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReaderBenchmark {
+
+   @Param({"200000"})
+   public int lines;
+
+   @Param({"16", "100", "1000"})
+   public int lineLength;
+
+   @Param({"1048576"})
+   public int chunkSize;
+
+   private FileSystem fs;
+   private Path path;
+
+   @Setup
+   public void setUp() throws IOException {
+      fs = LineData.localFs();
+      path = LineData.writeTempFile(fs, LineData.generate(lines, lineLength, 0, 0));
+   }
+
+   @TearDown
+   public void tearDown() throws IOException {
+      fs.delete(path, false);
+   }
+
+   @Benchmark
+   public int oneOff() throws IOException {
+      OneOffChunkReader rd = new OneOffChunkReader(1, 1, fs, path);
+      try {
+         int n = 0;
+         for (Chunk ch = rd.nextChunk(); ch != null; ch = rd.nextChunk())
+            n += ch.size();
+         return n;
+      }
+      finally {
+         closeSilently(rd);
+      }
+   }
+
+   @Benchmark
+   public int sequential() throws IOException {
+      SequentialChunkReader rd = new SequentialChunkReader(chunkSize, fs, path);
+      try {
+         int n = 0;
+         for (Chunk ch = rd.nextChunk(); ch != null; ch = rd.nextChunk())
+            n += ch.size();
+         return n;
+      }
+      finally {
+         closeSilently(rd);
+      }
+   }
+
+}
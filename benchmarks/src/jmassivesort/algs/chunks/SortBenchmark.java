@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory sort of a chunk by the engines {@link ChunkSorting} uses.
+ * Every invocation sorts a fresh unsorted chunk of the same lines.
+ *
+ * @author Serj Sintsov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortBenchmark {
+
+   @Param({"quick", "radix"})
+   public String engine;
+
+   @Param({"100000"})
+   public int lines;
+
+   @Param({"16", "100", "1000"})
+   public int lineLength;
+
+   @Param({"0", "12"})
+   public int sharedPrefix;
+
+   @Param({"0", "50", "90"})
+   public int duplicatePercent;
+
+   private SortEngine sortEngine;
+   private byte[] data;
+   private Chunk chunk;
+
+   @Setup(Level.Trial)
+   public void generate() {
+      sortEngine = SortEngine.byName(engine);
+      data = LineData.generate(lines, lineLength, sharedPrefix, duplicatePercent);
+   }
+
+   @Setup(Level.Invocation)
+   public void unsortedChunk() {
+      chunk = LineData.chunkOf(data);
+   }
+
+   @Benchmark
+   public Chunk sort() {
+      sortEngine.sort(chunk);
+      return chunk;
+   }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Throughput of {@link BufferedChunkWriter} writing a chunk line by line into a
+ * local file, with one buffer and with the ring of buffers written in background.
+ *
+ * @author Serj Sintsov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+
+   @Param({"200000"})
+   public int lines;
+
+   @Param({"16", "100", "1000"})
+   public int lineLength;
+
+   @Param({"1", "4"})
+   public int ringSize;
+
+   private FileSystem fs;
+   private Path path;
+   private Chunk chunk;
+
+   @Setup
+   public void setUp() throws IOException {
+      fs = LineData.localFs();
+      chunk = LineData.chunkOf(LineData.generate(lines, lineLength, 0, 0));
+      path = LineData.writeTempFile(fs, new byte[0]);
+   }
+
+   @TearDown
+   public void tearDown() throws IOException {
+      fs.delete(path, false);
+   }
+
+   @Benchmark
+   public long write() throws IOException {
+      BufferedChunkWriter wr = null;
+      try {
+         wr = new BufferedChunkWriter(fs, path, BufferedChunkWriter.RING_BUFFER_SZ, ringSize, null);
+         wr.write(chunk);
+         wr.close();
+         return wr.getWrittenBytes();
+      }
+      finally {
+         closeSilently(wr);
+      }
+   }
+
+}
@@ -0,0 +1,24 @@
+#!/bin/sh
+
+if [ -z "$1" ]; then
+   echo "Specify target jar file"
+   exit 1
+fi
+
+if [ -z "$2" ]; then
+   echo "Specify work directory, e.g. file:///tmp/bench"
+   exit 1
+fi
+
+LINES=${3:-100,2000,40000,800000,16000000}
+
+java -jar $1 bench $2 $LINES $4 $5
+case "$?" in
+   0)
+      echo SUCCESS
+      ;;
+   1)
+      echo FAILED
+      exit 1
+      ;;
+esac
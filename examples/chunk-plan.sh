@@ -0,0 +1,22 @@
+#!/bin/sh
+
+if [ -z "$1" ]; then
+   echo "Specify target jar file"
+   exit 1
+fi
+
+if [ -z "$2" ]; then
+   echo "Specify total chunks number"
+   exit 1
+fi
+
+java -jar $1 chunk-planning $2
+case "$?" in
+   0)
+      echo SUCCESS
+      ;;
+   1)
+      echo FAILED
+      exit 1
+      ;;
+esac
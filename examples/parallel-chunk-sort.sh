@@ -0,0 +1,27 @@
+#!/bin/sh
+
+if [ -z "$1" ]; then
+   echo "Specify target jar file"
+   exit 1
+fi
+
+if [ -z "$2" ]; then
+   echo "Specify total chunks number"
+   exit 1
+fi
+
+if [ -z "$3" ]; then
+   echo "Specify number of threads"
+   exit 1
+fi
+
+java -jar $1 parallel-chunk-sorting $2 $3 $4
+case "$?" in
+   0)
+      echo SUCCESS
+      ;;
+   1)
+      echo FAILED
+      exit 1
+      ;;
+esac
@@ -0,0 +1,32 @@
+#!/bin/sh
+
+if [ -z "$1" ]; then
+   echo "Specify target jar file"
+   exit 1
+fi
+
+if [ -z "$2" ]; then
+   echo "Specify input file"
+   exit 1
+fi
+
+if [ -z "$3" ]; then
+   echo "Specify output file"
+   exit 1
+fi
+
+if [ -z "$4" ]; then
+   echo "Specify number of buckets"
+   exit 1
+fi
+
+java -jar $1 sample-sort $2 $3 $4 $5 $6
+case "$?" in
+   0)
+      echo SUCCESS
+      ;;
+   1)
+      echo FAILED
+      exit 1
+      ;;
+esac
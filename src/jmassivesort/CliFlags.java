@@ -0,0 +1,100 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort;
+
+import java.util.*;
+
+/**
+ * Splits algorithm options into positional arguments and named flags.
+ * <p/>
+ * A flag starts with '-'. Flags listed as value flags take the next option
+ * as their value (e.g. {@code -engine radix}), all the other known flags are
+ * switches (e.g. {@code -u}). A value flag may be repeated to give several values.
+ *
+ * @author Serj Sintsov
+ */
+public final class CliFlags {
+
+   private final List<String> args = new ArrayList<>();
+   private final Map<String, List<String>> flags = new HashMap<>();
+
+   private CliFlags() {
+   }
+
+   /**
+    * @throws IllegalArgumentException if there is an unknown flag or a flag without value
+    */
+   public static CliFlags parse(String[] options, Collection<String> valueFlags, Collection<String> switches) {
+      CliFlags result = new CliFlags();
+
+      for (int i = 0; i < options.length; i++) {
+         String opt = options[i];
+
+         if (!isFlag(opt))
+            result.args.add(opt);
+         else if (valueFlags.contains(opt)) {
+            if (++i == options.length)
+               throw new IllegalArgumentException("No value for option '" + opt + "'");
+            result.add(opt, options[i]);
+         }
+         else if (switches.contains(opt))
+            result.add(opt, "");
+         else
+            throw new IllegalArgumentException("Unknown option '" + opt + "'");
+      }
+
+      return result;
+   }
+
+   private void add(String flag, String value) {
+      List<String> values = flags.get(flag);
+      if (values == null)
+         flags.put(flag, values = new ArrayList<>(1));
+      values.add(value);
+   }
+
+   private static boolean isFlag(String opt) {
+      return opt.length() > 1 && opt.charAt(0) == '-' && !Character.isDigit(opt.charAt(1));
+   }
+
+   /**
+    * @return options which are not flags in the order they were specified
+    */
+   public String[] args() {
+      return args.toArray(new String[args.size()]);
+   }
+
+   public boolean has(String flag) {
+      return flags.containsKey(flag);
+   }
+
+   /**
+    * @return the last value of the flag or {@code defaultValue} if the flag wasn't specified
+    */
+   public String value(String flag, String defaultValue) {
+      List<String> values = flags.get(flag);
+      return values != null ? values.get(values.size() - 1) : defaultValue;
+   }
+
+   /**
+    * @return all values of the flag in the order they were specified
+    */
+   public List<String> values(String flag) {
+      List<String> values = flags.get(flag);
+      return values != null ? Collections.unmodifiableList(values) : Collections.<String>emptyList();
+   }
+
+}
@@ -16,11 +16,17 @@
 package jmassivesort;
 
 import jmassivesort.algs.SortingAlgorithmBuilder;
+import jmassivesort.algs.chunks.BenchOptions;
 import jmassivesort.algs.chunks.ChunkMergingOptions;
+import jmassivesort.algs.chunks.ChunkPlanningOptions;
 import jmassivesort.algs.chunks.ChunkSortingOptions;
+import jmassivesort.algs.chunks.ExternalSortOptions;
+import jmassivesort.algs.chunks.ParallelChunkSortingOptions;
+import jmassivesort.algs.chunks.SampleSortOptions;
+import jmassivesort.algs.chunks.TopKOptions;
 import static jmassivesort.JMassiveSortUsageFormatter.printUsage;
 import jmassivesort.algs.mergesort.TwoWayMergeSortOptions;
-import jmassivesort.util.Debugger;
+import jmassivesort.util.Metrics;
 
 import java.util.Arrays;
 import java.util.HashMap;
@@ -32,11 +38,17 @@ import java.util.Map;
  */
 public class JMassiveSort {
 
-   private static final Debugger dbg = Debugger.create(JMassiveSort.class);
+   private static final Metrics metrics = Metrics.create(JMassiveSort.class);
 
    private static final String TWO_WAY_MERGESORT_NAME = "2way-mergesort";
+   private static final String CHUNK_PLANNING = "chunk-planning";
    private static final String CHUNK_SORTING = "chunk-sorting";
    private static final String CHUNK_MERGING = "chunk-merging";
+   private static final String PARALLEL_CHUNK_SORTING = "parallel-chunk-sorting";
+   private static final String EXTERNAL_SORT = "external-sort";
+   private static final String SAMPLE_SORT = "sample-sort";
+   private static final String TOP_K = "top-k";
+   private static final String BENCH = "bench";
 
    private static final Map<String, SortingAlgorithmBuilder> algorithms;
    private static final Map<String, String> optionDescriptions;
@@ -47,8 +59,14 @@ public class JMassiveSort {
    static {
       algorithms = new HashMap<String, SortingAlgorithmBuilder>() {{
          put(TWO_WAY_MERGESORT_NAME, TwoWayMergeSortOptions.algorithmBuilder());
+         put(CHUNK_PLANNING, ChunkPlanningOptions.algorithmBuilder());
          put(CHUNK_SORTING, ChunkSortingOptions.algorithmBuilder());
          put(CHUNK_MERGING, ChunkMergingOptions.algorithmBuilder());
+         put(PARALLEL_CHUNK_SORTING, ParallelChunkSortingOptions.algorithmBuilder());
+         put(EXTERNAL_SORT, ExternalSortOptions.algorithmBuilder());
+         put(SAMPLE_SORT, SampleSortOptions.algorithmBuilder());
+         put(TOP_K, TopKOptions.algorithmBuilder());
+         put(BENCH, BenchOptions.algorithmBuilder());
       }};
 
       optionDescriptions = new HashMap<String, String>() {{
@@ -81,11 +99,10 @@ public class JMassiveSort {
       SortingAlgorithmBuilder alg = chooseAlgorithm(algorithmName);
 
       try {
-         dbg.startFunc("Start alg");
-         dbg.startTimer();
+         Metrics.Phase phase = metrics.startPhase("job");
          alg.build(algorithmOptions).apply();
-         dbg.stopTimer();
-         dbg.endFunc("Start alg");
+         phase.stop();
+         metrics.export();
 
          System.exit(0);
       }
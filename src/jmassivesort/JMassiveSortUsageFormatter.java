@@ -41,7 +41,7 @@ public class JMassiveSortUsageFormatter {
       for (String option : optionsDescription.keySet())
          appendKeyValue(buf, option, optionsDescription.get(option));
 
-      printMsg(buf.toString());
+      printMsg("%s", buf.toString());
    }
 
    private static void appendLine(StringBuilder buf, String line, Object... params) {
@@ -53,7 +53,8 @@ public class JMassiveSortUsageFormatter {
       buf.append(spaces(KEY_LEFT_PADDING));
       buf.append(key);
       buf.append(spaces(VALUE_LEFT_PADDING - key.length()));
-      appendLine(buf, value);
+      buf.append(value); // descriptions are not format strings, they may contain '%'
+      buf.append("\n");
    }
 
    private static String spaces(int count) {
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.AbstractAlgorithm;
+import jmassivesort.algs.SortingAlgorithmException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * End-to-end benchmark of {@link ParallelChunkSorting} followed by {@link ChunkMerging}
+ * on a file system without a cluster, e.g. the local one.
+ * <p/>
+ * For every number of lines an input of random numbers is generated the way
+ * {@code scripts/generateInput.groovy} does it, with a fixed seed, and kept in the work
+ * directory for the next runs. Then the input is sorted and every phase is reported
+ * with its throughput, the peak heap, the GC time and the bytes written, the ones
+ * written to the runs and the intermediate merges are reported as intermediate.
+ *
+ * @author Serj Sintsov
+ */
+public class Bench extends AbstractAlgorithm {
+
+   private static final long SEED = 42;
+   private static final int WRITE_BUFFER_SZ = 1024 * 1024; // 1Mb
+   private static final double MB = 1024 * 1024;
+
+   private BenchOptions opts;
+
+   /**
+    * Resource usage of one phase.
+    */
+   private static class Phase {
+      private final String name;
+      private final long startNanos;
+      private final long startGcMillis;
+      private final long startGcCount;
+      private final long startWritten;
+
+      private Phase(String name) {
+         this.name = name;
+         for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+               pool.resetPeakUsage();
+
+         startGcMillis = gcMillis();
+         startGcCount = gcCount();
+         startWritten = bytesWritten();
+         startNanos = System.nanoTime();
+      }
+
+      static Phase start(String name) {
+         return new Phase(name);
+      }
+
+      /**
+       * @param bytes bytes processed by the phase
+       * @param lines lines processed by the phase
+       * @param outBytes bytes of the phase result, the rest of the written bytes are intermediate
+       */
+      void report(long bytes, long lines, long outBytes) {
+         double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+         long written = bytesWritten() - startWritten;
+
+         long peakHeap = 0;
+         for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+               peakHeap += pool.getPeakUsage().getUsed();
+
+         System.out.println(String.format("%-8s %10.3f s %10.1f MB/s %12.0f lines/s  peak heap %8.1f MB  "
+                                          + "gc %7.3f s (%d)  written %10.1f MB  intermediate %10.1f MB",
+                                          name, seconds, bytes / MB / seconds, lines / seconds, peakHeap / MB,
+                                          (gcMillis() - startGcMillis) / 1e3, gcCount() - startGcCount,
+                                          written / MB, Math.max(0, written - outBytes) / MB));
+      }
+
+      private static long gcMillis() {
+         long millis = 0;
+         for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, gc.getCollectionTime());
+         return millis;
+      }
+
+      private static long gcCount() {
+         long count = 0;
+         for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+         return count;
+      }
+
+      private static long bytesWritten() {
+         long bytes = 0;
+         for (FileSystem.Statistics stats : FileSystem.getAllStatistics())
+            bytes += stats.getBytesWritten();
+         return bytes;
+      }
+   }
+
+   public Bench(BenchOptions options) {
+      if  (options == null)
+         throw new IllegalArgumentException("options cannot be null");
+      this.opts = options;
+   }
+
+   @Override
+   public void apply() throws SortingAlgorithmException {
+      System.out.println("bench: " + opts.getThreads() + " threads, memory " + opts.getMemoryBudget() / 1024 / 1024
+                         + " Mb, engine " + opts.getEngine().engineName() + ", fan-in " + opts.getMaxFanIn()
+                         + ", parallel merge " + opts.getParallelism());
+
+      try {
+         for (long lines : opts.getLines())
+            run(lines);
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot run benchmark in '" + opts.getWorkDirPath() + "'", e);
+      }
+   }
+
+   private void run(long lines) throws IOException {
+      FileSystem fs = opts.getFs();
+      Path inPath = new Path(opts.getWorkDirPath(), "input-" + lines + ".txt");
+      Path runsDirPath = new Path(opts.getWorkDirPath(), "runs-" + lines);
+      Path outPath = new Path(opts.getWorkDirPath(), "output-" + lines + ".txt");
+
+      System.out.println(lines + " lines:");
+      if (!fs.exists(inPath)) {
+         Phase generate = Phase.start("generate");
+         generate(inPath, lines);
+         long len = fs.getFileStatus(inPath).getLen();
+         generate.report(len, lines, len);
+      }
+
+      long inLen = fs.getFileStatus(inPath).getLen();
+      fs.delete(runsDirPath, true);
+      fs.delete(outPath, true);
+      fs.mkdirs(runsDirPath);
+
+      Phase sort = Phase.start("sort");
+      new ParallelChunkSorting(new ParallelChunkSortingOptions(numChunks(inLen), opts.getThreads(),
+            opts.getMemoryBudget(), inPath, runsDirPath, opts.getEngine(), opts.getCodec(), KeySpec.WHOLE_LINE,
+            DuplicateMode.KEEP, fs)).apply();
+      sort.report(inLen, lines, 0);
+
+      Phase merge = Phase.start("merge");
+      new ChunkMerging(new ChunkMergingOptions(outPath, runsDirPath, opts.getReadAheadDepth(), opts.getMaxFanIn(),
+            opts.getCodec(), opts.getParallelism(), false, KeySpec.WHOLE_LINE, DuplicateMode.KEEP,
+            opts.getMemoryBudget(), fs)).apply();
+      merge.report(inLen, lines, fs.getFileStatus(outPath).getLen());
+
+      fs.delete(runsDirPath, true);
+      fs.delete(outPath, true);
+   }
+
+   /**
+    * Every thread sorts one chunk at a time, so all of them have to fit into the memory.
+    */
+   private int numChunks(long inLen) {
+      long perChunk = opts.getMemoryBudget() / opts.getThreads() / ExternalSort.MEMORY_PER_CHUNK_BYTE;
+      long chunkSz = perChunk - OneOffChunkReader.chunkBufferSize(0, 1); // without the reader's overhead
+      if (chunkSz < 1)
+         throw new SortingAlgorithmException("Memory budget " + opts.getMemoryBudget() + " byte is too small for "
+               + opts.getThreads() + " threads");
+      return (int) Math.max(opts.getThreads(), (inLen + chunkSz - 1) / chunkSz);
+   }
+
+   /**
+    * Writes random non-negative numbers like {@code scripts/generateInput.groovy}.
+    */
+   private void generate(Path inPath, long lines) throws IOException {
+      Random random = new Random(SEED);
+      OutputStream out = null;
+
+      try {
+         out = new BufferedOutputStream(opts.getFs().create(inPath, true), WRITE_BUFFER_SZ);
+         for (long i = 0; i < lines; i++)
+            out.write((Math.abs(random.nextLong()) + "\n").getBytes(StandardCharsets.US_ASCII));
+         out.close();
+      }
+      finally {
+         closeSilently(out);
+      }
+   }
+
+}
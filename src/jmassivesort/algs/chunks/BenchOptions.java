@@ -0,0 +1,244 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+import jmassivesort.CliOptionsBuilderException;
+import jmassivesort.algs.SortingAlgorithm;
+import jmassivesort.algs.SortingAlgorithmBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumFileSystem;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options to use {@link Bench} algorithm.
+ * @author Serj Sintsov
+ */
+public class BenchOptions {
+
+   private static final int DEFAULT_MEMORY_PERCENT = 50;
+
+   static final List<String> VALUE_FLAGS = Arrays.asList(ChunkSortingOptions.ENGINE_FLAG, RunCompression.CODEC_FLAG,
+         ChunkMergingOptions.READ_AHEAD_FLAG, ChunkMergingOptions.FAN_IN_FLAG, ChunkMergingOptions.PARALLEL_FLAG);
+   static final List<String> SWITCHES = Arrays.asList();
+
+   public static Builder builder() {
+      return new Builder();
+   }
+
+   public static BenchBuilder algorithmBuilder() {
+      return new BenchBuilder();
+   }
+
+   public static class Builder {
+      private final Map<String, String> optionDescriptions = new HashMap<String, String>() {{
+         put("<workDir>", "Directory for the inputs, the runs and the output, e.g. file:///tmp/bench. "
+               + "Inputs are generated once and kept for the next runs");
+         put("<lines>", "Comma separated numbers of lines > 0 to sort one after another, e.g. "
+               + "100,2000,40000,800000,16000000,320000000 like scripts/genTestData.sh");
+         put("[threads]", "Integer value > 0. Number of chunks sorted at the same time, "
+               + "number of processors by default");
+         put("[memoryMb]", "Integer value > 0. Heap budget for the chunks being sorted, "
+               + DEFAULT_MEMORY_PERCENT + "% of max heap by default");
+         put(ChunkSortingOptions.ENGINE_FLAG + " <name>", ChunkSortingOptions.ENGINE_DESCRIPTION);
+         put(RunCompression.CODEC_FLAG + " <name>", RunCompression.CODEC_DESCRIPTION);
+         put(ChunkMergingOptions.READ_AHEAD_FLAG + " <depth>", "Integer value >= 0. Number of chunks of every run "
+               + "read in the background while merging. 0 by default");
+         put(ChunkMergingOptions.FAN_IN_FLAG + " <runs>", "Integer value >= 2. Maximum number of runs merged at once. "
+               + ChunkMergingOptions.DEFAULT_MAX_FAN_IN + " by default");
+         put(ChunkMergingOptions.PARALLEL_FLAG + " <ranges>", ChunkMergingOptions.PARALLEL_DESCRIPTION);
+      }};
+
+      protected Path workDirPath;
+      protected long[] lines;
+      protected int threads;
+      protected long memoryBudget;
+      protected SortEngine engine;
+      protected CompressionCodec codec;
+      protected int readAheadDepth;
+      protected int maxFanIn;
+      protected int parallelism;
+
+      public BenchOptions build(String[] options) throws CliOptionsBuilderException {
+         if (options == null)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         CliFlags flags;
+         try {
+            flags = CliFlags.parse(options, VALUE_FLAGS, SWITCHES);
+            engine = ChunkSortingOptions.parseEngine(flags);
+            codec = RunCompression.parseCodec(flags);
+            readAheadDepth = Integer.parseInt(flags.value(ChunkMergingOptions.READ_AHEAD_FLAG, "0"));
+            maxFanIn = Integer.parseInt(flags.value(ChunkMergingOptions.FAN_IN_FLAG,
+                                                    String.valueOf(ChunkMergingOptions.DEFAULT_MAX_FAN_IN)));
+            parallelism = Integer.parseInt(flags.value(ChunkMergingOptions.PARALLEL_FLAG, "1"));
+            if (readAheadDepth < 0 || maxFanIn < 2 || parallelism < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+         }
+         catch (IllegalArgumentException e) { // including NumberFormatException
+            throw new CliOptionsBuilderException(usage(e.getMessage()), optionDescriptions);
+         }
+
+         options = flags.args();
+         if (options.length < 2 || options.length > 4)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         try {
+            String[] sizes = options[1].split(",");
+            lines = new long[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+               lines[i] = Long.parseLong(sizes[i].trim());
+               if (lines[i] < 1)
+                  throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+            }
+
+            threads = options.length > 2 ? Integer.parseInt(options[2]) : Runtime.getRuntime().availableProcessors();
+            if (threads < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+
+            if (options.length > 3) {
+               int memoryMb = Integer.parseInt(options[3]);
+               if (memoryMb < 1)
+                  throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+               memoryBudget = memoryMb * 1024L * 1024L;
+            }
+            else
+               memoryBudget = Runtime.getRuntime().maxMemory() / 100 * DEFAULT_MEMORY_PERCENT;
+         }
+         catch (NumberFormatException ex) {
+            throw new CliOptionsBuilderException(usage("Incorrect option value"), optionDescriptions);
+         }
+
+         try {
+            workDirPath = new Path(URI.create(options[0]));
+         }
+         catch (Exception e) {
+            throw new CliOptionsBuilderException(usage("Incorrect path"), optionDescriptions);
+         }
+
+         return new BenchOptions(workDirPath, lines, threads, memoryBudget, engine, codec, readAheadDepth, maxFanIn,
+                                 parallelism, benchFs(workDirPath));
+      }
+
+      private String usage(String error) {
+         return error + ". Specify options in order <workDir> <lines>[,<lines>]... [threads] [memoryMb] ["
+               + ChunkSortingOptions.ENGINE_FLAG + " <name>] [" + RunCompression.CODEC_FLAG + " <name>] ["
+               + ChunkMergingOptions.READ_AHEAD_FLAG + " <depth>] [" + ChunkMergingOptions.FAN_IN_FLAG
+               + " <runs>] [" + ChunkMergingOptions.PARALLEL_FLAG + " <ranges>]";
+      }
+   }
+
+   public static class BenchBuilder implements SortingAlgorithmBuilder {
+      @Override
+      public SortingAlgorithm build(String[] options) throws CliOptionsBuilderException {
+         return new Bench(BenchOptions.builder().build(options));
+      }
+   }
+
+   /**
+    * @return the file system of the work directory, without the checksum files
+    *         of the local file system to measure the sort and not the checksums
+    */
+   static FileSystem benchFs(Path workDirPath) {
+      try {
+         FileSystem fs = workDirPath.getFileSystem(new Configuration());
+         return fs instanceof ChecksumFileSystem ? ((ChecksumFileSystem) fs).getRawFileSystem() : fs;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("Cannot get file system of '" + workDirPath + "'", e);
+      }
+   }
+
+   private Path workDirPath;
+   private long[] lines;
+   private int threads;
+   private long memoryBudget;
+   private SortEngine engine;
+   private CompressionCodec codec;
+   private int readAheadDepth;
+   private int maxFanIn;
+   private int parallelism;
+   private FileSystem fs;
+
+   protected BenchOptions(Path workDirPath, long[] lines, int threads, long memoryBudget, SortEngine engine,
+                          CompressionCodec codec, int readAheadDepth, int maxFanIn, int parallelism, FileSystem fs) {
+      this.workDirPath = workDirPath;
+      this.lines = lines.clone();
+      this.threads = threads;
+      this.memoryBudget = memoryBudget;
+      this.engine = engine;
+      this.codec = codec;
+      this.readAheadDepth = readAheadDepth;
+      this.maxFanIn = maxFanIn;
+      this.parallelism = parallelism;
+      this.fs = fs;
+   }
+
+   public Path getWorkDirPath() {
+      return workDirPath;
+   }
+
+   /**
+    * @return numbers of lines of the inputs to sort
+    */
+   public long[] getLines() {
+      return lines.clone();
+   }
+
+   public int getThreads() {
+      return threads;
+   }
+
+   /**
+    * @return heap budget in bytes for the chunks being sorted
+    */
+   public long getMemoryBudget() {
+      return memoryBudget;
+   }
+
+   public SortEngine getEngine() {
+      return engine;
+   }
+
+   public CompressionCodec getCodec() {
+      return codec;
+   }
+
+   public int getReadAheadDepth() {
+      return readAheadDepth;
+   }
+
+   public int getMaxFanIn() {
+      return maxFanIn;
+   }
+
+   public int getParallelism() {
+      return parallelism;
+   }
+
+   public FileSystem getFs() {
+      return fs;
+   }
+}
@@ -15,64 +15,336 @@
  */
 package jmassivesort.algs.chunks;
 
+import jmassivesort.util.Metrics;
 import org.apache.hadoop.fs.*;
+import org.apache.hadoop.io.compress.CompressionCodec;
 
 import java.io.*;
-import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import static jmassivesort.util.IOUtils.closeSilently;
-import static jmassivesort.algs.chunks.Chunk.ChunkMarker;
 
 /**
  * Writes {@link Chunk} to the disk using best approach.
+ * <p/>
+ * Lines are copied into a buffer which is written out when it is full. With
+ * more than one buffer the writer owns a ring of them and a dedicated I/O
+ * thread writes the filled buffers while the caller fills the next one, so
+ * producing lines and writing them overlap. Lines too long for the buffer
+ * are written directly from the chunk's data without copying.
+ * <p/>
+ * Written bytes and buffers are added to the {@link Metrics} as they are written out.
+ * <p/>
+ * The output may be compressed by a codec, see {@link RunCompression}.
+ * Lines of a chunk with counts are written as {@code <count>\t<line>}, see
+ * {@link DuplicateMode}. Lines encoded with their sort keys may be written
+ * without the keys, see {@link SortKeys}.
  *
  * @author Serj Sintsov
  */
 public class BufferedChunkWriter implements Closeable, Flushable {
 
-   private static final int MAX_BUFFER_SZ = 20 * 1024 * 1024; // 10Mb
+   public static final int DEFAULT_BUFFER_SZ = 20 * 1024 * 1024; // 20Mb
+   public static final int RING_BUFFER_SZ = 4 * 1024 * 1024; // 4Mb
+   public static final int RING_SIZE = 4;
+
    private static final byte[] lns = System.getProperty("line.separator").getBytes();
+   private static final Filled EOF = new Filled(null, 0);
+
+   private static final class Filled {
+      final byte[] data;
+      final int size;
+
+      Filled(byte[] data, int size) {
+         this.data = data;
+         this.size = size;
+      }
+   }
 
-   private OutputStream out = null;
+   private final OutputStream out;
+   private final int numBuffers;
+   private final int directWriteThreshold;
+   private final boolean stripSortKeys;
+
+   private final byte[] countBuf = new byte[21]; // digits of a long and '\t'
+
+   private byte[] buffer;
    private int bufferSz = 0;
-   private byte[] buffer = new byte[MAX_BUFFER_SZ];
+   private long written = 0;
+
+   // the ring of buffers, used only with the I/O thread
+   private final BlockingQueue<Filled> filled;
+   private final BlockingQueue<byte[]> free;
+   private final Thread ioThread;
+   private volatile IOException ioError = null;
+   private boolean closed = false;
 
    public BufferedChunkWriter(FileSystem fs, Path outPath) throws IOException {
-      out = fs.create(outPath);
+      this(fs, outPath, DEFAULT_BUFFER_SZ, 1);
    }
 
-   public void write(byte[] chunkData, List<ChunkMarker> lines) throws IOException {
-      for (ChunkMarker line : lines)
-         write(chunkData, line);
+   /**
+    * @param bufferSz size of every buffer
+    * @param numBuffers number of buffers, more than one means writing in the background
+    */
+   public BufferedChunkWriter(FileSystem fs, Path outPath, int bufferSz, int numBuffers) throws IOException {
+      this(fs, outPath, bufferSz, numBuffers, null);
    }
 
-   public void write(byte[] chunkData, ChunkMarker line) throws IOException {
-      if (bufferSz + line.len + lns.length < MAX_BUFFER_SZ)
-         fill(chunkData, line);
+   /**
+    * @param bufferSz size of every buffer
+    * @param numBuffers number of buffers, more than one means writing in the background
+    * @param codec codec to compress the output with or {@code null}
+    */
+   public BufferedChunkWriter(FileSystem fs, Path outPath, int bufferSz, int numBuffers, CompressionCodec codec)
+         throws IOException {
+      this(fs, outPath, bufferSz, numBuffers, codec, false);
+   }
+
+   /**
+    * @param bufferSz size of every buffer
+    * @param numBuffers number of buffers, more than one means writing in the background
+    * @param codec codec to compress the output with or {@code null}
+    * @param stripSortKeys {@code true} to write encoded lines without their sort keys
+    */
+   public BufferedChunkWriter(FileSystem fs, Path outPath, int bufferSz, int numBuffers, CompressionCodec codec,
+                              boolean stripSortKeys) throws IOException {
+      if (bufferSz < 1 || numBuffers < 1)
+         throw new IllegalArgumentException("Buffer size and number of buffers must be positive integers");
+
+      this.buffer = new byte[bufferSz];
+      this.numBuffers = numBuffers;
+      this.directWriteThreshold = bufferSz / 2;
+      this.stripSortKeys = stripSortKeys;
+
+      if (numBuffers > 1) {
+         filled = new ArrayBlockingQueue<>(numBuffers);
+         free = new ArrayBlockingQueue<>(numBuffers);
+         for (int i = 1; i < numBuffers; i++)
+            free.add(new byte[bufferSz]);
+      }
       else {
-         flush();
+         filled = null;
+         free = null;
+      }
+
+      out = RunCompression.create(fs, outPath, codec);
+
+      if (numBuffers > 1) {
+         ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               drain();
+            }
+         }, "chunk-writer");
+         ioThread.setDaemon(true);
+         ioThread.start();
+      }
+      else
+         ioThread = null;
+   }
+
+   public void write(Chunk ch) throws IOException {
+      for (int i = 0; i < ch.size(); i++)
+         writeAt(ch, i);
+   }
+
+   /**
+    * Writes the line of the chunk with its count if the chunk has counts.
+    */
+   public void writeAt(Chunk ch, int i) throws IOException {
+      if (ch.hasCounts())
+         write(ch.rawData(), ch.markerAt(i), ch.countAt(i));
+      else
+         write(ch.rawData(), ch.markerAt(i));
+   }
+
+   public void write(byte[] chunkData, long line) throws IOException {
+      write(0, chunkData, line);
+   }
+
+   /**
+    * Writes the line as {@code <count>\t<line>}.
+    */
+   public void write(byte[] chunkData, long line, long count) throws IOException {
+      int n = countBuf.length;
+      countBuf[--n] = '\t';
+      do {
+         countBuf[--n] = (byte) ('0' + count % 10);
+         count /= 10;
+      } while (count > 0);
+
+      write(countBuf.length - n, chunkData, line);
+   }
+
+   /**
+    * @param countLen number of the last bytes of {@link #countBuf} to write before the line
+    */
+   private void write(int countLen, byte[] chunkData, long line) throws IOException {
+      if (stripSortKeys)
+         line = SortKeys.lineOf(chunkData, line);
+
+      int len = countLen + Chunk.lengthOf(line) + lns.length;
+      written += len;
+
+      if (len > directWriteThreshold)
+         writeDirectly(countLen, chunkData, Chunk.offsetOf(line), Chunk.lengthOf(line));
+      else {
+         if (bufferSz + len > buffer.length)
+            flushBuffer();
+         System.arraycopy(countBuf, countBuf.length - countLen, buffer, bufferSz, countLen);
+         bufferSz += countLen;
          fill(chunkData, line);
       }
    }
 
-   private void fill(byte[] chunkData, ChunkMarker line) {
-      System.arraycopy(chunkData, line.off, buffer, bufferSz, line.len);
-      bufferSz += line.len;
+   /**
+    * @return number of bytes of all the lines written so far, including counts and line separators
+    */
+   public long getWrittenBytes() {
+      return written;
+   }
+
+   private void fill(byte[] chunkData, long line) {
+      int len = Chunk.lengthOf(line);
+      System.arraycopy(chunkData, Chunk.offsetOf(line), buffer, bufferSz, len);
+      bufferSz += len;
       System.arraycopy(lns, 0, buffer, bufferSz, lns.length);
       bufferSz += lns.length;
    }
 
+   /**
+    * Writes the line after all the buffered ones right from the caller's thread,
+    * since the chunk's data may be reused as soon as this method returns.
+    */
+   private void writeDirectly(int countLen, byte[] chunkData, int off, int len) throws IOException {
+      flushBuffer();
+      awaitWritten();
+      out.write(countBuf, countBuf.length - countLen, countLen);
+      out.write(chunkData, off, len);
+      out.write(lns);
+      Metrics.add(Metrics.Counter.BYTES_WRITTEN, countLen + len + lns.length);
+   }
+
+   /**
+    * Writes the current buffer or passes it to the I/O thread.
+    */
+   private void flushBuffer() throws IOException {
+      if (bufferSz == 0)
+         return;
+
+      Metrics.add(Metrics.Counter.BYTES_WRITTEN, bufferSz);
+      Metrics.add(Metrics.Counter.FLUSHES, 1);
+
+      if (ioThread == null)
+         out.write(buffer, 0, bufferSz);
+      else {
+         checkIoError();
+         try {
+            filled.put(new Filled(buffer, bufferSz));
+            buffer = free.take();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while passing a buffer to the writer");
+         }
+      }
+
+      bufferSz = 0;
+   }
+
+   /**
+    * Waits until the I/O thread writes all the passed buffers. It returns every
+    * buffer to the free ones after writing, so all of them are taken and put back.
+    */
+   private void awaitWritten() throws IOException {
+      if (ioThread == null)
+         return;
+
+      byte[][] ring = new byte[numBuffers - 1][];
+      try {
+         for (int i = 0; i < ring.length; i++)
+            ring[i] = free.take();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for the writer");
+      }
+      finally {
+         for (byte[] b : ring)
+            if (b != null)
+               free.add(b);
+      }
+
+      checkIoError();
+   }
+
+   private void drain() {
+      try {
+         for (Filled b = filled.take(); b != EOF; b = filled.take()) {
+            try {
+               if (ioError == null)
+                  out.write(b.data, 0, b.size);
+            }
+            catch (IOException e) {
+               ioError = e;
+            }
+            catch (RuntimeException | Error e) { // e.g. OutOfMemoryError, the producer must not wait forever
+               ioError = new IOException("Cannot write a buffer", e);
+            }
+            finally {
+               free.add(b.data);
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         // the writer is closed
+      }
+   }
+
+   private void checkIoError() throws IOException {
+      if (ioError != null)
+         throw ioError;
+   }
+
    @Override
    public void close() throws IOException {
-      flush();
-      closeSilently(out);
+      if (closed)
+         return;
+
+      boolean outClosed = false;
+      try {
+         flush();
+         out.close(); // a compressed stream is finished on close
+         outClosed = true;
+      }
+      finally {
+         closed = true;
+         if (ioThread != null)
+            stopIoThread();
+         if (!outClosed)
+            closeSilently(out);
+      }
+   }
+
+   private void stopIoThread() {
+      if (!filled.offer(EOF))
+         ioThread.interrupt();
+
+      try {
+         ioThread.join();
+      }
+      catch (InterruptedException e) {
+         ioThread.interrupt();
+         Thread.currentThread().interrupt();
+      }
    }
 
    @Override
    public void flush() throws IOException {
-      out.write(buffer, 0, bufferSz);
-      buffer = new byte[MAX_BUFFER_SZ];
-      bufferSz = 0;
+      flushBuffer();
+      awaitWritten();
    }
 
 }
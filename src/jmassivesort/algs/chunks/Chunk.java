@@ -15,30 +15,114 @@
  */
 package jmassivesort.algs.chunks;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * A part of the file loaded into the memory together with the markers of its lines.
+ * <p/>
+ * Each line marker packs the line offset and length into one {@code long},
+ * so that markers are stored in a primitive array and there are no per-line
+ * objects on the heap.
+ * <p/>
+ * Next to every marker the chunk keeps the first {@link #PREFIX_LENGTH} bytes
+ * of the line as a big-endian number which compares as unsigned the same way
+ * as the lines do. Most comparisons are resolved by the prefixes and don't
+ * touch {@link #rawData()} at all.
+ * <p/>
+ * A chunk of delimited records sorted by {@link KeySpec} keys also keeps
+ * the markers of the keys of every line, extracted once when the line is
+ * added. Then the prefix is the one of the first key and lines are compared
+ * by their keys. In numeric mode the prefix is the value of the first key,
+ * so lines with equal prefixes are compared by the rest of the keys only.
+ * <p/>
+ * A chunk may keep the number of duplicates every line stands for, see
+ * {@link DuplicateMode}. Lines of a counted chunk are read as {@code <count>\t<line>}
+ * and the markers point to the lines without their counts.
  *
- * todo javadoc
  * @author Serj Sintsov
  */
 public class Chunk {
 
-   public final static ChunkMarker EMPTY_MARKER = new ChunkMarker(0, 0);
+   public final static long EMPTY_MARKER = pack(0, 0);
+   public final static int PREFIX_LENGTH = 8;
 
-   public static class ChunkMarker {
-      public final int off;
-      public final int len;
+   private static final int MIN_CAPACITY_INCREMENT = 1024;
+   private static final int LINE_OVERHEAD_SIZE = 2 * 8; // marker and prefix
+   private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8; // max array size
 
-      public ChunkMarker(int offset, int length) {
-         this.off = offset;
-         this.len = length;
+   private final KeySpec keySpec;
+   private final int numKeys;
+   private final boolean numeric;
+   private final boolean counted;
+
+   private byte[] rawData = new byte[0];
+   private long[] markers = new long[0];
+   private long[] prefixes = new long[0];
+   private long[] keys = new long[0]; // numKeys markers per line
+   private long[] counts = null; // every line stands for one line if null
+   private int size = 0;
+
+   public Chunk() {
+      this(KeySpec.WHOLE_LINE);
+   }
+
+   public Chunk(KeySpec keySpec) {
+      this(keySpec, false);
+   }
+
+   /**
+    * @param counted {@code true} if every added line starts with its count
+    */
+   public Chunk(KeySpec keySpec, boolean counted) {
+      this(keySpec, counted, 0);
+   }
+
+   /**
+    * @param capacity number of lines to allocate the markers for at once, so they
+    *                 take no more memory than {@code capacity * bytesPerLine()}
+    */
+   public Chunk(KeySpec keySpec, boolean counted, int capacity) {
+      this.keySpec = keySpec;
+      this.numKeys = keySpec.numKeys();
+      this.numeric = keySpec.isNumeric();
+      this.counted = counted;
+
+      if (capacity > 0) {
+         markers = new long[capacity];
+         prefixes = new long[capacity];
+         keys = new long[capacity * numKeys];
       }
+      if (counted)
+         counts = new long[markers.length];
    }
 
-   private byte[] rawData = new byte[0];
-   private List<ChunkMarker> markers = new ArrayList<>(0);
+   /**
+    * @param counted {@code true} if every line keeps its count
+    * @return heap bytes every line takes in a chunk besides its own bytes
+    */
+   public static int bytesPerLine(KeySpec keySpec, boolean counted) {
+      return LINE_OVERHEAD_SIZE + 8 * keySpec.numKeys() + (counted ? 8 : 0);
+   }
+
+   /**
+    * @return number of lines which markers fit into {@code memory} bytes, at least one
+    */
+   public static int maxLines(long memory, KeySpec keySpec, boolean counted) {
+      long maxCapacity = MAX_CAPACITY / Math.max(1, keySpec.numKeys());
+      return (int) Math.max(1, Math.min(maxCapacity, memory / bytesPerLine(keySpec, counted)));
+   }
+
+   public static long pack(int offset, int length) {
+      return ((long) offset << 32) | (length & 0xFFFFFFFFL);
+   }
+
+   public static int offsetOf(long marker) {
+      return (int) (marker >>> 32);
+   }
+
+   public static int lengthOf(long marker) {
+      return (int) marker;
+   }
 
    public byte[] rawData() {
       return rawData;
@@ -48,55 +132,265 @@ public class Chunk {
       this.rawData = rawData;
    }
 
-   public List<ChunkMarker> allMarkers() {
-      return markers;
+   /**
+    * @return number of markers in the chunk
+    */
+   public int size() {
+      return size;
+   }
+
+   public boolean isEmpty() {
+      return size == 0;
+   }
+
+   public long markerAt(int i) {
+      return markers[i];
+   }
+
+   public long prefixAt(int i) {
+      return prefixes[i];
+   }
+
+   public KeySpec keySpec() {
+      return keySpec;
+   }
+
+   /**
+    * @return {@code true} if lines are compared by keys and not as a whole
+    */
+   public boolean hasKeys() {
+      return numKeys > 0;
+   }
+
+   /**
+    * @return {@code true} if prefixes are the numeric values of the first keys
+    */
+   public boolean isNumeric() {
+      return numeric;
+   }
+
+   /**
+    * @return marker of the first key of the line or the line marker if there are no keys
+    */
+   public long keyAt(int i) {
+      return numKeys > 0 ? keys[i * numKeys] : markers[i];
+   }
+
+   /**
+    * @return marker of the key {@code k} of the line
+    */
+   long keyAt(int i, int k) {
+      return keys[i*numKeys + k];
    }
 
-   public ChunkMarker addMarker(int offset, int length) {
+   /**
+    * @return {@code true} if lines have counts of their duplicates
+    */
+   public boolean hasCounts() {
+      return counts != null;
+   }
+
+   /**
+    * @return number of lines the line stands for
+    */
+   public long countAt(int i) {
+      return counts == null ? 1 : counts[i];
+   }
+
+   public void swapMarkers(int i, int j) {
+      long m = markers[i];
+      markers[i] = markers[j];
+      markers[j] = m;
+
+      long p = prefixes[i];
+      prefixes[i] = prefixes[j];
+      prefixes[j] = p;
+
+      for (int k = 0; k < numKeys; k++) {
+         long key = keys[i*numKeys + k];
+         keys[i*numKeys + k] = keys[j*numKeys + k];
+         keys[j*numKeys + k] = key;
+      }
+
+      if (counts != null) {
+         long c = counts[i];
+         counts[i] = counts[j];
+         counts[j] = c;
+      }
+   }
+
+   public long addMarker(int offset, int length) {
       if (offset+length >= rawData.length)
          throw new IllegalArgumentException("Marker offset and length is greater than data length");
       return addMarkerUnsafely(offset, length);
    }
 
-   public ChunkMarker addMarkerUnsafely(int offset, int length) {
-      if (length == 0) {
-         markers.add(EMPTY_MARKER); // just to save space
-         return EMPTY_MARKER;
+   /**
+    * Doesn't check the marker bounds, but the line bytes must be
+    * already in the {@link #rawData()} to calculate the line prefix.
+    */
+   public long addMarkerUnsafely(int offset, int length) {
+      if (size == markers.length) {
+         int capacity = size + Math.max(size >> 1, MIN_CAPACITY_INCREMENT);
+         markers = Arrays.copyOf(markers, capacity);
+         prefixes = Arrays.copyOf(prefixes, capacity);
+         keys = Arrays.copyOf(keys, capacity * numKeys);
+         if (counts != null)
+            counts = Arrays.copyOf(counts, capacity);
       }
 
-      ChunkMarker m = new ChunkMarker(offset, length);
-      markers.add(m);
+      if (counted) {
+         int end = offset + length;
+         int i = offset;
+         long count = 0;
+         while (i < end && rawData[i] >= '0' && rawData[i] <= '9')
+            count = count * 10 + (rawData[i++] - '0');
+
+         if (i > offset && i < end && rawData[i] == '\t') {
+            offset = i + 1;
+            length = end - offset;
+         }
+         else if (length == 0) // an empty line after the last EOL stands for no lines
+            count = 0;
+         else
+            throw new NumberFormatException("Line of a counted run doesn't start with the count");
+         counts[size] = count;
+      }
+
+      long m = length == 0 ? EMPTY_MARKER : pack(offset, length);
+      markers[size] = m;
+      if (numKeys == 0)
+         prefixes[size] = numeric ? keySpec.keyPrefix(rawData, offset, length) : prefix(rawData, offset, length);
+      else {
+         keySpec.extract(rawData, offset, length, keys, size * numKeys);
+         long key = keys[size * numKeys];
+         prefixes[size] = keySpec.keyPrefix(rawData, offsetOf(key), lengthOf(key));
+      }
+      size++;
       return m;
    }
 
-   public int compareMarkers(ChunkMarker m1, ChunkMarker m2) {
-      int i = m1.off;
-      int j = m2.off;
+   /**
+    * Packs first bytes of the line into a big-endian number, which compares
+    * as unsigned the same way as {@link #compareMarkers(long, long)} does.
+    * Missing bytes of short lines are zeros, so lines with equal prefixes
+    * still have to be compared byte by byte.
+    */
+   public static long prefix(byte[] data, int offset, int length) {
+      long p = 0;
+      int n = Math.min(length, PREFIX_LENGTH);
+      for (int k = 0; k < n; k++)
+         p = (p << 8) | (data[offset + k] & 0xFF);
+      return p << (8 * (PREFIX_LENGTH - n));
+   }
 
-      while ((i < m1.off+m1.len) && (j < m2.off+m2.len)) {
-         if (rawData[i] != rawData[j])
-            return rawData[i] - rawData[j];
-         else {
-            i++; j++;
-         }
-      }
+   /**
+    * @return the unsigned byte of the line prefix
+    */
+   public static int prefixByte(long prefix, int k) {
+      return (int) (prefix >>> (8 * (PREFIX_LENGTH - 1 - k))) & 0xFF;
+   }
+
+   public static int comparePrefixes(long p1, long p2) {
+      return p1 == p2 ? 0 : ((p1 ^ Long.MIN_VALUE) < (p2 ^ Long.MIN_VALUE) ? -1 : 1);
+   }
+
+   /**
+    * Compares lines by their indexes.
+    */
+   public int compareAt(int i, int j) {
+      int c = comparePrefixes(prefixes[i], prefixes[j]);
+      if (c != 0)
+         return c;
+      if (numKeys == 0)
+         return compareMarkers(markers[i], markers[j]);
+      return KeySpec.compareKeys(rawData, markers[i], keys, i*numKeys, rawData, markers[j], keys, j*numKeys,
+                                 numeric ? 1 : 0, numKeys);
+   }
+
+   /**
+    * Compares lines with equal first keys by the rest of the keys and then as a whole.
+    * Numeric lines with equal prefixes have equal first keys.
+    */
+   int compareTiesAt(int i, int j) {
+      return KeySpec.compareKeys(rawData, markers[i], keys, i*numKeys, rawData, markers[j], keys, j*numKeys,
+                                 1, numKeys);
+   }
+
+   /**
+    * @return {@code true} if the lines have equal keys, both chunks must have the same {@link KeySpec}
+    */
+   public static boolean equalKeysAt(Chunk ch1, int i, Chunk ch2, int j) {
+      if (ch1.prefixes[i] != ch2.prefixes[j])
+         return false;
 
-      return m1.len - m2.len;
+      int n = ch1.numKeys;
+      if (n == 0)
+         return ch1.numeric || compareMarkers(ch1.rawData, ch1.markers[i], ch2.rawData, ch2.markers[j]) == 0;
+
+      for (int k = ch1.numeric ? 1 : 0; k < n; k++)
+         if (compareMarkers(ch1.rawData, ch1.keys[i*n + k], ch2.rawData, ch2.keys[j*n + k]) != 0)
+            return false;
+      return true;
    }
 
-   public static int compareMarkers(byte[] chunk1, ChunkMarker m1, byte[] chunk2, ChunkMarker m2) {
-      int i = m1.off;
-      int j = m2.off;
+   /**
+    * Leaves the first line of every run of lines with equal keys of the sorted chunk.
+    *
+    * @param count {@code true} to keep the number of lines every line stands for,
+    *              lines which stand for no lines are removed
+    */
+   public void collapseDuplicates(boolean count) {
+      if (count && counts == null) {
+         counts = new long[markers.length];
+         Arrays.fill(counts, 1);
+      }
+
+      int n = 0;
+      for (int i = 0; i < size; ) {
+         long c = countAt(i);
+         int j = i + 1;
+         for (; j < size && equalKeysAt(this, i, this, j); j++)
+            c += countAt(j);
 
-      while ((i < m1.off+m1.len) && (j < m2.off+m2.len)) {
-         if (chunk1[i] != chunk2[j])
-            return chunk1[i] - chunk2[j];
-         else {
-            i++; j++;
+         if (!count || c > 0) {
+            markers[n] = markers[i];
+            prefixes[n] = prefixes[i];
+            System.arraycopy(keys, i*numKeys, keys, n*numKeys, numKeys);
+            if (counts != null)
+               counts[n] = count ? c : 1;
+            n++;
          }
+         i = j;
       }
 
-      return m1.len - m2.len;
+      size = n;
+   }
+
+   /**
+    * Compares lines of two different chunks by their indexes.
+    * Both chunks must have the same {@link KeySpec}.
+    */
+   public static int compareAt(Chunk ch1, int i, Chunk ch2, int j) {
+      int c = comparePrefixes(ch1.prefixes[i], ch2.prefixes[j]);
+      if (c != 0)
+         return c;
+      if (ch1.numKeys == 0)
+         return compareMarkers(ch1.rawData, ch1.markers[i], ch2.rawData, ch2.markers[j]);
+      return KeySpec.compareKeys(ch1.rawData, ch1.markers[i], ch1.keys, i*ch1.numKeys,
+                                 ch2.rawData, ch2.markers[j], ch2.keys, j*ch2.numKeys,
+                                 ch1.numeric ? 1 : 0, ch1.numKeys);
+   }
+
+   public int compareMarkers(long m1, long m2) {
+      return compareMarkers(rawData, m1, rawData, m2);
+   }
+
+   /**
+    * Compares lines or keys by their markers, bytes are unsigned, see {@link UnsignedBytes}.
+    */
+   public static int compareMarkers(byte[] chunk1, long m1, byte[] chunk2, long m2) {
+      return UnsignedBytes.compare(chunk1, offsetOf(m1), lengthOf(m1), chunk2, offsetOf(m2), lengthOf(m2));
    }
 
 }
@@ -17,29 +17,51 @@ package jmassivesort.algs.chunks;
 
 import jmassivesort.algs.AbstractAlgorithm;
 import jmassivesort.algs.SortingAlgorithmException;
-import jmassivesort.util.Debugger;
+import jmassivesort.util.Metrics;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.compress.CompressionCodec;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static jmassivesort.util.IOUtils.closeSilently;
 
 /**
  * Merges sorted chunks {@link Chunk} into one file.
+ * <p/>
+ * At most {@link ChunkMergingOptions#getMaxFanIn()} runs are merged at once.
+ * If there are more runs, they are merged into intermediate runs first
+ * according to the plan of {@link MergePlanner}.
+ * <p/>
+ * The final merge may be divided into key ranges by {@link RangeSplitter}.
+ * Ranges are merged at the same time into segments of the output, which are
+ * then joined into the output file or left as files of the output directory.
+ * <p/>
+ * Finished steps are recorded in the {@link JobManifest} of the runs directory,
+ * so a restarted merge of the same runs resumes from the intermediate runs.
  *
  * @author Serj Sintsov
  */
 public class ChunkMerging extends AbstractAlgorithm {
 
-   private static final int BUF_PER_CHUNK = 1*1024*1024; // 1Mb
+   static final String INTERMEDIATE_DIR_NAME = "_merge";
+   static final String SEGMENTS_DIR_NAME = "segments";
 
-   private final Debugger dbg = Debugger.create(getClass());
+   private static final int MIN_BUF_PER_CHUNK = 1*1024*1024; // 1Mb
+   private static final int MAX_BUF_PER_CHUNK = 16*1024*1024; // 16Mb
+   private static final int MEMORY_PER_CHUNK_BYTE = 3; // read buffer, chunk data and its markers
+   private static final int READ_AHEAD_THREADS_PER_CPU = 4;
+
+   private final Metrics metrics = Metrics.create(getClass());
 
    private ChunkMergingOptions opts;
-   private SequentialChunkReader[] inputRDs;
+   private ExecutorService readAheadExecutor;
 
    public ChunkMerging(ChunkMergingOptions options) {
       if  (options == null)
@@ -47,144 +69,411 @@ public class ChunkMerging extends AbstractAlgorithm {
       this.opts = options;
    }
 
-   private void createChunksReaders() {
-      dbg.startFunc("createChunksReaders");
-      dbg.markFreeMemory();
-      dbg.startTimer();
+   @Override
+   public void apply() throws SortingAlgorithmException {
+      Metrics.Phase phase = metrics.startPhase("apply");
+
+      Path tmpDirPath = tmpDirPath();
 
       try {
-         List<Path> chPaths = listChunks();
-         inputRDs = new SequentialChunkReader[chPaths.size()];
-         for (int i = 0; i < chPaths.size(); i++) {
-            inputRDs[i] = new SequentialChunkReader(BUF_PER_CHUNK, opts.getFs(), chPaths.get(i));
+         List<FileStatus> runs = listChunks();
+         int fanIn = MergePlanner.fanIn(runs.size(), maxFanIn());
+         List<MergePlanner.MergeStep> plan = new MergePlanner(fanIn).plan(runs, tmpDirPath, runSuffix(), opts.getOutPath());
+         metrics.echo("merging " + runs.size() + " runs in " + plan.size() + " steps, fan-in " + fanIn);
+
+         JobManifest manifest = new JobManifest(opts.getFs(), opts.getChunksDirPath());
+         int first = resumeFrom(manifest, plan, runs);
+         if (first == 0)
+            opts.getFs().delete(tmpDirPath, true);
+         else
+            metrics.echo("resuming merge after " + first + " finished steps");
+
+         if (opts.getReadAheadDepth() > 0)
+            readAheadExecutor = createReadAheadExecutor(fanIn);
+
+         Set<Path> intermediates = new HashSet<>();
+         for (int i = 0; i < plan.size(); i++) {
+            MergePlanner.MergeStep step = plan.get(i);
+            if (i >= first) {
+               if (!step.isIntermediate() && (opts.getParallelism() > 1 || opts.isKeepSegments()))
+                  mergeParallel(step);
+               else
+                  merge(step);
+               manifest.recordStep(i, step);
+            }
+
+            for (Path in : step.getInputs())
+               if (intermediates.remove(in))
+                  opts.getFs().delete(in, false);
+            if (step.isIntermediate())
+               intermediates.add(step.getOutput());
          }
+
+         opts.getFs().delete(tmpDirPath, true);
+         manifest.finishMerge();
       }
       catch (IOException e) {
-         throw new SortingAlgorithmException("Cannot read chunk file", e);
+         throw new SortingAlgorithmException("Cannot read chunk or write to output", e);
+      }
+      finally {
+         if (readAheadExecutor != null)
+            readAheadExecutor.shutdownNow();
       }
 
-      dbg.stopTimer();
-      dbg.checkMemoryUsage();
-      dbg.endFunc("createChunksReaders");
+      phase.stop();
    }
 
-   private List<Path> listChunks() throws IOException {
-      List<Path> paths = new ArrayList<>();
-      RemoteIterator<LocatedFileStatus> it = opts.getFs().listFiles(this.opts.getChunksDirPath(), false);
+   /**
+    * Steps finished by a previous attempt of the same merge are skipped as long as
+    * the intermediate runs the next steps read, or the output, are untouched.
+    *
+    * @return the first step to merge
+    */
+   private int resumeFrom(JobManifest manifest, List<MergePlanner.MergeStep> plan, List<FileStatus> runs)
+         throws IOException {
+      StringBuilder options = new StringBuilder();
+      options.append("codec ").append(opts.getCodec() == null ? "none" : opts.getCodec().getClass().getName())
+             .append(", keys ").append(opts.getKeySpec()).append(", duplicates ").append(opts.getDuplicates());
+      for (FileStatus run : runs)
+         options.append(", ").append(run.getPath().getName()).append(' ').append(run.getLen());
+
+      if (!manifest.startMerge(plan, options.toString()))
+         return 0;
+
+      int first = 0;
+      while (first < plan.size() && manifest.isStepFinished(first))
+         first++;
+
+      Set<Path> needed = new HashSet<>();
+      for (int i = first; i < plan.size(); i++)
+         needed.addAll(plan.get(i).getInputs());
+
+      for (int i = 0; i < first; i++) {
+         MergePlanner.MergeStep step = plan.get(i);
+         boolean isNeeded = step.isIntermediate() ? needed.contains(step.getOutput()) : true;
+         if (isNeeded && !manifest.isStepOutputUntouched(i, step)) {
+            metrics.echo("output of finished step '" + step.getOutput() + "' is changed, merging from the start");
+            manifest.finishMerge();
+            manifest.startMerge(plan, options.toString());
+            return 0;
+         }
+      }
+
+      return first;
+   }
+
+   private Path tmpDirPath() {
+      return new Path(opts.getChunksDirPath(), INTERMEDIATE_DIR_NAME);
+   }
+
+   static Path segmentPath(Path segmentsDirPath, int segment) {
+      return new Path(segmentsDirPath, String.format("part-%05d", segment));
+   }
+
+   private String runSuffix() {
+      return opts.getCodec() == null ? ".chunk" : ".chunk" + opts.getCodec().getDefaultExtension();
+   }
 
-      while (it.hasNext())
-         paths.add(it.next().getPath());
+   /**
+    * Every run needs at least its read buffer and the chunk being merged with its markers.
+    */
+   private int maxFanIn() {
+      long maxFanIn = opts.getMemoryBudget() / ((long) MEMORY_PER_CHUNK_BYTE * MIN_BUF_PER_CHUNK);
+      return (int) Math.max(2, Math.min(opts.getMaxFanIn(), maxFanIn));
+   }
+
+   private void merge(MergePlanner.MergeStep step) throws IOException {
+      Metrics.Phase phase = metrics.startPhase("merge");
+
+      ChunkReader[] inputRDs = createChunksReaders(step.getInputs());
+      mergeInto(opts.getFs(), inputRDs, step.getOutput(), step.isIntermediate() ? opts.getCodec() : null,
+                opts.getDuplicates(), !step.isIntermediate() && opts.getKeySpec().isCollated());
+      if (step.isIntermediate())
+         Metrics.add(Metrics.Counter.RUNS, 1);
 
-      return paths;
+      phase.stop();
    }
 
-   private BufferedChunkWriter createOutputWriter() {
+   private void mergeParallel(MergePlanner.MergeStep step) throws IOException {
+      Metrics.Phase phase = metrics.startPhase("mergeParallel");
+
+      final List<Path> runs = step.getInputs();
+      List<byte[]> splitters = Collections.emptyList();
+      if (opts.getParallelism() > 1 && isSplittable(runs))
+         splitters = RangeSplitter.sampleSplitters(opts.getFs(), runs, opts.getParallelism(),
+                                                   opts.getKeySpec().runKeySpec(), opts.getDuplicates());
+      final long[][] bounds = splitters.isEmpty() ? null
+                              : RangeSplitter.bounds(opts.getFs(), runs, splitters, opts.getKeySpec().runKeySpec(),
+                                                                   opts.getDuplicates());
+
+      final int numSegments = splitters.size() + 1;
+      final int depth = readAheadDepth(runs.size() * numSegments);
+      final int bufferSz = bufferSize(runs.size() * numSegments, depth);
+      metrics.echo("merging " + numSegments + " key ranges at the same time");
+
+      Path segmentsDirPath = opts.isKeepSegments() ? opts.getOutPath() : new Path(tmpDirPath(), SEGMENTS_DIR_NAME);
+      opts.getFs().delete(segmentsDirPath, true);
+
+      ExecutorService workers = Executors.newFixedThreadPool(numSegments);
+      List<Future<?>> results = new ArrayList<>(numSegments);
+
       try {
-         dbg.startFunc("createOutputWriter");
-         dbg.markFreeMemory();
-         dbg.startTimer();
+         for (int s = 0; s < numSegments; s++) {
+            final int range = s;
+            final Path segmentPath = segmentPath(segmentsDirPath, s);
+            results.add(workers.submit(new Callable<Void>() {
+               @Override
+               public Void call() throws IOException {
+                  Metrics.Phase rangePhase = metrics.startPhase("mergeRange");
+                  mergeInto(opts.getFs(), createChunksReaders(runs, bounds, range, bufferSz, depth), segmentPath,
+                            null, opts.getDuplicates(), opts.getKeySpec().isCollated());
+                  rangePhase.stop();
+                  return null;
+               }
+            }));
+         }
+
+         awaitAll(results);
+      }
+      finally {
+         workers.shutdownNow();
+      }
 
-         BufferedChunkWriter wr = new BufferedChunkWriter(opts.getFs(), opts.getOutPath());
+      if (!opts.isKeepSegments())
+         joinSegments(opts.getFs(), segmentsDirPath, numSegments, opts.getOutPath(), metrics);
 
-         dbg.stopTimer();
-         dbg.checkMemoryUsage();
-         dbg.endFunc("createOutputWriter");
-         return wr;
+      phase.stop();
+   }
+
+   /**
+    * Compressed runs can't be searched for key ranges.
+    */
+   private boolean isSplittable(List<Path> runs) {
+      for (Path run : runs) {
+         if (RunCompression.codecOf(opts.getFs(), run) != null) {
+            metrics.echo("run '" + run + "' is compressed, key ranges are merged one by one");
+            return false;
+         }
       }
-      catch (IOException e) {
-         throw new SortingAlgorithmException("Cannot read chunk file", e);
+      return true;
+   }
+
+   static void awaitAll(List<Future<?>> results) throws IOException {
+      for (int i = 0; i < results.size(); i++) {
+         try {
+            results.get(i).get();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while merging key range " + i);
+         }
+         catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+               throw (IOException) e.getCause();
+            throw new SortingAlgorithmException("Cannot merge key range " + i, e.getCause());
+         }
       }
    }
 
-   @Override
-   public void apply() throws SortingAlgorithmException {
-      dbg.startFunc("apply");
-      dbg.markFreeMemory();
-      dbg.startTimer();
+   /**
+    * Joins segments by the file system if it can do it without copying the data, e.g. HDFS,
+    * otherwise copies them one after another into the output file.
+    */
+   static void joinSegments(FileSystem fs, Path segmentsDirPath, int numSegments, Path outPath, Metrics metrics)
+         throws IOException {
+      Path[] segments = new Path[numSegments];
+      for (int s = 0; s < numSegments; s++)
+         segments[s] = segmentPath(segmentsDirPath, s);
 
-      createChunksReaders();
-      BufferedChunkWriter wr = createOutputWriter();
-      PriorityQueue<ChunkMarkerRef> pq = new PriorityQueue<>(inputRDs.length, asc);
+      fs.delete(outPath, false);
 
       try {
-         prefillHeapWithFirstMarkers(pq);
-         mergeMarkers(pq, wr);
+         if (numSegments > 1)
+            fs.concat(segments[0], Arrays.copyOfRange(segments, 1, numSegments));
+         if (fs.rename(segments[0], outPath))
+            return;
       }
-      catch (IOException e) {
-         throw new SortingAlgorithmException("Cannot read chunk or write to output", e);
+      catch (UnsupportedOperationException | IOException e) {
+         metrics.echo("cannot concat segments: " + e.getMessage());
       }
 
-      closeSilently(wr);
-
-      dbg.stopTimer();
-      dbg.checkMemoryUsage();
-      dbg.endFunc("apply");
+      if (!FileUtil.copyMerge(fs, segmentsDirPath, fs, outPath, true, fs.getConf(), null))
+         throw new IOException("Cannot join segments of '" + segmentsDirPath + "'");
    }
 
-   private void prefillHeapWithFirstMarkers(PriorityQueue<ChunkMarkerRef> pq) throws IOException {
-      dbg.startFunc("prefillHeapWithFirstMarkers");
-      dbg.markFreeMemory();
-      dbg.startTimer();
+   private ChunkReader[] createChunksReaders(List<Path> chPaths) throws IOException {
+      int depth = readAheadDepth(chPaths.size());
+      return createChunksReaders(chPaths, null, 0, bufferSize(chPaths.size(), depth), depth);
+   }
 
-      for (int i = 0; i < inputRDs.length; i++) {
-         Chunk ch = inputRDs[i].nextChunk();
-         if (ch != null)
-            pq.add(new ChunkMarkerRef(i, ch, 0));
-         else
-            closeSilently(inputRDs[i]);
+   /**
+    * @param bounds byte ranges of the runs or {@code null} to read the whole runs
+    * @param range the range to read
+    */
+   private ChunkReader[] createChunksReaders(List<Path> chPaths, long[][] bounds, int range, int bufferSz,
+                                             int depth) throws IOException {
+      ChunkReader[] inputRDs = new ChunkReader[chPaths.size()];
+      boolean counted = opts.getDuplicates().isCounted();
+      KeySpec keySpec = opts.getKeySpec().runKeySpec();
+      try {
+         for (int i = 0; i < chPaths.size(); i++) {
+            SequentialChunkReader rd;
+            if (bounds == null)
+               rd = new SequentialChunkReader(bufferSz, opts.getFs(), chPaths.get(i), keySpec, counted);
+            else
+               rd = new SequentialChunkReader(bufferSz, opts.getFs(), chPaths.get(i), bounds[i][range],
+                                              bounds[i][range + 1], keySpec, counted);
+            rd.setMaxLines(Math.max(2, Chunk.maxLines(bufferSz, keySpec, counted)));
+            inputRDs[i] = rd;
+            if (depth > 0)
+               inputRDs[i] = new PrefetchingChunkReader(inputRDs[i], readAheadExecutor, depth);
+         }
       }
+      catch (IOException e) {
+         for (ChunkReader rd : inputRDs)
+            closeSilently(rd);
+         throw e;
+      }
+
+      return inputRDs;
+   }
 
-      dbg.stopTimer();
-      dbg.checkMemoryUsage();
-      dbg.endFunc("prefillHeapWithFirstMarkers");
+   /**
+    * Spreads the memory budget between the runs, larger buffers mean less seeks between the runs.
+    * Every run keeps its read buffer and {@code 1 + depth} chunks, every chunk takes its data and
+    * the markers of no more lines than fit into the buffer size.
+    */
+   private int bufferSize(int numRuns, int depth) {
+      long bufferSz = opts.getMemoryBudget() / ((long) Math.max(1, numRuns) * (1 + 2 * (1 + depth)));
+      return (int) Math.max(MIN_BUF_PER_CHUNK, Math.min(MAX_BUF_PER_CHUNK, bufferSz));
    }
 
-   private void mergeMarkers(PriorityQueue<ChunkMarkerRef> pq, BufferedChunkWriter wr) throws IOException {
-      dbg.startFunc("mergeMarkers");
-      dbg.markFreeMemory();
-      dbg.startTimer();
+   /**
+    * Every run keeps its read buffer, the chunk being merged and up to {@code depth}
+    * chunks read ahead, so the depth is reduced to keep all of them within the budget.
+    */
+   private int readAheadDepth(int numRuns) {
+      if (opts.getReadAheadDepth() == 0 || numRuns == 0)
+         return 0;
 
-      while (!pq.isEmpty()) {
-         ChunkMarkerRef min = pq.poll();
-         wr.write(min.chunk.rawData(), min.chunk.allMarkers().get(min.marker));
+      long maxDepth = (opts.getMemoryBudget() / ((long) numRuns * MIN_BUF_PER_CHUNK) - MEMORY_PER_CHUNK_BYTE) / 2;
+      int depth = (int) Math.max(0, Math.min(opts.getReadAheadDepth(), maxDepth));
 
-         if (min.chunk.allMarkers().size()-1 == min.marker) {
-            Chunk ch = inputRDs[min.chunkId].nextChunk();
-            if (ch != null)
-               pq.add(new ChunkMarkerRef(min.chunkId, ch, 0));
-            else
-               closeSilently(inputRDs[min.chunkId]);
-         }
-         else {
-            min.marker++;
-            pq.add(min);
+      if (depth < opts.getReadAheadDepth())
+         metrics.echo("read-ahead depth is reduced to " + depth + " to fit " + numRuns + " runs into the memory");
+      return depth;
+   }
+   private ExecutorService createReadAheadExecutor(int numRuns) {
+      int threads = Math.min(numRuns, READ_AHEAD_THREADS_PER_CPU * Runtime.getRuntime().availableProcessors());
+      return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "chunk-read-ahead");
+            t.setDaemon(true);
+            return t;
          }
+      });
+   }
+
+   private List<FileStatus> listChunks() throws IOException {
+      List<FileStatus> runs = new ArrayList<>();
+      RemoteIterator<LocatedFileStatus> it = opts.getFs().listFiles(this.opts.getChunksDirPath(), false);
+
+      while (it.hasNext()) {
+         LocatedFileStatus run = it.next();
+         if (!JobManifest.isHidden(run.getPath()))
+            runs.add(run);
       }
 
-      dbg.stopTimer();
-      dbg.checkMemoryUsage();
-      dbg.endFunc("mergeMarkers");
+      return runs;
+   }
+
+   /**
+    * Merges the runs into the file and closes them.
+    *
+    * @param duplicates what to do with lines which have equal keys, counted runs must be read counted
+    */
+   static void mergeInto(FileSystem fs, ChunkReader[] inputRDs, Path outPath, CompressionCodec codec,
+                         DuplicateMode duplicates) throws IOException {
+      mergeInto(fs, inputRDs, outPath, codec, duplicates, false);
    }
 
-   private static class ChunkMarkerRef {
-      int chunkId;
-      int marker;
-      Chunk chunk;
+   /**
+    * Merges the runs into the file and closes them.
+    *
+    * @param duplicates what to do with lines which have equal keys, counted runs must be read counted
+    * @param stripSortKeys {@code true} to write lines of collated runs without their sort keys
+    */
+   static void mergeInto(FileSystem fs, ChunkReader[] inputRDs, Path outPath, CompressionCodec codec,
+                         DuplicateMode duplicates, boolean stripSortKeys) throws IOException {
+      BufferedChunkWriter wr = null;
+      LoserTree tree = null;
+
+      try {
+         wr = new BufferedChunkWriter(fs, outPath, BufferedChunkWriter.RING_BUFFER_SZ,
+                                      BufferedChunkWriter.RING_SIZE, codec, stripSortKeys);
+         tree = new LoserTree(inputRDs);
+
+         if (duplicates == DuplicateMode.KEEP) {
+            while (!tree.isEmpty()) {
+               Chunk min = tree.minChunk();
+               wr.write(min.rawData(), min.markerAt(tree.minIndex()));
+               tree.next();
+            }
+         }
+         else
+            mergeDistinct(tree, wr, duplicates == DuplicateMode.COUNT);
 
-      ChunkMarkerRef(int chunkId, Chunk chunk, int marker) {
-         this.chunkId = chunkId;
-         this.chunk = chunk;
-         this.marker = marker;
+         wr.close();
+      }
+      finally {
+         if (tree != null)
+            closeSilently(tree);
+         else
+            for (ChunkReader rd : inputRDs)
+               closeSilently(rd);
+         closeSilently(wr);
       }
    }
 
-   private static Comparator<ChunkMarkerRef> asc = new Comparator<ChunkMarkerRef>() {
-      @Override
-      public int compare(ChunkMarkerRef ref1, ChunkMarkerRef ref2) {
-         return Chunk.compareMarkers(
-               ref1.chunk.rawData(), ref1.chunk.allMarkers().get(ref1.marker),
-               ref2.chunk.rawData(), ref2.chunk.allMarkers().get(ref2.marker));
+   /**
+    * Writes the first line of every group of lines with equal keys. Lines of a group
+    * come from the top of the tree one after another, so only the line of the current
+    * group is kept. Chunks are never reused by the readers, so it's safe to keep the line
+    * after its chunk is consumed.
+    */
+   private static void mergeDistinct(LoserTree tree, BufferedChunkWriter wr, boolean count) throws IOException {
+      Chunk last = null;
+      int lastIdx = 0;
+      long lastCount = 0;
+
+      while (!tree.isEmpty()) {
+         Chunk min = tree.minChunk();
+         int i = tree.minIndex();
+
+         if (last != null && Chunk.equalKeysAt(last, lastIdx, min, i))
+            lastCount += min.countAt(i);
+         else {
+            if (last != null)
+               writeDistinct(wr, last, lastIdx, lastCount, count);
+            last = min;
+            lastIdx = i;
+            lastCount = min.countAt(i);
+         }
+
+         tree.next();
       }
-   };
 
-}
\ No newline at end of file
+      if (last != null)
+         writeDistinct(wr, last, lastIdx, lastCount, count);
+   }
+
+   private static void writeDistinct(BufferedChunkWriter wr, Chunk ch, int i, long count, boolean counted)
+         throws IOException {
+      if (!counted)
+         wr.write(ch.rawData(), ch.markerAt(i));
+      else if (count > 0)
+         wr.write(ch.rawData(), ch.markerAt(i), count);
+   }
+
+}
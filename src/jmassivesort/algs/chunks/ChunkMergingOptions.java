@@ -15,17 +15,19 @@
  */
 package jmassivesort.algs.chunks;
 
+import jmassivesort.CliFlags;
 import jmassivesort.CliOptionsBuilderException;
 import jmassivesort.algs.SortingAlgorithm;
 import jmassivesort.algs.SortingAlgorithmBuilder;
-import jmassivesort.util.Debugger;
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
 
-import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -34,7 +36,24 @@ import java.util.Map;
  */
 public class ChunkMergingOptions {
 
-   private static final Debugger dbg = Debugger.create(ChunkMergingOptions.class);
+   static final String READ_AHEAD_FLAG = "-readahead";
+   static final String FAN_IN_FLAG = "-fanin";
+   static final String PARALLEL_FLAG = "-parallel";
+   static final String SEGMENTS_FLAG = "-segments";
+
+   public static final int DEFAULT_MAX_FAN_IN = 128;
+   private static final int DEFAULT_MEMORY_PERCENT = 50;
+
+   static final List<String> VALUE_FLAGS = Arrays.asList(READ_AHEAD_FLAG, FAN_IN_FLAG, RunCompression.CODEC_FLAG,
+                                                             PARALLEL_FLAG, KeySpec.KEY_FLAG, KeySpec.SEPARATOR_FLAG,
+                                                             KeySpec.COLLATE_FLAG);
+   static final List<String> SWITCHES = Arrays.asList(SEGMENTS_FLAG, KeySpec.NUMERIC_FLAG, KeySpec.FOLD_CASE_FLAG,
+                                                      DuplicateMode.UNIQUE_FLAG, DuplicateMode.COUNT_FLAG);
+
+   static final String PARALLEL_DESCRIPTION = "Integer value > 0. Number of key ranges of the final merge merged "
+         + "at the same time, uncompressed runs only. 1 by default";
+   static final String SEGMENTS_DESCRIPTION = "Write the ranges of the parallel merge as part-NNNNN files into the "
+         + "output directory instead of joining them into one output file";
 
    public static Builder builder() {
       return new Builder();
@@ -48,13 +67,54 @@ public class ChunkMergingOptions {
       private final Map<String, String> optionDescriptions = new HashMap<String, String>() {{
          put("<numMerge>", "Integer value > 0. Merge number");
          put("<numChunks>", "Integer value > 0. Number of chunks it has to merge");
+         put(READ_AHEAD_FLAG + " <depth>", "Integer value >= 0. Number of chunks of every run read in the background "
+               + "while merging, bounded by the memory. 0 by default which means no read-ahead");
+         put(FAN_IN_FLAG + " <runs>", "Integer value >= 2. Maximum number of runs merged at once, bounded by the memory. "
+               + "More runs are merged in several passes. " + DEFAULT_MAX_FAN_IN + " by default");
+         put(RunCompression.CODEC_FLAG + " <name>", "Codec to compress intermediate runs of several merge passes "
+               + "with. Runs of any codec are read by the file extension");
+         put(PARALLEL_FLAG + " <ranges>", PARALLEL_DESCRIPTION);
+         put(SEGMENTS_FLAG, SEGMENTS_DESCRIPTION);
+         put(KeySpec.KEY_FLAG + " <key>", KeySpec.KEY_DESCRIPTION + ". Must be the one the runs are sorted by");
+         put(KeySpec.SEPARATOR_FLAG + " <char>", KeySpec.SEPARATOR_DESCRIPTION);
+         put(KeySpec.NUMERIC_FLAG, KeySpec.NUMERIC_DESCRIPTION);
+         put(KeySpec.FOLD_CASE_FLAG, KeySpec.FOLD_CASE_DESCRIPTION);
+         put(KeySpec.COLLATE_FLAG + " <locale>", KeySpec.COLLATE_DESCRIPTION);
+         put(DuplicateMode.UNIQUE_FLAG, DuplicateMode.UNIQUE_DESCRIPTION);
+         put(DuplicateMode.COUNT_FLAG, DuplicateMode.COUNT_DESCRIPTION);
       }};
 
       protected int numChunks;
       protected Path outFilePath;
       protected Path chunksDirPath;
+      protected int readAheadDepth;
+      protected int maxFanIn;
+      protected CompressionCodec codec;
+      protected int parallelism;
+      protected boolean keepSegments;
+      protected KeySpec keySpec;
+      protected DuplicateMode duplicates;
 
       public ChunkMergingOptions build(String[] options) throws CliOptionsBuilderException {
+         if (options == null)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         try {
+            CliFlags flags = CliFlags.parse(options, VALUE_FLAGS, SWITCHES);
+            readAheadDepth = Integer.parseInt(flags.value(READ_AHEAD_FLAG, "0"));
+            maxFanIn = Integer.parseInt(flags.value(FAN_IN_FLAG, String.valueOf(DEFAULT_MAX_FAN_IN)));
+            codec = RunCompression.parseCodec(flags);
+            parallelism = Integer.parseInt(flags.value(PARALLEL_FLAG, "1"));
+            keepSegments = flags.has(SEGMENTS_FLAG);
+            keySpec = KeySpec.parse(flags);
+            duplicates = DuplicateMode.parse(flags);
+            if (readAheadDepth < 0 || maxFanIn < 2 || parallelism < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+         }
+         catch (IllegalArgumentException e) { // including NumberFormatException
+            throw new CliOptionsBuilderException(usage(e.getMessage()), optionDescriptions);
+         }
+
 //         if (options == null || options.length != 1)
 //            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
 //
@@ -76,43 +136,79 @@ public class ChunkMergingOptions {
          }
 
 
-         return new ChunkMergingOptions(outFilePath, chunksDirPath);
+         return new ChunkMergingOptions(outFilePath, chunksDirPath, readAheadDepth, maxFanIn, codec,
+                                        parallelism, keepSegments, keySpec, duplicates,
+                                        ChunkSortingOptions.defaultFs());
       }
 
       private String usage(String error) {
-         return error + ". Specify options in order <numChunks> <outputFile>";
+         return error + ". Specify options in order <numChunks> <outputFile> [" + READ_AHEAD_FLAG + " <depth>] ["
+               + FAN_IN_FLAG + " <runs>] [" + RunCompression.CODEC_FLAG + " <name>] [" + PARALLEL_FLAG
+               + " <ranges>] [" + SEGMENTS_FLAG + "] [" + KeySpec.KEY_FLAG + " <key>]... ["
+               + KeySpec.SEPARATOR_FLAG + " <char>] [" + KeySpec.NUMERIC_FLAG + " | " + KeySpec.FOLD_CASE_FLAG
+               + " | " + KeySpec.COLLATE_FLAG + " <locale>] [" + DuplicateMode.UNIQUE_FLAG
+               + " | " + DuplicateMode.COUNT_FLAG + "]";
       }
    }
 
    public static class ChunkMergingBuilder implements SortingAlgorithmBuilder {
       @Override
       public SortingAlgorithm build(String[] options) throws CliOptionsBuilderException {
-         dbg.startFunc("build options and alg instance");
-         dbg.startTimer();
-         dbg.markFreeMemory();
-         ChunkMerging chunkMerging = new ChunkMerging(ChunkMergingOptions.builder().build(options));
-         dbg.checkMemoryUsage();
-         dbg.stopTimer();
-         dbg.endFunc("build options and alg instance");
-
-         return chunkMerging;
+         return new ChunkMerging(ChunkMergingOptions.builder().build(options));
       }
    }
 
    private Path outFilePath;
    private Path chunksDirPath;
+   private int readAheadDepth;
+   private int maxFanIn;
+   private CompressionCodec codec;
+   private int parallelism;
+   private boolean keepSegments;
+   private KeySpec keySpec;
+   private DuplicateMode duplicates;
+   private long memoryBudget;
    private FileSystem fs;
 
    protected ChunkMergingOptions(Path outFilePath, Path chunksDirPath) {
+      this(outFilePath, chunksDirPath, 0, ChunkSortingOptions.defaultFs());
+   }
+
+   protected ChunkMergingOptions(Path outFilePath, Path chunksDirPath, int readAheadDepth, FileSystem fs) {
+      this(outFilePath, chunksDirPath, readAheadDepth, DEFAULT_MAX_FAN_IN, null, fs);
+   }
+
+   protected ChunkMergingOptions(Path outFilePath, Path chunksDirPath, int readAheadDepth, int maxFanIn,
+                                 CompressionCodec codec, FileSystem fs) {
+      this(outFilePath, chunksDirPath, readAheadDepth, maxFanIn, codec, 1, false, KeySpec.WHOLE_LINE,
+           DuplicateMode.KEEP, fs);
+   }
+
+   protected ChunkMergingOptions(Path outFilePath, Path chunksDirPath, int readAheadDepth, int maxFanIn,
+                                 CompressionCodec codec, int parallelism, boolean keepSegments, KeySpec keySpec,
+                                 DuplicateMode duplicates, FileSystem fs) {
+      this(outFilePath, chunksDirPath, readAheadDepth, maxFanIn, codec, parallelism, keepSegments, keySpec,
+           duplicates, defaultMemoryBudget(), fs);
+   }
+
+   protected ChunkMergingOptions(Path outFilePath, Path chunksDirPath, int readAheadDepth, int maxFanIn,
+                                 CompressionCodec codec, int parallelism, boolean keepSegments, KeySpec keySpec,
+                                 DuplicateMode duplicates, long memoryBudget, FileSystem fs) {
       this.outFilePath = outFilePath;
       this.chunksDirPath = chunksDirPath;
+      this.readAheadDepth = readAheadDepth;
+      this.maxFanIn = maxFanIn;
+      this.codec = codec;
+      this.parallelism = parallelism;
+      this.keepSegments = keepSegments;
+      this.keySpec = keySpec;
+      this.duplicates = duplicates;
+      this.memoryBudget = memoryBudget;
+      this.fs = fs;
+   }
 
-      Configuration conf = new Configuration();
-      try {
-         fs = FileSystem.get(conf);
-      } catch (IOException e) {
-         throw new RuntimeException("hdfs error", e);
-      }
+   static long defaultMemoryBudget() {
+      return Runtime.getRuntime().maxMemory() / 100 * DEFAULT_MEMORY_PERCENT;
    }
 
    public Path getOutPath() {
@@ -123,6 +219,59 @@ public class ChunkMergingOptions {
       return chunksDirPath;
    }
 
+   /**
+    * @return number of chunks of every run read in the background, 0 if read-ahead is off
+    */
+   public int getReadAheadDepth() {
+      return readAheadDepth;
+   }
+
+   /**
+    * @return maximum number of runs merged at once
+    */
+   public int getMaxFanIn() {
+      return maxFanIn;
+   }
+
+   /**
+    * @return codec to compress intermediate runs with or {@code null} if they are not compressed
+    */
+   public CompressionCodec getCodec() {
+      return codec;
+   }
+
+   /**
+    * @return number of key ranges of the final merge merged at the same time
+    */
+   public int getParallelism() {
+      return parallelism;
+   }
+
+   /**
+    * @return {@code true} if the ranges of the parallel merge are left as files of the output directory
+    */
+   public boolean isKeepSegments() {
+      return keepSegments;
+   }
+
+   /**
+    * @return keys the runs are sorted by
+    */
+   public KeySpec getKeySpec() {
+      return keySpec;
+   }
+
+   public DuplicateMode getDuplicates() {
+      return duplicates;
+   }
+
+   /**
+    * @return heap budget in bytes for the buffers and chunks of all the runs merged at once
+    */
+   public long getMemoryBudget() {
+      return memoryBudget;
+   }
+
    public FileSystem getFs() {
       return fs;
    }
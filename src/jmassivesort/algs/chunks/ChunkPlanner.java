@@ -0,0 +1,182 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans the chunks of the input along the blocks of the file system,
+ * so every chunk is read from the hosts which keep its blocks.
+ * <p/>
+ * With at least as many blocks as chunks every chunk is a group of whole
+ * blocks, the groups differ by one block at most. With fewer blocks every
+ * block is divided into equal chunks, blocks get chunks in proportion to
+ * their length, so no chunk crosses a block boundary. Then every boundary
+ * is moved to the first line which starts at it or after it, the line
+ * which crosses a block boundary belongs to the chunk it starts in and only
+ * its tail is read from the next block.
+ * <p/>
+ * Hosts of a chunk are the hosts of its blocks ordered by the number of bytes
+ * of the chunk they keep, so a scheduler can run the sorting of the chunk
+ * on the first of them. A file system without blocks, e.g. the local one,
+ * reports its own fixed size blocks on {@code localhost}.
+ *
+ * @author Serj Sintsov
+ */
+public class ChunkPlanner {
+
+   /**
+    * Bytes {@code [start, end)} of the input, both are line starts or the file end.
+    */
+   public static class ChunkSplit {
+      private final long start;
+      private final long end;
+      private final List<String> hosts;
+
+      ChunkSplit(long start, long end, List<String> hosts) {
+         this.start = start;
+         this.end = end;
+         this.hosts = hosts;
+      }
+
+      public long getStart() {
+         return start;
+      }
+
+      public long getEnd() {
+         return end;
+      }
+
+      public long getLength() {
+         return end - start;
+      }
+
+      /**
+       * @return hosts keeping the chunk, the ones keeping most of it first
+       */
+      public List<String> getHosts() {
+         return hosts;
+      }
+   }
+
+   private static final Comparator<BlockLocation> BY_OFFSET = new Comparator<BlockLocation>() {
+      @Override
+      public int compare(BlockLocation b1, BlockLocation b2) {
+         return b1.getOffset() < b2.getOffset() ? -1 : (b1.getOffset() == b2.getOffset() ? 0 : 1);
+      }
+   };
+
+   private ChunkPlanner() {
+   }
+
+   /**
+    * @return {@code numChunks} splits of the file, the {@code i}-th one is the chunk {@code i + 1}
+    */
+   public static List<ChunkSplit> plan(FileSystem fs, Path inPath, int numChunks) throws IOException {
+      if (numChunks < 1)
+         throw new IllegalArgumentException("Number of chunks must be positive integer");
+
+      FileStatus status = fs.getFileStatus(inPath);
+      BlockLocation[] blocks = status.getLen() == 0 ? new BlockLocation[0]
+                                                    : fs.getFileBlockLocations(status, 0, status.getLen());
+      Arrays.sort(blocks, BY_OFFSET);
+
+      long[] bounds = RangeSplitter.snapToLines(fs, inPath, bounds(blocks, status.getLen(), numChunks));
+
+      List<ChunkSplit> splits = new ArrayList<>(numChunks);
+      for (int i = 0; i < numChunks; i++)
+         splits.add(new ChunkSplit(bounds[i], bounds[i + 1], hosts(blocks, bounds[i], bounds[i + 1])));
+      return splits;
+   }
+
+   /**
+    * @return {@code numChunks + 1} ascending chunk boundaries aligned to the blocks
+    */
+   static long[] bounds(BlockLocation[] blocks, long fLen, int numChunks) {
+      long[] bounds = new long[numChunks + 1];
+      bounds[numChunks] = fLen;
+
+      if (blocks.length == 0) {
+         for (int i = 1; i < numChunks; i++)
+            bounds[i] = fLen * i / numChunks;
+         return bounds;
+      }
+
+      if (blocks.length >= numChunks) {
+         for (int i = 1; i < numChunks; i++)
+            bounds[i] = blocks[(int) ((long) blocks.length * i / numChunks)].getOffset();
+         return bounds;
+      }
+
+      // every block gets one chunk, then the next chunk goes to the block with the largest chunks
+      int[] chunks = new int[blocks.length];
+      Arrays.fill(chunks, 1);
+      for (int n = blocks.length; n < numChunks; n++) {
+         int largest = 0;
+         for (int b = 1; b < blocks.length; b++)
+            if ((double) blocks[b].getLength() / chunks[b] > (double) blocks[largest].getLength() / chunks[largest])
+               largest = b;
+         chunks[largest]++;
+      }
+
+      int i = 0;
+      for (int b = 0; b < blocks.length; b++) {
+         for (int k = 0; k < chunks[b]; k++)
+            bounds[i++] = blocks[b].getOffset() + blocks[b].getLength() * k / chunks[b];
+      }
+      return bounds;
+   }
+
+   /**
+    * @return hosts of the blocks of {@code [start, end)} ordered by the number of bytes they keep
+    */
+   static List<String> hosts(BlockLocation[] blocks, long start, long end) throws IOException {
+      final Map<String, Long> bytes = new HashMap<>();
+      for (BlockLocation block : blocks) {
+         long overlap = Math.min(end, block.getOffset() + block.getLength()) - Math.max(start, block.getOffset());
+         if (overlap <= 0)
+            continue;
+
+         for (String host : block.getHosts()) {
+            Long held = bytes.get(host);
+            bytes.put(host, held == null ? overlap : held + overlap);
+         }
+      }
+
+      List<String> hosts = new ArrayList<>(bytes.keySet());
+      Collections.sort(hosts, new Comparator<String>() {
+         @Override
+         public int compare(String h1, String h2) {
+            int c = bytes.get(h2).compareTo(bytes.get(h1));
+            return c != 0 ? c : h1.compareTo(h2);
+         }
+      });
+      return hosts;
+   }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.AbstractAlgorithm;
+import jmassivesort.algs.SortingAlgorithmException;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Plans the chunks of the input along its blocks before they are sorted.
+ * <p/>
+ * The plan is recorded in the {@link JobManifest} of the runs directory, where
+ * {@link ChunkSorting} and {@link ParallelChunkSorting} find it, and every chunk
+ * is printed as {@code <chunkId>\t<start>\t<end>\t<host>,<host>...}, so a scheduler
+ * can run {@code chunk-sorting <chunkId> <numChunks>} on a host which keeps the
+ * blocks of the chunk and the chunk is read from the local disk. See {@link ChunkPlanner}.
+ *
+ * @author Serj Sintsov
+ */
+public class ChunkPlanning extends AbstractAlgorithm {
+
+   private ChunkPlanningOptions opts;
+
+   public ChunkPlanning(ChunkPlanningOptions options) {
+      if  (options == null)
+         throw new IllegalArgumentException("options cannot be null");
+      this.opts = options;
+   }
+
+   @Override
+   public void apply() throws SortingAlgorithmException {
+      List<ChunkPlanner.ChunkSplit> splits;
+
+      try {
+         splits = ChunkPlanner.plan(opts.getFs(), opts.getInPath(), opts.getNumChunks());
+         JobManifest manifest = new JobManifest(opts.getFs(), opts.getChunksDirPath());
+         manifest.recordPlan(manifest.inputIdentity(opts.getInPath()), splits);
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot plan chunks of file '" + opts.getInPath() + "'", e);
+      }
+
+      for (int i = 0; i < splits.size(); i++) {
+         ChunkPlanner.ChunkSplit split = splits.get(i);
+         System.out.println(i + "\t" + split.getStart() + "\t" + split.getEnd() + "\t"
+                            + StringUtils.join(",", split.getHosts()));
+      }
+   }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliOptionsBuilderException;
+import jmassivesort.algs.SortingAlgorithm;
+import jmassivesort.algs.SortingAlgorithmBuilder;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options to use {@link ChunkPlanning} algorithm.
+ * @author Serj Sintsov
+ */
+public class ChunkPlanningOptions {
+
+   public static Builder builder() {
+      return new Builder();
+   }
+
+   public static ChunkPlanningBuilder algorithmBuilder() {
+      return new ChunkPlanningBuilder();
+   }
+
+   public static class Builder {
+      private final Map<String, String> optionDescriptions = new HashMap<String, String>() {{
+         put("<numChunks>", "Integer value > 0. Number of chunks the input file is divided into along its blocks. "
+               + "Every chunk is printed as <chunkId>\\t<start>\\t<end>\\t<hosts>, where <chunkId> is the one "
+               + "to pass to chunk-sorting on one of the hosts");
+      }};
+
+      protected int numChunks;
+      protected Path inPath;
+      protected Path chunksDirPath;
+
+      public ChunkPlanningOptions build(String[] options) throws CliOptionsBuilderException {
+         if (options == null || options.length != 1)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         try {
+            numChunks = Integer.parseInt(options[0]);
+            if (numChunks < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+         }
+         catch (NumberFormatException ex) {
+            throw new CliOptionsBuilderException(usage("Incorrect option value"), optionDescriptions);
+         }
+
+         try {
+            inPath = new Path(URI.create("hdfs:///in/input"));
+            chunksDirPath = new Path(URI.create("hdfs:///tmp/"));
+         }
+         catch (Exception e) {
+            throw new CliOptionsBuilderException(usage("Incorrect input file path"), optionDescriptions);
+         }
+
+         return new ChunkPlanningOptions(numChunks, inPath, chunksDirPath, ChunkSortingOptions.defaultFs());
+      }
+
+      private String usage(String error) {
+         return error + ". Specify options in order <numChunks>";
+      }
+   }
+
+   public static class ChunkPlanningBuilder implements SortingAlgorithmBuilder {
+      @Override
+      public SortingAlgorithm build(String[] options) throws CliOptionsBuilderException {
+         return new ChunkPlanning(ChunkPlanningOptions.builder().build(options));
+      }
+   }
+
+   private int numChunks;
+   private Path inPath;
+   private Path chunksDirPath;
+   private FileSystem fs;
+
+   protected ChunkPlanningOptions(int numChunks, Path inPath, Path chunksDirPath, FileSystem fs) {
+      this.numChunks = numChunks;
+      this.inPath = inPath;
+      this.chunksDirPath = chunksDirPath;
+      this.fs = fs;
+   }
+
+   public int getNumChunks() {
+      return numChunks;
+   }
+
+   public Path getInPath() {
+      return inPath;
+   }
+
+   /**
+    * @return directory of the runs, the plan is kept in its {@link JobManifest}
+    */
+   public Path getChunksDirPath() {
+      return chunksDirPath;
+   }
+
+   public FileSystem getFs() {
+      return fs;
+   }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads a sorted run chunk-by-chunk {@link Chunk}.
+ *
+ * @author Serj Sintsov
+ */
+public interface ChunkReader extends Closeable {
+
+   /**
+    * @return the next chunk or {@code null} if there are no more lines
+    */
+   Chunk nextChunk() throws IOException;
+
+}
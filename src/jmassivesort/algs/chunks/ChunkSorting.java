@@ -17,24 +17,37 @@ package jmassivesort.algs.chunks;
 
 import jmassivesort.algs.SortingAlgorithmException;
 import jmassivesort.algs.AbstractAlgorithm;
-import static jmassivesort.algs.chunks.OrderFunctions.asc;
-import jmassivesort.util.Debugger;
+import jmassivesort.util.Metrics;
 
-import static jmassivesort.util.IOUtils.closeSilently;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
-import java.util.Collections;
+import static jmassivesort.util.IOUtils.closeSilently;
 
 /**
  * Sorts a specified part of the input file.
  * <p/>
  * Reads the file's chunk {@link Chunk}, sorts its content
- * line by line and stores the result on to the disk.
+ * line by line and stores the result on to the disk. A chunk of
+ * many short lines is sorted by parts into several files, so the
+ * markers of its lines take no more memory than its bytes.
+ * <p/>
+ * A sorted chunk is recorded in the {@link JobManifest} of the runs directory,
+ * so a restarted job doesn't sort it again while its runs are untouched.
+ * <p/>
+ * If the input is planned by {@link ChunkPlanning}, the chunk is the planned
+ * byte range aligned to the blocks of the input instead of an equal part of it.
  *
  * @author Serj Sintsov
  */
 public class ChunkSorting extends AbstractAlgorithm {
 
-   private final Debugger dbg = Debugger.create(getClass());
+   private static final int MAX_PLANNED_CHUNK_SIZE = Integer.MAX_VALUE - 16; // max array size with reader's extra
+
+   private final Metrics metrics = Metrics.create(getClass());
 
    private ChunkSortingOptions opts;
 
@@ -46,35 +59,104 @@ public class ChunkSorting extends AbstractAlgorithm {
 
    @Override
    public void apply() throws SortingAlgorithmException {
-      dbg.startFunc("apply");
-      dbg.startTimer();
-      dbg.markFreeMemory();
+      Metrics.Phase phase = metrics.startPhase("apply");
+
+      JobManifest manifest = new JobManifest(opts.getFs(), opts.getOutPath().getParent());
+      ChunkPlanner.ChunkSplit split = plannedSplit(manifest);
+      String input = inputIdentity(manifest, split);
+      if (isSorted(manifest, input)) {
+         metrics.echo("chunk " + opts.getChunkId() + " is already sorted into '" + opts.getOutPath() + "'");
+         phase.stop();
+         return;
+      }
 
-      Chunk ch = readChunk();
-      sort(ch);
-      saveChunk(ch);
+      List<Path> runs = sortChunk(split);
+      recordChunk(manifest, input, runs);
 
-      dbg.checkMemoryUsage();
-      dbg.stopTimer();
-      dbg.endFunc("apply");
+      phase.stop();
    }
 
-   private Chunk readChunk() {
-      OneOffChunkReader cr = null;
+   /**
+    * @return the chunk planned by {@link ChunkPlanning} or {@code null} if the input is not planned
+    */
+   private ChunkPlanner.ChunkSplit plannedSplit(JobManifest manifest) {
+      try {
+         List<ChunkPlanner.ChunkSplit> splits = manifest.plannedChunks(manifest.inputIdentity(opts.getInPath()),
+                                                                       opts.getNumChunks());
+         if (splits == null)
+            return null;
+
+         ChunkPlanner.ChunkSplit split = splits.get(opts.getChunkId() - 1);
+         metrics.echo("chunk " + opts.getChunkId() + " is planned at [" + split.getStart() + ", " + split.getEnd()
+                      + ") on hosts " + split.getHosts());
+         return split;
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot read chunk plan of '" + opts.getInPath() + "'", e);
+      }
+   }
 
+   /**
+    * @return identity of the input and of the options the runs of the chunk depend on
+    */
+   private String inputIdentity(JobManifest manifest, ChunkPlanner.ChunkSplit split) {
       try {
-         dbg.startFunc("read chunk");
-         dbg.markFreeMemory();
+         String codec = opts.getCodec() == null ? "none" : opts.getCodec().getClass().getName();
+         String range = split == null ? "" : " [" + split.getStart() + ", " + split.getEnd() + ")";
+         return manifest.inputIdentity(opts.getInPath()) + ", chunk " + opts.getChunkId() + " of "
+                + opts.getNumChunks() + range + ", codec " + codec + ", keys " + opts.getKeySpec()
+                + ", duplicates " + opts.getDuplicates();
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot read job manifest of '" + opts.getInPath() + "'", e);
+      }
+   }
 
-         cr = new OneOffChunkReader(opts.getChunkId(), opts.getNumChunks(), opts.getFs(), opts.getInPath());
-         Chunk chunk = cr.readChunk();
+   private boolean isSorted(JobManifest manifest, String input) {
+      try {
+         return manifest.isChunkSorted(opts.getOutPath().getName(), input);
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot read job manifest of chunk '" + opts.getOutPath() + "'", e);
+      }
+   }
+
+   private void recordChunk(JobManifest manifest, String input, List<Path> runs) {
+      try {
+         manifest.recordChunk(opts.getOutPath().getName(), input, runs);
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot record chunk '" + opts.getOutPath() + "' in job manifest", e);
+      }
+   }
 
-         dbg.checkMemoryUsage();
-         dbg.endFunc("read chunk");
+   /**
+    * Sorts every part of the chunk into its own file. The number of lines of a part
+    * is limited, so their markers take no more memory than the chunk bytes.
+    *
+    * @param split planned chunk or {@code null}
+    * @return the files written
+    */
+   private List<Path> sortChunk(ChunkPlanner.ChunkSplit split) {
+      ChunkReader cr = null;
 
-         return chunk;
+      try {
+         cr = openChunk(split);
+         List<Path> runs = new ArrayList<>();
+         Chunk ch;
+         while ((ch = readPart(cr)) != null) {
+            runs.add(opts.getOutPath(runs.size()));
+            saveChunk(sort(ch), runs.get(runs.size() - 1));
+         }
+
+         if (runs.isEmpty()) { // too many chunks
+            saveChunk(new Chunk(), opts.getOutPath());
+            runs.add(opts.getOutPath());
+         }
+
+         return runs;
       }
-      catch (Exception e) {
+      catch (IOException e) {
          throw new SortingAlgorithmException("Cannot read chunk from file '" + opts.getInPath() + "'", e);
       }
       finally {
@@ -82,35 +164,82 @@ public class ChunkSorting extends AbstractAlgorithm {
       }
    }
 
-   private void sort(Chunk ch) {
-      dbg.startFunc("sort");
-      dbg.markFreeMemory();
-      dbg.startTimer();
+   /**
+    * Maps the chunk on the local file system, otherwise reads the planned chunk from the hosts
+    * which keep it, if the sorting runs on one of them, or reads the equal part of the input.
+    */
+   private ChunkReader openChunk(ChunkPlanner.ChunkSplit split) throws IOException {
+      if (split != null && split.getLength() > MAX_PLANNED_CHUNK_SIZE)
+         throw new SortingAlgorithmException("Planned chunk " + opts.getChunkId() + " of " + split.getLength()
+               + " byte is too large. Max value is " + MAX_PLANNED_CHUNK_SIZE + " byte, plan more chunks");
+
+      long chunkSz = split != null ? split.getLength()
+            : OneOffChunkReader.chunkBufferSize(opts.getFs().getFileStatus(opts.getInPath()).getLen(),
+                                                opts.getNumChunks());
+      int maxLines = Math.max(2, Chunk.maxLines(chunkSz, opts.getKeySpec(), opts.getDuplicates().isCounted()));
+
+      if (MappedChunkReader.isLocal(opts.getFs())) {
+         int regionSz = (int) Math.min(chunkSz, MappedChunkReader.MAX_REGION_SIZE); // the chunk's memory budget
+         MappedChunkReader cr = split == null
+               ? new MappedChunkReader(opts.getChunkId(), opts.getNumChunks(), opts.getFs(), opts.getInPath(),
+                                       regionSz, opts.getKeySpec())
+               : new MappedChunkReader(opts.getFs(), opts.getInPath(), split.getStart(), split.getEnd(),
+                                       regionSz, opts.getKeySpec());
+         cr.setMaxLines(maxLines);
+         return cr;
+      }
+
+      if (split != null) {
+         SequentialChunkReader cr = new SequentialChunkReader((int) split.getLength(), opts.getFs(),
+                                                              opts.getInPath(), split.getStart(), split.getEnd(),
+                                                              opts.getKeySpec());
+         cr.setMaxLines(maxLines);
+         return cr;
+      }
+
+      OneOffChunkReader cr = new OneOffChunkReader(opts.getChunkId(), opts.getNumChunks(), opts.getFs(),
+                                                   opts.getInPath(), opts.getKeySpec());
+      cr.setMaxLines(maxLines);
+      return cr;
+   }
+
+   private Chunk readPart(ChunkReader cr) throws IOException {
+      Metrics.Phase phase = metrics.startPhase("read");
+      Chunk ch = cr.nextChunk();
+      phase.stop();
+      return ch;
+   }
+
+   /**
+    * @return the sorted chunk, a collated one is encoded with sort keys first, see {@link SortKeys}
+    */
+   private Chunk sort(Chunk ch) {
+      Metrics.Phase phase = metrics.startPhase("sort");
 
-      Collections.sort(ch.allMarkers(), asc(ch));
+      ch = SortKeys.encode(ch);
+      opts.getEngine().sort(ch);
+      opts.getDuplicates().collapse(ch);
 
-      dbg.stopTimer();
-      dbg.checkMemoryUsage();
-      dbg.endFunc("sort");
+      phase.stop();
+      return ch;
    }
 
-   private void saveChunk(Chunk ch) {
+   private void saveChunk(Chunk ch, Path outPath) {
       BufferedChunkWriter chWr = null;
 
       try {
-         dbg.startFunc("write to disk");
-         dbg.markFreeMemory();
-         dbg.startTimer();
+         Metrics.Phase phase = metrics.startPhase("write");
 
-         chWr = new BufferedChunkWriter(opts.getFs(), opts.getOutPath());
-         chWr.write(ch.rawData(), ch.allMarkers());
+         chWr = new BufferedChunkWriter(opts.getFs(), outPath, BufferedChunkWriter.DEFAULT_BUFFER_SZ, 1,
+                                        opts.getCodec());
+         chWr.write(ch);
+         chWr.close();
+         Metrics.add(Metrics.Counter.RUNS, 1);
 
-         dbg.stopTimer();
-         dbg.checkMemoryUsage();
-         dbg.endFunc("write to disk");
+         phase.stop();
       }
       catch (Exception e) {
-         throw new SortingAlgorithmException("Cannot save chunk in file '" + opts.getOutPath() + "'", e);
+         throw new SortingAlgorithmException("Cannot save chunk in file '" + outPath + "'", e);
       }
       finally {
          closeSilently(chWr);
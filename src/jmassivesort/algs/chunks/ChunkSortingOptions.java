@@ -15,16 +15,20 @@
  */
 package jmassivesort.algs.chunks;
 
+import jmassivesort.CliFlags;
 import jmassivesort.CliOptionsBuilderException;
 import jmassivesort.algs.SortingAlgorithm;
 import jmassivesort.algs.SortingAlgorithmBuilder;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -33,6 +37,14 @@ import java.util.Map;
  */
 public class ChunkSortingOptions {
 
+   static final String ENGINE_FLAG = "-engine";
+   static final String ENGINE_DESCRIPTION = "In-memory sorting algorithm, one of [quick, radix]. quick by default";
+
+   static final List<String> VALUE_FLAGS = Arrays.asList(ENGINE_FLAG, RunCompression.CODEC_FLAG, KeySpec.KEY_FLAG,
+                                                         KeySpec.SEPARATOR_FLAG, KeySpec.COLLATE_FLAG);
+   static final List<String> SWITCHES = Arrays.asList(KeySpec.NUMERIC_FLAG, KeySpec.FOLD_CASE_FLAG,
+                                                      DuplicateMode.UNIQUE_FLAG, DuplicateMode.COUNT_FLAG);
+
    public static Builder builder() {
       return new Builder();
    }
@@ -45,14 +57,43 @@ public class ChunkSortingOptions {
       private final Map<String, String> optionDescriptions = new HashMap<String, String>() {{
          put("<chunkId>", "0 < Integer value <= <numChunks>. The result of sorting is stored into file <chunkId>.txt");
          put("<numChunks>", "Integer value > 0. Together with the <chunkId> used to determine what part of file to sort");
+         put(ENGINE_FLAG + " <name>", ENGINE_DESCRIPTION);
+         put(RunCompression.CODEC_FLAG + " <name>", RunCompression.CODEC_DESCRIPTION);
+         put(KeySpec.KEY_FLAG + " <key>", KeySpec.KEY_DESCRIPTION);
+         put(KeySpec.SEPARATOR_FLAG + " <char>", KeySpec.SEPARATOR_DESCRIPTION);
+         put(KeySpec.NUMERIC_FLAG, KeySpec.NUMERIC_DESCRIPTION);
+         put(KeySpec.FOLD_CASE_FLAG, KeySpec.FOLD_CASE_DESCRIPTION);
+         put(KeySpec.COLLATE_FLAG + " <locale>", KeySpec.COLLATE_DESCRIPTION);
+         put(DuplicateMode.UNIQUE_FLAG, DuplicateMode.UNIQUE_DESCRIPTION);
+         put(DuplicateMode.COUNT_FLAG, DuplicateMode.COUNT_DESCRIPTION);
       }};
 
       protected int chunkId;
       protected int numChunks;
       protected Path inPath;
+      protected SortEngine engine;
+      protected CompressionCodec codec;
+      protected KeySpec keySpec;
+      protected DuplicateMode duplicates;
 
       public ChunkSortingOptions build(String[] options) throws CliOptionsBuilderException {
-         if (options == null || options.length != 2)
+         if (options == null)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         CliFlags flags;
+         try {
+            flags = CliFlags.parse(options, VALUE_FLAGS, SWITCHES);
+            engine = parseEngine(flags);
+            codec = RunCompression.parseCodec(flags);
+            keySpec = KeySpec.parse(flags);
+            duplicates = DuplicateMode.parse(flags);
+         }
+         catch (IllegalArgumentException e) {
+            throw new CliOptionsBuilderException(usage(e.getMessage()), optionDescriptions);
+         }
+
+         options = flags.args();
+         if (options.length != 2)
             throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
 
          try {
@@ -76,14 +117,18 @@ public class ChunkSortingOptions {
             throw new CliOptionsBuilderException(usage("Incorrect input file path"), optionDescriptions);
          }
 
-         String outFileName = chunkId + ".chunk";
-         Path outPath = new Path("hdfs:///tmp", outFileName);
+         Path outPath = chunkOutPath(new Path("hdfs:///tmp"), chunkId, codec);
 
-         return new ChunkSortingOptions(chunkId, numChunks, inPath, outPath);
+         return new ChunkSortingOptions(chunkId, numChunks, inPath, outPath, engine, codec, keySpec, duplicates,
+                                        defaultFs());
       }
 
       private String usage(String error) {
-         return error + ". Specify options in order <chunkId> <numChunks>";
+         return error + ". Specify options in order <chunkId> <numChunks> [" + ENGINE_FLAG + " <name>] ["
+               + RunCompression.CODEC_FLAG + " <name>] [" + KeySpec.KEY_FLAG + " <key>]... ["
+               + KeySpec.SEPARATOR_FLAG + " <char>] [" + KeySpec.NUMERIC_FLAG + " | " + KeySpec.FOLD_CASE_FLAG
+               + " | " + KeySpec.COLLATE_FLAG + " <locale>] [" + DuplicateMode.UNIQUE_FLAG
+               + " | " + DuplicateMode.COUNT_FLAG + "]";
       }
    }
 
@@ -95,21 +140,47 @@ public class ChunkSortingOptions {
       }
    }
 
+   static Path chunkOutPath(Path chunksDirPath, int chunkId, CompressionCodec codec) {
+      return RunCompression.withExtension(new Path(chunksDirPath, chunkId + ".chunk"), codec);
+   }
+
+   static SortEngine parseEngine(CliFlags flags) {
+      return SortEngine.byName(flags.value(ENGINE_FLAG, SortEngine.QUICK.engineName()));
+   }
+
    private int chunkId;
    private int numChunks;
    private Path inPath;
    private Path outPath;
+   private SortEngine engine;
+   private CompressionCodec codec;
+   private KeySpec keySpec;
+   private DuplicateMode duplicates;
    private FileSystem fs;
 
    protected ChunkSortingOptions(int chunksId, int numChunks, Path inPath, Path outPath) {
+      this(chunksId, numChunks, inPath, outPath, SortEngine.QUICK, null, KeySpec.WHOLE_LINE, DuplicateMode.KEEP,
+           defaultFs());
+   }
+
+   protected ChunkSortingOptions(int chunksId, int numChunks, Path inPath, Path outPath, SortEngine engine,
+                                 CompressionCodec codec, KeySpec keySpec, DuplicateMode duplicates,
+                                 FileSystem fs) {
       this.chunkId = chunksId;
       this.numChunks = numChunks;
       this.inPath = inPath;
       this.outPath = outPath;
+      this.engine = engine;
+      this.codec = codec;
+      this.keySpec = keySpec;
+      this.duplicates = duplicates;
+      this.fs = fs;
+   }
 
+   static FileSystem defaultFs() {
       Configuration conf = new Configuration();
       try {
-         fs = FileSystem.get(conf);
+         return FileSystem.get(conf);
       } catch (IOException e) {
          throw new RuntimeException("hdfs error", e);
       }
@@ -123,6 +194,25 @@ public class ChunkSortingOptions {
       return numChunks;
    }
 
+   public SortEngine getEngine() {
+      return engine;
+   }
+
+   /**
+    * @return codec to compress sorted runs with or {@code null} if they are not compressed
+    */
+   public CompressionCodec getCodec() {
+      return codec;
+   }
+
+   public KeySpec getKeySpec() {
+      return keySpec;
+   }
+
+   public DuplicateMode getDuplicates() {
+      return duplicates;
+   }
+
    public FileSystem getFs() {
       return fs;
    }
@@ -134,4 +224,14 @@ public class ChunkSortingOptions {
    public org.apache.hadoop.fs.Path getOutPath() {
       return outPath;
    }
+
+   /**
+    * @return the output file of the given part of the chunk, parts after
+    *         the first one are used when the chunk is sorted by regions
+    */
+   public org.apache.hadoop.fs.Path getOutPath(int part) {
+      if (part == 0)
+         return outPath;
+      return RunCompression.withExtension(new Path(outPath.getParent(), chunkId + "-" + part + ".chunk"), codec);
+   }
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+
+/**
+ * What to do with lines which have equal keys, see {@link KeySpec}.
+ * <p/>
+ * Duplicates are collapsed in every chunk right after it is sorted and again
+ * when they meet in the merge, so runs are as small as the number of distinct
+ * keys in them. A group of duplicates is represented by its smallest line.
+ * <p/>
+ * Counted lines are written as {@code <count>\t<line>}, both into the runs and
+ * into the output, and the counts of the runs are summed up by the merge.
+ *
+ * @author Serj Sintsov
+ */
+public enum DuplicateMode {
+
+   /** all lines are written */
+   KEEP,
+
+   /** one line of every key is written, like {@code sort -u} */
+   UNIQUE,
+
+   /** one line of every key is written with the number of its lines, like {@code uniq -c} */
+   COUNT;
+
+   static final String UNIQUE_FLAG = "-u";
+   static final String COUNT_FLAG = "-c";
+   static final String UNIQUE_DESCRIPTION = "Write only one line of the lines with equal keys";
+   static final String COUNT_DESCRIPTION = "Write one line of the lines with equal keys as <count>\\t<line>. "
+         + "Runs are counted the same way and must be merged with " + COUNT_FLAG + " too";
+
+   /**
+    * @throws IllegalArgumentException if both modes are specified
+    */
+   static DuplicateMode parse(CliFlags flags) {
+      if (flags.has(UNIQUE_FLAG) && flags.has(COUNT_FLAG))
+         throw new IllegalArgumentException("Options " + UNIQUE_FLAG + " and " + COUNT_FLAG + " cannot be combined");
+      if (flags.has(UNIQUE_FLAG))
+         return UNIQUE;
+      return flags.has(COUNT_FLAG) ? COUNT : KEEP;
+   }
+
+   /**
+    * @return {@code true} if lines of the runs start with their counts
+    */
+   public boolean isCounted() {
+      return this == COUNT;
+   }
+
+   /**
+    * Collapses duplicates of the sorted chunk.
+    */
+   public void collapse(Chunk ch) {
+      if (this != KEEP)
+         ch.collapseDuplicates(this == COUNT);
+   }
+
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.AbstractAlgorithm;
+import jmassivesort.algs.SortingAlgorithmException;
+import jmassivesort.util.Metrics;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+import java.io.IOException;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Sorts a file of any size within the given memory budget.
+ * <p/>
+ * The input is read once, sequentially, chunk by chunk. The chunk size follows
+ * from the memory budget, so there is no need to guess the number of chunks.
+ * Every chunk is sorted and saved as a run, then all runs are merged by
+ * {@link ChunkMerging}. If the whole input fits into one chunk, it is sorted
+ * right into the output file and no run is written.
+ * <p/>
+ * Alternatively runs are generated by {@link ReplacementSelection}, which
+ * gives fewer and longer runs. A single run is moved to the output.
+ *
+ * @author Serj Sintsov
+ */
+public class ExternalSort extends AbstractAlgorithm {
+
+   /**
+    * reader buffer, chunk data and its line markers and prefixes, the number of lines
+    * of a chunk is limited so its markers take no more than the chunk size
+    */
+   static final int MEMORY_PER_CHUNK_BYTE = 3;
+   /** a collated chunk is encoded with sort keys which may take a few times the size of the lines */
+   private static final int COLLATED_CHUNK_FACTOR = 4;
+   private static final int MIN_SELECTION_READ_SIZE = 64 * 1024; // 64Kb
+   private static final int MAX_SELECTION_READ_SIZE = 16 * 1024 * 1024; // 16Mb
+   private static final int SELECTION_READS_PER_BUDGET = 16;
+   private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE - 16; // max array size with the reader's extra bytes
+
+   private final Metrics metrics = Metrics.create(getClass());
+
+   private ExternalSortOptions opts;
+   private JobDirectory runsDir;
+
+   public ExternalSort(ExternalSortOptions options) {
+      if  (options == null)
+         throw new IllegalArgumentException("options cannot be null");
+      this.opts = options;
+   }
+
+   static int chunkSize(long memoryBudget) {
+      return (int) Math.max(1, Math.min(MAX_CHUNK_SIZE, memoryBudget / MEMORY_PER_CHUNK_BYTE));
+   }
+
+   /**
+    * @return the max number of lines of a chunk, which markers take no more memory than its bytes
+    */
+   static int maxLines(int chunkSz, KeySpec keySpec, DuplicateMode duplicates) {
+      return Math.max(2, Chunk.maxLines(chunkSz, keySpec, duplicates.isCounted()));
+   }
+
+   @Override
+   public void apply() throws SortingAlgorithmException {
+      Metrics.Phase phase = metrics.startPhase("apply");
+
+      if (opts.isKeepSegments())
+         deleteOutput();
+      createRunsDir();
+
+      int numRuns = opts.isReplacementSelection() ? selectRuns() : generateRuns();
+      if (numRuns == 1 && opts.getCodec() == null && !opts.getKeySpec().isCollated())
+         moveRun();
+      else if (numRuns > 0)
+         new ChunkMerging(opts.mergingOptions(runsDir.path())).apply();
+
+      deleteRuns();
+
+      phase.stop();
+   }
+
+   /**
+    * @return number of runs written, 0 if the input is sorted right into the output
+    */
+   private int generateRuns() {
+      Metrics.Phase phase = metrics.startPhase("generateRuns");
+
+      SequentialChunkReader rd = null;
+      int numRuns = 0;
+
+      try {
+         int chunkSz = chunkSize();
+         rd = new SequentialChunkReader(chunkSz, opts.getFs(), opts.getInPath(), opts.getKeySpec());
+         rd.setMaxLines(maxLines(chunkSz, opts.getKeySpec(), opts.getDuplicates()));
+
+         Chunk ch = rd.nextChunk();
+         if (!rd.hasMoreChunks()) // the whole input fits into one chunk
+            sortAndSave(ch == null ? new Chunk() : ch, singleOutPath(), null, true);
+         else {
+            for (; ch != null; ch = rd.nextChunk()) {
+               Path runPath = ChunkSortingOptions.chunkOutPath(runsDir.path(), ++numRuns, opts.getCodec());
+               sortAndSave(ch, runPath, opts.getCodec(), false);
+            }
+         }
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot read file '" + opts.getInPath() + "'", e);
+      }
+      finally {
+         closeSilently(rd);
+      }
+
+      metrics.echo("generated " + numRuns + " runs");
+      phase.stop();
+      return numRuns;
+   }
+
+   /**
+    * @return number of runs written, 0 if the input is empty and the output is written
+    */
+   private int selectRuns() {
+      Metrics.Phase phase = metrics.startPhase("selectRuns");
+
+      long budget = opts.getMemoryBudget();
+      int readSz = (int) Math.max(MIN_SELECTION_READ_SIZE,
+                                  Math.min(MAX_SELECTION_READ_SIZE, budget / SELECTION_READS_PER_BUDGET));
+      long selectionBudget = Math.max(1, budget - (long) readSz * MEMORY_PER_CHUNK_BYTE);
+
+      SequentialChunkReader rd = null;
+      int numRuns;
+
+      try {
+         rd = new SequentialChunkReader(readSz, opts.getFs(), opts.getInPath(), opts.getKeySpec());
+         rd.setMaxLines(maxLines(readSz, opts.getKeySpec(), DuplicateMode.KEEP));
+         numRuns = new ReplacementSelection(selectionBudget, opts.getFs(), runsDir.path(), opts.getCodec(),
+                                            opts.getKeySpec().runKeySpec(), opts.getDuplicates())
+               .generate(SortKeys.encode(rd, opts.getKeySpec()));
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot generate runs of file '" + opts.getInPath() + "'", e);
+      }
+      finally {
+         closeSilently(rd);
+      }
+
+      if (numRuns == 0)
+         sortAndSave(new Chunk(), singleOutPath(), null, true);
+
+      metrics.echo("generated " + numRuns + " runs");
+      phase.stop();
+      return numRuns;
+   }
+
+   /**
+    * @return the output file for the case when there is nothing to merge
+    */
+   private Path singleOutPath() {
+      return opts.isKeepSegments() ? ChunkMerging.segmentPath(opts.getOutPath(), 0) : opts.getOutPath();
+   }
+
+   private void moveRun() {
+      Path runPath = ChunkSortingOptions.chunkOutPath(runsDir.path(), 1, null);
+      Path outPath = singleOutPath();
+      try {
+         opts.getFs().delete(outPath, false);
+         opts.getFs().mkdirs(outPath.getParent());
+         if (!opts.getFs().rename(runPath, outPath))
+            throw new IOException("rename failed");
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot move run '" + runPath + "' to '" + outPath + "'", e);
+      }
+   }
+
+   /**
+    * Every line of a collated chunk takes the memory of its sort key too, see {@link SortKeys}.
+    */
+   private int chunkSize() {
+      int chunkSz = chunkSize(opts.getMemoryBudget());
+      return opts.getKeySpec().isCollated() ? Math.max(1, chunkSz / COLLATED_CHUNK_FACTOR) : chunkSz;
+   }
+
+   /**
+    * @param output {@code true} if the chunk is the whole output, so lines are written without sort keys
+    */
+   private void sortAndSave(Chunk ch, Path outPath, CompressionCodec codec, boolean output) {
+      ch = SortKeys.encode(ch);
+      if (!ch.isEmpty()) {
+         opts.getEngine().sort(ch);
+         opts.getDuplicates().collapse(ch);
+      }
+
+      BufferedChunkWriter chWr = null;
+
+      try {
+         chWr = new BufferedChunkWriter(opts.getFs(), outPath, BufferedChunkWriter.DEFAULT_BUFFER_SZ, 1, codec,
+                                        output && opts.getKeySpec().isCollated());
+         chWr.write(ch);
+         chWr.close();
+         if (!output)
+            Metrics.add(Metrics.Counter.RUNS, 1);
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot save chunk to file '" + outPath + "'", e);
+      }
+      finally {
+         closeSilently(chWr);
+      }
+   }
+
+   /**
+    * Removes part files of the previous output.
+    */
+   private void deleteOutput() {
+      try {
+         opts.getFs().delete(opts.getOutPath(), true);
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot delete output '" + opts.getOutPath() + "'", e);
+      }
+   }
+
+   /**
+    * Runs are written to a new directory of the job, so the files which are already
+    * in the runs directory are neither merged nor deleted.
+    */
+   private void createRunsDir() {
+      try {
+         runsDir = JobDirectory.create(opts.getFs(), opts.getRunsDirPath());
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot create runs directory in '" + opts.getRunsDirPath() + "'", e);
+      }
+   }
+
+   private void deleteRuns() {
+      try {
+         runsDir.delete();
+      }
+      catch (IOException e) {
+         metrics.echo("cannot delete runs directory '" + runsDir.path() + "': " + e.getMessage());
+      }
+   }
+
+}
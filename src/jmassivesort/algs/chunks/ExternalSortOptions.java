@@ -0,0 +1,285 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+import jmassivesort.CliOptionsBuilderException;
+import jmassivesort.algs.SortingAlgorithm;
+import jmassivesort.algs.SortingAlgorithmBuilder;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options to use {@link ExternalSort} algorithm.
+ * @author Serj Sintsov
+ */
+public class ExternalSortOptions {
+
+   private static final int DEFAULT_MEMORY_PERCENT = 50;
+
+   static final String RUNS_DIR_FLAG = "-tmp";
+   static final String RUNS_FLAG = "-runs";
+   static final String CHUNK_RUNS = "chunks";
+   static final String REPLACEMENT_SELECTION_RUNS = "replacement";
+
+   static final List<String> VALUE_FLAGS = Arrays.asList(ChunkSortingOptions.ENGINE_FLAG, RunCompression.CODEC_FLAG,
+         ChunkMergingOptions.READ_AHEAD_FLAG, ChunkMergingOptions.FAN_IN_FLAG, RUNS_DIR_FLAG, RUNS_FLAG,
+         ChunkMergingOptions.PARALLEL_FLAG, KeySpec.KEY_FLAG, KeySpec.SEPARATOR_FLAG, KeySpec.COLLATE_FLAG);
+   static final List<String> SWITCHES = Arrays.asList(ChunkMergingOptions.SEGMENTS_FLAG, KeySpec.NUMERIC_FLAG,
+         KeySpec.FOLD_CASE_FLAG, DuplicateMode.UNIQUE_FLAG, DuplicateMode.COUNT_FLAG);
+
+   public static Builder builder() {
+      return new Builder();
+   }
+
+   public static ExternalSortBuilder algorithmBuilder() {
+      return new ExternalSortBuilder();
+   }
+
+   public static class Builder {
+      private final Map<String, String> optionDescriptions = new HashMap<String, String>() {{
+         put("<inputFile>", "File to sort");
+         put("<outputFile>", "File to write sorted lines to");
+         put("[memoryMb]", "Integer value > 0. Heap budget for a chunk being sorted and for the merge, "
+               + DEFAULT_MEMORY_PERCENT + "% of max heap by default");
+         put(ChunkSortingOptions.ENGINE_FLAG + " <name>", ChunkSortingOptions.ENGINE_DESCRIPTION);
+         put(RunCompression.CODEC_FLAG + " <name>", RunCompression.CODEC_DESCRIPTION);
+         put(ChunkMergingOptions.READ_AHEAD_FLAG + " <depth>", "Integer value >= 0. Number of chunks of every run "
+               + "read in the background while merging. 0 by default");
+         put(ChunkMergingOptions.FAN_IN_FLAG + " <runs>", "Integer value >= 2. Maximum number of runs merged at once. "
+               + ChunkMergingOptions.DEFAULT_MAX_FAN_IN + " by default");
+         put(RUNS_DIR_FLAG + " <dir>", "Directory for the runs. The runs are written to a new subdirectory of it, "
+               + "which is deleted when the sort is done. <outputFile>.runs by default");
+         put(ChunkMergingOptions.PARALLEL_FLAG + " <ranges>", ChunkMergingOptions.PARALLEL_DESCRIPTION);
+         put(ChunkMergingOptions.SEGMENTS_FLAG, ChunkMergingOptions.SEGMENTS_DESCRIPTION);
+         put(RUNS_FLAG + " <generator>", "How to generate sorted runs, one of [" + CHUNK_RUNS + ", "
+               + REPLACEMENT_SELECTION_RUNS + "]. " + CHUNK_RUNS + " sorts the input chunk by chunk, "
+               + REPLACEMENT_SELECTION_RUNS + " makes runs twice as large on random input and one run on "
+               + "almost sorted input, but lines must be shorter than 1/16 of the memory. "
+               + CHUNK_RUNS + " by default");
+         put(KeySpec.KEY_FLAG + " <key>", KeySpec.KEY_DESCRIPTION);
+         put(KeySpec.SEPARATOR_FLAG + " <char>", KeySpec.SEPARATOR_DESCRIPTION);
+         put(KeySpec.NUMERIC_FLAG, KeySpec.NUMERIC_DESCRIPTION);
+         put(KeySpec.FOLD_CASE_FLAG, KeySpec.FOLD_CASE_DESCRIPTION);
+         put(KeySpec.COLLATE_FLAG + " <locale>", KeySpec.COLLATE_DESCRIPTION);
+         put(DuplicateMode.UNIQUE_FLAG, DuplicateMode.UNIQUE_DESCRIPTION);
+         put(DuplicateMode.COUNT_FLAG, DuplicateMode.COUNT_DESCRIPTION);
+      }};
+
+      protected Path inPath;
+      protected Path outPath;
+      protected Path runsDirPath;
+      protected long memoryBudget;
+      protected SortEngine engine;
+      protected CompressionCodec codec;
+      protected int readAheadDepth;
+      protected int maxFanIn;
+      protected boolean replacementSelection;
+      protected int parallelism;
+      protected boolean keepSegments;
+      protected KeySpec keySpec;
+      protected DuplicateMode duplicates;
+
+      public ExternalSortOptions build(String[] options) throws CliOptionsBuilderException {
+         if (options == null)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         CliFlags flags;
+         try {
+            flags = CliFlags.parse(options, VALUE_FLAGS, SWITCHES);
+            engine = ChunkSortingOptions.parseEngine(flags);
+            codec = RunCompression.parseCodec(flags);
+            readAheadDepth = Integer.parseInt(flags.value(ChunkMergingOptions.READ_AHEAD_FLAG, "0"));
+            maxFanIn = Integer.parseInt(flags.value(ChunkMergingOptions.FAN_IN_FLAG,
+                                                    String.valueOf(ChunkMergingOptions.DEFAULT_MAX_FAN_IN)));
+            parallelism = Integer.parseInt(flags.value(ChunkMergingOptions.PARALLEL_FLAG, "1"));
+            keepSegments = flags.has(ChunkMergingOptions.SEGMENTS_FLAG);
+            keySpec = KeySpec.parse(flags);
+            duplicates = DuplicateMode.parse(flags);
+            if (readAheadDepth < 0 || maxFanIn < 2 || parallelism < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+
+            String runs = flags.value(RUNS_FLAG, CHUNK_RUNS);
+            if (!CHUNK_RUNS.equals(runs) && !REPLACEMENT_SELECTION_RUNS.equals(runs))
+               throw new IllegalArgumentException("Unknown run generator '" + runs + "'");
+            replacementSelection = REPLACEMENT_SELECTION_RUNS.equals(runs);
+         }
+         catch (IllegalArgumentException e) { // including NumberFormatException
+            throw new CliOptionsBuilderException(usage(e.getMessage()), optionDescriptions);
+         }
+
+         options = flags.args();
+         if (options.length < 2 || options.length > 3)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         try {
+            if (options.length == 3) {
+               int memoryMb = Integer.parseInt(options[2]);
+               if (memoryMb < 1)
+                  throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+               memoryBudget = memoryMb * 1024L * 1024L;
+            }
+            else
+               memoryBudget = Runtime.getRuntime().maxMemory() / 100 * DEFAULT_MEMORY_PERCENT;
+         }
+         catch (NumberFormatException ex) {
+            throw new CliOptionsBuilderException(usage("Incorrect option value"), optionDescriptions);
+         }
+
+         try {
+            inPath = new Path(URI.create(options[0]));
+            outPath = new Path(URI.create(options[1]));
+            String runsDir = flags.value(RUNS_DIR_FLAG, null);
+            runsDirPath = runsDir != null ? new Path(URI.create(runsDir))
+                                          : outPath.suffix(".runs");
+         }
+         catch (Exception e) {
+            throw new CliOptionsBuilderException(usage("Incorrect path"), optionDescriptions);
+         }
+
+         return new ExternalSortOptions(inPath, outPath, runsDirPath, memoryBudget, engine, codec, readAheadDepth,
+                                        maxFanIn, replacementSelection, parallelism, keepSegments, keySpec,
+                                        duplicates, ChunkSortingOptions.defaultFs());
+      }
+
+      private String usage(String error) {
+         return error + ". Specify options in order <inputFile> <outputFile> [memoryMb] ["
+               + ChunkSortingOptions.ENGINE_FLAG + " <name>] [" + RunCompression.CODEC_FLAG + " <name>] ["
+               + ChunkMergingOptions.READ_AHEAD_FLAG + " <depth>] [" + ChunkMergingOptions.FAN_IN_FLAG + " <runs>] ["
+               + RUNS_DIR_FLAG + " <dir>] [" + RUNS_FLAG + " <generator>] [" + ChunkMergingOptions.PARALLEL_FLAG
+               + " <ranges>] [" + ChunkMergingOptions.SEGMENTS_FLAG + "] [" + KeySpec.KEY_FLAG + " <key>]... ["
+               + KeySpec.SEPARATOR_FLAG + " <char>] [" + KeySpec.NUMERIC_FLAG + " | " + KeySpec.FOLD_CASE_FLAG
+               + " | " + KeySpec.COLLATE_FLAG + " <locale>] [" + DuplicateMode.UNIQUE_FLAG
+               + " | " + DuplicateMode.COUNT_FLAG + "]";
+      }
+   }
+
+   public static class ExternalSortBuilder implements SortingAlgorithmBuilder {
+      @Override
+      public SortingAlgorithm build(String[] options) throws CliOptionsBuilderException {
+         return new ExternalSort(ExternalSortOptions.builder().build(options));
+      }
+   }
+
+   private Path inPath;
+   private Path outPath;
+   private Path runsDirPath;
+   private long memoryBudget;
+   private SortEngine engine;
+   private CompressionCodec codec;
+   private int readAheadDepth;
+   private int maxFanIn;
+   private boolean replacementSelection;
+   private int parallelism;
+   private boolean keepSegments;
+   private KeySpec keySpec;
+   private DuplicateMode duplicates;
+   private FileSystem fs;
+
+   protected ExternalSortOptions(Path inPath, Path outPath, Path runsDirPath, long memoryBudget, SortEngine engine,
+                                 CompressionCodec codec, int readAheadDepth, int maxFanIn,
+                                 boolean replacementSelection, int parallelism, boolean keepSegments,
+                                 KeySpec keySpec, DuplicateMode duplicates, FileSystem fs) {
+      this.inPath = inPath;
+      this.outPath = outPath;
+      this.runsDirPath = runsDirPath;
+      this.memoryBudget = memoryBudget;
+      this.engine = engine;
+      this.codec = codec;
+      this.readAheadDepth = readAheadDepth;
+      this.maxFanIn = maxFanIn;
+      this.replacementSelection = replacementSelection;
+      this.parallelism = parallelism;
+      this.keepSegments = keepSegments;
+      this.keySpec = keySpec;
+      this.duplicates = duplicates;
+      this.fs = fs;
+   }
+
+   /**
+    * @param jobRunsDirPath directory with the runs of the job, see {@link JobDirectory}
+    * @return options to merge the runs into the output file
+    */
+   public ChunkMergingOptions mergingOptions(Path jobRunsDirPath) {
+      return new ChunkMergingOptions(outPath, jobRunsDirPath, readAheadDepth, maxFanIn, codec, parallelism,
+                                     keepSegments, keySpec, duplicates, memoryBudget, fs);
+   }
+
+   public Path getInPath() {
+      return inPath;
+   }
+
+   public Path getOutPath() {
+      return outPath;
+   }
+
+   /**
+    * @return directory to create the directory of the job's runs in
+    */
+   public Path getRunsDirPath() {
+      return runsDirPath;
+   }
+
+   /**
+    * @return heap budget in bytes for a chunk being sorted and for the runs being merged
+    */
+   public long getMemoryBudget() {
+      return memoryBudget;
+   }
+
+   public SortEngine getEngine() {
+      return engine;
+   }
+
+   public CompressionCodec getCodec() {
+      return codec;
+   }
+
+   /**
+    * @return {@code true} if runs are generated by {@link ReplacementSelection}
+    *         instead of sorting the input chunk by chunk
+    */
+   public boolean isReplacementSelection() {
+      return replacementSelection;
+   }
+
+   /**
+    * @return {@code true} if the output is a directory of sorted part-NNNNN files
+    */
+   public boolean isKeepSegments() {
+      return keepSegments;
+   }
+
+   public KeySpec getKeySpec() {
+      return keySpec;
+   }
+
+   public DuplicateMode getDuplicates() {
+      return duplicates;
+   }
+
+   public FileSystem getFs() {
+      return fs;
+   }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A fresh directory of one job for its temporary files, e.g. runs.
+ * <p/>
+ * The directory is created inside the directory given by the user, which may
+ * keep files of its own, so nothing but the job's files is ever listed, merged
+ * or deleted. The given directory is removed too, if the job created it and
+ * it is left empty.
+ *
+ * @author Serj Sintsov
+ */
+final class JobDirectory {
+
+   private static final String NAME_PREFIX = "job-";
+
+   private final FileSystem fs;
+   private final Path parentPath;
+   private final Path path;
+   private final boolean parentCreated;
+
+   private JobDirectory(FileSystem fs, Path parentPath, Path path, boolean parentCreated) {
+      this.fs = fs;
+      this.parentPath = parentPath;
+      this.path = path;
+      this.parentCreated = parentCreated;
+   }
+
+   /**
+    * Creates a new empty directory inside {@code parentPath}, creating {@code parentPath} if needed.
+    */
+   static JobDirectory create(FileSystem fs, Path parentPath) throws IOException {
+      boolean parentCreated = !fs.exists(parentPath);
+
+      Path path;
+      do {
+         path = new Path(parentPath, NAME_PREFIX + UUID.randomUUID());
+      } while (fs.exists(path));
+
+      if (!fs.mkdirs(path))
+         throw new IOException("Cannot create directory '" + path + "'");
+      return new JobDirectory(fs, parentPath, path, parentCreated);
+   }
+
+   Path path() {
+      return path;
+   }
+
+   /**
+    * Deletes the directory with all the job's files.
+    */
+   void delete() throws IOException {
+      fs.delete(path, true);
+      if (parentCreated && fs.listStatus(parentPath).length == 0)
+         fs.delete(parentPath, false);
+   }
+
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Progress of a sorting job kept in the {@code _manifest} directory next to its runs,
+ * so a restarted job skips the chunks which are already sorted and resumes the merge
+ * from the intermediate runs instead of starting over.
+ * <p/>
+ * The manifest keeps:
+ * <ul>
+ *    <li>the identity of the input file, its length, modification time and checksum;</li>
+ *    <li>the planned chunks of the input with the hosts keeping them, see {@link ChunkPlanner};</li>
+ *    <li>a record of every sorted chunk with the input identity, the options the runs
+ *        depend on and the length and checksum of every run file of the chunk;</li>
+ *    <li>a record of every finished merge step with the length and checksum of its output,
+ *        valid as long as the merge plan, the runs and the way they are merged, stays the same.</li>
+ * </ul>
+ * Every record is a small properties file written aside and renamed when it's complete,
+ * so records are never read half-written and chunks sorted by different processes don't
+ * share any file. A record is trusted only if the files it describes still have the recorded
+ * lengths and checksums. File systems without checksums, e.g. the local one, are checked
+ * by the lengths only.
+ *
+ * @author Serj Sintsov
+ */
+public class JobManifest {
+
+   static final String MANIFEST_DIR_NAME = "_manifest";
+
+   private static final String INPUT_NAME = "input";
+   private static final String CHUNKS_NAME = "chunks";
+   private static final String MERGE_DIR_NAME = "merge";
+   private static final String PLAN_NAME = "plan";
+   private static final String TMP_SUFFIX = ".tmp";
+   private static final String NO_CHECKSUM = "none";
+
+   private final FileSystem fs;
+   private final Path dirPath;
+
+   /**
+    * @param runsDirPath directory of the runs of the job
+    */
+   public JobManifest(FileSystem fs, Path runsDirPath) {
+      this.fs = fs;
+      this.dirPath = new Path(runsDirPath, MANIFEST_DIR_NAME);
+   }
+
+   /**
+    * @return {@code true} if the file is not a run but a file of the job, like the manifest,
+    *         or a hidden file, following the Hadoop convention
+    */
+   static boolean isHidden(Path path) {
+      String name = path.getName();
+      return name.startsWith("_") || name.startsWith(".");
+   }
+
+   /**
+    * The checksum of the input is computed once per its length and modification time
+    * and recorded, so chunks sorted one after another don't read the input checksums again.
+    *
+    * @return identity of the input file
+    */
+   String inputIdentity(Path inPath) throws IOException {
+      FileStatus status = fs.getFileStatus(inPath);
+      String file = status.getPath() + " " + status.getLen() + " " + status.getModificationTime();
+
+      Properties recorded = read(new Path(dirPath, INPUT_NAME));
+      if (recorded != null && file.equals(recorded.getProperty("file")))
+         return file + " " + recorded.getProperty("checksum");
+
+      Properties input = new Properties();
+      input.setProperty("file", file);
+      input.setProperty("checksum", checksum(inPath));
+      write(new Path(dirPath, INPUT_NAME), input);
+      return file + " " + input.getProperty("checksum");
+   }
+
+   /**
+    * Records the chunks planned for the input, every chunk as
+    * {@code chunk.<id>=<start> <end> <host>,<host>...}.
+    *
+    * @param input identity of the input
+    */
+   void recordPlan(String input, List<ChunkPlanner.ChunkSplit> splits) throws IOException {
+      Properties record = new Properties();
+      record.setProperty("input", input);
+      record.setProperty("chunks", String.valueOf(splits.size()));
+      for (int i = 0; i < splits.size(); i++) {
+         ChunkPlanner.ChunkSplit split = splits.get(i);
+         record.setProperty("chunk." + (i + 1), split.getStart() + " " + split.getEnd() + " "
+                                                + StringUtils.join(",", split.getHosts()));
+      }
+      write(new Path(dirPath, CHUNKS_NAME), record);
+   }
+
+   /**
+    * @param input identity of the input
+    * @return the chunks planned for the input or {@code null} if there is no plan
+    *         of the input with that number of chunks
+    */
+   List<ChunkPlanner.ChunkSplit> plannedChunks(String input, int numChunks) throws IOException {
+      Properties record = read(new Path(dirPath, CHUNKS_NAME));
+      if (record == null || !input.equals(record.getProperty("input"))
+          || !String.valueOf(numChunks).equals(record.getProperty("chunks")))
+         return null;
+
+      List<ChunkPlanner.ChunkSplit> splits = new ArrayList<>(numChunks);
+      for (int i = 1; i <= numChunks; i++) {
+         String[] split = record.getProperty("chunk." + i, "").split(" ");
+         if (split.length < 2)
+            throw new IOException("Chunk " + i + " of plan '" + new Path(dirPath, CHUNKS_NAME) + "' is broken");
+
+         List<String> hosts = new ArrayList<>();
+         if (split.length > 2)
+            hosts.addAll(Arrays.asList(split[2].split(",")));
+         splits.add(new ChunkPlanner.ChunkSplit(Long.parseLong(split[0]), Long.parseLong(split[1]), hosts));
+      }
+      return splits;
+   }
+
+   /**
+    * @param run name of the chunk, e.g. the name of its first run file
+    * @param input identity of the input and the options the runs depend on
+    * @return {@code true} if the chunk is sorted from the same input with the same options
+    *         and all its run files are untouched
+    */
+   boolean isChunkSorted(String run, String input) throws IOException {
+      Properties record = read(chunkRecordPath(run));
+      if (record == null || !input.equals(record.getProperty("input")))
+         return false;
+
+      for (String file : record.getProperty("files", "").split(","))
+         if (!file.isEmpty() && !isUntouched(new Path(dirPath.getParent(), file), record, file))
+            return false;
+      return true;
+   }
+
+   /**
+    * Records the chunk after all its run files are written and closed.
+    */
+   void recordChunk(String run, String input, List<Path> files) throws IOException {
+      Properties record = new Properties();
+      record.setProperty("input", input);
+      List<String> names = new ArrayList<>(files.size());
+      for (Path file : files) {
+         names.add(file.getName());
+         describe(file, record, file.getName());
+      }
+      record.setProperty("files", StringUtils.join(",", names));
+      write(chunkRecordPath(run), record);
+   }
+
+   /**
+    * Starts the merge of the plan. Progress of a merge with another plan,
+    * e.g. of other runs or another fan-in, is dropped.
+    *
+    * @return {@code true} if there may be finished steps of the plan to resume from
+    */
+   boolean startMerge(List<MergePlanner.MergeStep> plan, String options) throws IOException {
+      Properties planRecord = new Properties();
+      planRecord.setProperty("id", planId(plan, options));
+
+      Path planPath = new Path(mergeDirPath(), PLAN_NAME);
+      Properties recorded = read(planPath);
+      if (recorded != null && planRecord.getProperty("id").equals(recorded.getProperty("id")))
+         return true;
+
+      fs.delete(mergeDirPath(), true);
+      write(planPath, planRecord);
+      return false;
+   }
+
+   /**
+    * @return {@code true} if the step was finished, its output may be deleted already
+    *         if the next steps have read it
+    */
+   boolean isStepFinished(int step) throws IOException {
+      return fs.exists(stepRecordPath(step));
+   }
+
+   /**
+    * @return {@code true} if the output of the finished step is still there and untouched
+    */
+   boolean isStepOutputUntouched(int step, MergePlanner.MergeStep mergeStep) throws IOException {
+      Properties record = read(stepRecordPath(step));
+      return record != null && isUntouched(mergeStep.getOutput(), record, "output");
+   }
+
+   /**
+    * Records the step after its output is written and closed.
+    */
+   void recordStep(int step, MergePlanner.MergeStep mergeStep) throws IOException {
+      Properties record = new Properties();
+      describe(mergeStep.getOutput(), record, "output");
+      write(stepRecordPath(step), record);
+   }
+
+   /**
+    * Drops the merge progress, e.g. when the merge is finished.
+    */
+   void finishMerge() throws IOException {
+      fs.delete(mergeDirPath(), true);
+   }
+
+   private Path chunkRecordPath(String run) {
+      return new Path(dirPath, run);
+   }
+
+   private Path mergeDirPath() {
+      return new Path(dirPath, MERGE_DIR_NAME);
+   }
+
+   private Path stepRecordPath(int step) {
+      return new Path(mergeDirPath(), "step-" + step);
+   }
+
+   /**
+    * Steps, their inputs and outputs depend on the runs and their lengths and on the fan-in,
+    * so the same plan means the same runs merged the same way.
+    */
+   private static String planId(List<MergePlanner.MergeStep> plan, String options) {
+      StringBuilder sb = new StringBuilder(options);
+      for (MergePlanner.MergeStep step : plan)
+         sb.append('\n').append(step.getInputs()).append(" -> ").append(step.getOutput());
+
+      try {
+         MessageDigest md5 = MessageDigest.getInstance("MD5");
+         return StringUtils.byteToHexString(md5.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+      }
+      catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException("MD5 is not supported", e);
+      }
+   }
+
+   private void describe(Path file, Properties record, String key) throws IOException {
+      record.setProperty(key + ".length", String.valueOf(fs.getFileStatus(file).getLen()));
+      record.setProperty(key + ".checksum", checksum(file));
+   }
+
+   private boolean isUntouched(Path file, Properties record, String key) throws IOException {
+      FileStatus status;
+      try {
+         status = fs.getFileStatus(file);
+      }
+      catch (FileNotFoundException e) {
+         return false;
+      }
+
+      return String.valueOf(status.getLen()).equals(record.getProperty(key + ".length"))
+             && checksum(file).equals(record.getProperty(key + ".checksum"));
+   }
+
+   private String checksum(Path file) throws IOException {
+      if (fs.getFileStatus(file).isDirectory())
+         return NO_CHECKSUM;
+      FileChecksum checksum = fs.getFileChecksum(file);
+      return checksum == null ? NO_CHECKSUM
+                              : checksum.getAlgorithmName() + ":" + StringUtils.byteToHexString(checksum.getBytes());
+   }
+
+   /**
+    * @return the record or {@code null} if there is no such record
+    */
+   private Properties read(Path recordPath) throws IOException {
+      InputStream in = null;
+      try {
+         in = fs.open(recordPath);
+         Properties record = new Properties();
+         record.load(in);
+         return record;
+      }
+      catch (FileNotFoundException e) {
+         return null;
+      }
+      finally {
+         closeSilently(in);
+      }
+   }
+
+   /**
+    * Writes the record aside and renames it, a record written by another process
+    * at the same time is as good as this one.
+    */
+   private void write(Path recordPath, Properties record) throws IOException {
+      Path tmpPath = recordPath.suffix("." + UUID.randomUUID() + TMP_SUFFIX);
+      OutputStream out = null;
+      try {
+         out = fs.create(tmpPath, true);
+         record.store(out, null);
+         out.close();
+      }
+      finally {
+         closeSilently(out);
+      }
+
+      fs.delete(recordPath, false);
+      if (!fs.rename(tmpPath, recordPath)) {
+         fs.delete(tmpPath, false);
+         if (!fs.exists(recordPath))
+            throw new IOException("Cannot write manifest record '" + recordPath + "'");
+      }
+   }
+
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sort keys of delimited records, like the {@code -k} and {@code -t} options of POSIX sort.
+ * <p/>
+ * A key {@code -k <start>[,<end>]} is the text from the beginning of the field
+ * {@code start} to the end of the field {@code end}, or to the end of the line
+ * if there is no {@code end}. Fields are counted from 1 and separated by a single
+ * byte, a tab by default. A field missing in a line makes an empty key. Lines are
+ * compared by the keys in the order they were specified, lines with equal keys
+ * are compared as a whole.
+ * <p/>
+ * Readers extract the keys of every line once and store them in the {@link Chunk}
+ * as markers, so sorting and merging compare the key bytes without looking
+ * for separators again.
+ * <p/>
+ * In numeric mode {@code -n} the first key, or the whole line if there are no keys,
+ * is a decimal integer: optional blanks, optional '-' and digits up to the first
+ * other byte. A key without digits is 0. The value is parsed once per line into
+ * the line prefix, so lines are compared as {@code long} numbers.
+ * <p/>
+ * Keys may be compared case-insensitively {@code -f} or by the collation of a locale
+ * {@code -collate <tag>} instead of by their bytes. Then every line read from the
+ * input is turned into its binary sort key followed by the line itself, see
+ * {@link SortKeys}. Sorting, runs and merging work with such lines as they are,
+ * compared by {@link #runKeySpec()}, and the keys are stripped from the output only.
+ *
+ * @author Serj Sintsov
+ */
+public final class KeySpec {
+
+   static final String KEY_FLAG = "-k";
+   static final String SEPARATOR_FLAG = "-t";
+   static final String NUMERIC_FLAG = "-n";
+   static final String FOLD_CASE_FLAG = "-f";
+   static final String COLLATE_FLAG = "-collate";
+   static final String KEY_DESCRIPTION = "Sort key <startField>[,<endField>], fields are counted from 1. "
+         + "May be repeated, the whole line is the key by default";
+   static final String SEPARATOR_DESCRIPTION = "Field separator, a single character or \\t. Tab by default";
+   static final String NUMERIC_DESCRIPTION = "Compare the first key as a decimal integer in the range of long. "
+         + "Numbers are sorted by radix of their values whatever the engine is";
+   static final String FOLD_CASE_DESCRIPTION = "Compare lower case ASCII letters as upper case ones. "
+         + "Runs keep the sort keys of the lines and must be merged with " + FOLD_CASE_FLAG + " too";
+   static final String COLLATE_DESCRIPTION = "Compare UTF-8 keys by the collation of the locale, e.g. en-US or de. "
+         + "Runs keep the sort keys of the lines and must be merged with the same locale";
+
+   /** no keys, lines are compared as a whole */
+   public static final KeySpec WHOLE_LINE = new KeySpec(new int[0], new int[0], (byte) '\t', false);
+
+   /** lines of collated runs, the sort key is the first field, see {@link SortKeys} */
+   static final KeySpec SORT_KEY = new KeySpec(new int[] {1}, new int[] {1}, SortKeys.KEY_SEPARATOR, false);
+
+   private final int[] startFields;
+   private final int[] endFields; // 0 is the end of the line
+   private final byte separator;
+   private final boolean numeric;
+   private final boolean foldCase;
+   private final Locale locale; // null to compare bytes
+
+   /**
+    * @param startFields first field of every key, counted from 1
+    * @param endFields last field of every key or 0 if the key ends with the line
+    * @param numeric {@code true} to compare the first key as a number
+    */
+   public KeySpec(int[] startFields, int[] endFields, byte separator, boolean numeric) {
+      this(startFields, endFields, separator, numeric, false, null);
+   }
+
+   /**
+    * @param foldCase {@code true} to compare keys case-insensitively
+    * @param locale locale to collate keys by or {@code null}
+    */
+   public KeySpec(int[] startFields, int[] endFields, byte separator, boolean numeric, boolean foldCase,
+                  Locale locale) {
+      if (startFields.length != endFields.length)
+         throw new IllegalArgumentException("Every key must have the start and end field");
+      for (int k = 0; k < startFields.length; k++)
+         if (startFields[k] < 1 || (endFields[k] != 0 && endFields[k] < startFields[k]))
+            throw new IllegalArgumentException("Incorrect key fields " + startFields[k] + "," + endFields[k]);
+      if (separator == '\n')
+         throw new IllegalArgumentException("Field separator cannot be EOL");
+      if ((foldCase || locale != null) && (numeric || (foldCase && locale != null)))
+         throw new IllegalArgumentException("Only one of numeric, case-insensitive and collated comparison "
+                                            + "can be used");
+
+      this.startFields = startFields.clone();
+      this.endFields = endFields.clone();
+      this.separator = separator;
+      this.numeric = numeric;
+      this.foldCase = foldCase;
+      this.locale = locale;
+   }
+
+   /**
+    * @throws IllegalArgumentException if a key or the separator is incorrect
+    */
+   static KeySpec parse(CliFlags flags) {
+      List<String> keys = flags.values(KEY_FLAG);
+      String sep = flags.value(SEPARATOR_FLAG, null);
+      boolean numeric = flags.has(NUMERIC_FLAG);
+      boolean foldCase = flags.has(FOLD_CASE_FLAG);
+      Locale locale = parseLocale(flags.value(COLLATE_FLAG, null));
+      if (keys.isEmpty() && sep == null && !numeric && !foldCase && locale == null)
+         return WHOLE_LINE;
+
+      int[] startFields = new int[keys.size()];
+      int[] endFields = new int[keys.size()];
+      for (int k = 0; k < keys.size(); k++) {
+         String key = keys.get(k);
+         int comma = key.indexOf(',');
+         try {
+            startFields[k] = Integer.parseInt(comma < 0 ? key : key.substring(0, comma));
+            endFields[k] = comma < 0 ? 0 : Integer.parseInt(key.substring(comma + 1));
+         }
+         catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Incorrect sort key '" + key + "'");
+         }
+         if (startFields[k] < 1 || (comma >= 0 && endFields[k] < startFields[k]))
+            throw new IllegalArgumentException("Incorrect sort key '" + key + "'");
+      }
+
+      return new KeySpec(startFields, endFields, parseSeparator(sep), numeric, foldCase, locale);
+   }
+
+   private static Locale parseLocale(String tag) {
+      if (tag == null)
+         return null;
+      Locale locale = Locale.forLanguageTag(tag);
+      if (locale.getLanguage().isEmpty())
+         throw new IllegalArgumentException("Incorrect locale '" + tag + "'");
+      return locale;
+   }
+
+   private static byte parseSeparator(String sep) {
+      if (sep == null || sep.equals("\\t"))
+         return '\t';
+      if (sep.length() != 1 || sep.charAt(0) > 127)
+         throw new IllegalArgumentException("Field separator must be a single ASCII character");
+      return (byte) sep.charAt(0);
+   }
+
+   public int numKeys() {
+      return startFields.length;
+   }
+
+   public boolean isWholeLine() {
+      return startFields.length == 0;
+   }
+
+   /**
+    * @return {@code true} if line prefixes are the values of the first key
+    *         and lines with equal prefixes have equal first keys
+    */
+   public boolean isNumeric() {
+      return numeric;
+   }
+
+   /**
+    * @return {@code true} if keys are compared by their sort keys and not by their bytes
+    */
+   public boolean isCollated() {
+      return foldCase || locale != null;
+   }
+
+   /**
+    * @return a new function which makes sort keys of the keys or {@code null} if keys are compared by their bytes
+    */
+   OrderFunctions.SortKeyFunction sortKeyFunction() {
+      if (foldCase)
+         return OrderFunctions.foldCase();
+      return locale == null ? null : OrderFunctions.collator(locale);
+   }
+
+   /**
+    * @return key spec of the lines of the runs, which differs from this one if the runs keep sort keys
+    */
+   public KeySpec runKeySpec() {
+      return isCollated() ? SORT_KEY : this;
+   }
+
+   /**
+    * Writes markers of all the keys of the line into {@code keys[from, from + numKeys())}.
+    */
+   void extract(byte[] data, int offset, int length, long[] keys, int from) {
+      for (int k = 0; k < startFields.length; k++)
+         keys[from + k] = keyOf(data, offset, length, k);
+   }
+
+   /**
+    * @return marker of the key {@code k} of the line, its offset is the offset in {@code data}
+    */
+   private long keyOf(byte[] data, int offset, int length, int k) {
+      int end = offset + length;
+      int pos = offset;
+      for (int field = 1; field < startFields[k]; field++) {
+         pos = fieldEnd(data, pos, end);
+         if (pos == end)
+            return Chunk.pack(end, 0);
+         pos++;
+      }
+
+      if (endFields[k] == 0)
+         return Chunk.pack(pos, end - pos);
+
+      int keyEnd = fieldEnd(data, pos, end);
+      for (int field = startFields[k]; field < endFields[k] && keyEnd < end; field++)
+         keyEnd = fieldEnd(data, keyEnd + 1, end);
+      return Chunk.pack(pos, keyEnd - pos);
+   }
+
+   private int fieldEnd(byte[] data, int pos, int end) {
+      while (pos < end && data[pos] != separator)
+         pos++;
+      return pos;
+   }
+
+   /**
+    * Compares lines by their precomputed key markers starting from the key {@code fromKey},
+    * lines with equal keys are compared as a whole.
+    */
+   static int compareKeys(byte[] data1, long line1, long[] keys1, int from1,
+                          byte[] data2, long line2, long[] keys2, int from2, int fromKey, int numKeys) {
+      for (int k = fromKey; k < numKeys; k++) {
+         int c = Chunk.compareMarkers(data1, keys1[from1 + k], data2, keys2[from2 + k]);
+         if (c != 0)
+            return c;
+      }
+      return Chunk.compareMarkers(data1, line1, data2, line2);
+   }
+
+   /**
+    * Compares two lines looking for their keys, suits the rare comparisons
+    * of lines which are not in a {@link Chunk}.
+    */
+   public int compareLines(byte[] data1, long line1, byte[] data2, long line2) {
+      return compare(data1, line1, data2, line2, true);
+   }
+
+   public int compareLines(byte[] l1, byte[] l2) {
+      return compare(l1, Chunk.pack(0, l1.length), l2, Chunk.pack(0, l2.length), true);
+   }
+
+   /**
+    * Compares two lines by their keys only, lines with equal keys are duplicates
+    * for {@link DuplicateMode}.
+    */
+   public int compareKeysOf(byte[] l1, byte[] l2) {
+      return compare(l1, Chunk.pack(0, l1.length), l2, Chunk.pack(0, l2.length), false);
+   }
+
+   public int compareKeysOf(byte[] data1, long line1, byte[] data2, long line2) {
+      return compare(data1, line1, data2, line2, false);
+   }
+
+   private int compare(byte[] data1, long line1, byte[] data2, long line2, boolean wholeLines) {
+      int fromKey = 0;
+      if (numeric) {
+         int c = Chunk.comparePrefixes(prefix(data1, Chunk.offsetOf(line1), Chunk.lengthOf(line1)),
+                                       prefix(data2, Chunk.offsetOf(line2), Chunk.lengthOf(line2)));
+         if (c != 0)
+            return c;
+         fromKey = 1;
+      }
+
+      for (int k = fromKey; k < startFields.length; k++) {
+         long key1 = keyOf(data1, Chunk.offsetOf(line1), Chunk.lengthOf(line1), k);
+         long key2 = keyOf(data2, Chunk.offsetOf(line2), Chunk.lengthOf(line2), k);
+         int c = Chunk.compareMarkers(data1, key1, data2, key2);
+         if (c != 0)
+            return c;
+      }
+      if (!wholeLines && (numeric || !isWholeLine()))
+         return 0;
+      return Chunk.compareMarkers(data1, line1, data2, line2);
+   }
+
+   /**
+    * @return prefix of the first key of the line, see {@link Chunk#prefix(byte[], int, int)}
+    */
+   public long prefix(byte[] data, int offset, int length) {
+      if (!isWholeLine()) {
+         long key = keyOf(data, offset, length, 0);
+         offset = Chunk.offsetOf(key);
+         length = Chunk.lengthOf(key);
+      }
+      return keyPrefix(data, offset, length);
+   }
+
+   /**
+    * @return prefix of the first key given its bytes
+    */
+   long keyPrefix(byte[] data, int offset, int length) {
+      return numeric ? numericPrefix(data, offset, length) : Chunk.prefix(data, offset, length);
+   }
+
+   /**
+    * @return the number shifted to compare as unsigned the same way as numbers do
+    * @throws NumberFormatException if the number is out of range of long
+    */
+   static long numericPrefix(byte[] data, int offset, int length) {
+      int end = offset + length;
+      int i = offset;
+      while (i < end && (data[i] == ' ' || data[i] == '\t'))
+         i++;
+
+      boolean negative = i < end && data[i] == '-';
+      if (negative)
+         i++;
+
+      // accumulate negatively to reach Long.MIN_VALUE
+      long value = 0;
+      for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+         int digit = data[i] - '0';
+         if (value < (Long.MIN_VALUE + digit) / 10)
+            throw outOfRange(data, offset, length);
+         value = value * 10 - digit;
+      }
+
+      if (!negative) {
+         if (value == Long.MIN_VALUE)
+            throw outOfRange(data, offset, length);
+         value = -value;
+      }
+
+      return value ^ Long.MIN_VALUE;
+   }
+
+   private static NumberFormatException outOfRange(byte[] data, int offset, int length) {
+      return new NumberFormatException("Number out of range of long: "
+                                       + new String(data, offset, length, StandardCharsets.US_ASCII));
+   }
+
+   /**
+    * @return the key spec as command line options
+    */
+   @Override
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int k = 0; k < startFields.length; k++) {
+         sb.append(KEY_FLAG).append(' ').append(startFields[k]);
+         if (endFields[k] != 0)
+            sb.append(',').append(endFields[k]);
+         sb.append(' ');
+      }
+      sb.append(SEPARATOR_FLAG).append(' ').append(separator == '\t' ? "\\t" : String.valueOf((char) separator));
+      if (numeric)
+         sb.append(' ').append(NUMERIC_FLAG);
+      if (foldCase)
+         sb.append(' ').append(FOLD_CASE_FLAG);
+      if (locale != null)
+         sb.append(' ').append(COLLATE_FLAG).append(' ').append(locale.toLanguageTag());
+      return sb.toString();
+   }
+
+}
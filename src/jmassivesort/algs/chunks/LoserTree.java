@@ -0,0 +1,163 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.util.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Tournament tree of losers to merge k sorted runs.
+ * <p/>
+ * Leaves of the tree are the current lines of the runs and every inner node
+ * keeps the run which lost the match in its subtree. When the smallest line
+ * is consumed, only the matches on the path from its leaf to the root are
+ * replayed, that is {@code log k} comparisons per line. The tree holds
+ * the run numbers in primitive arrays and allocates nothing per line.
+ * The comparisons are added to the {@link Metrics} when the tree is closed.
+ *
+ * @author Serj Sintsov
+ */
+final class LoserTree implements Closeable {
+
+   private static final int NONE = -1;
+
+   private final int k;
+   private final ChunkReader[] runs;
+   private final Chunk[] chunks;
+   private final int[] positions;
+
+   // losers[0] is the overall winner
+   private final int[] losers;
+
+   private long comparisons = 0;
+
+   public LoserTree(ChunkReader[] runs) throws IOException {
+      this.k = runs.length;
+      this.runs = runs;
+      this.chunks = new Chunk[k];
+      this.positions = new int[k];
+      this.losers = new int[Math.max(k, 1)];
+
+      for (int i = 0; i < k; i++)
+         nextChunk(i);
+
+      build();
+   }
+
+   private void build() {
+      if (k == 0) {
+         losers[0] = NONE;
+         return;
+      }
+
+      int[] winners = new int[2 * k];
+      for (int i = 0; i < k; i++)
+         winners[k + i] = i;
+
+      for (int n = k - 1; n > 0; n--) {
+         int a = winners[2*n];
+         int b = winners[2*n + 1];
+         if (less(a, b)) {
+            winners[n] = a;
+            losers[n] = b;
+         }
+         else {
+            winners[n] = b;
+            losers[n] = a;
+         }
+      }
+
+      losers[0] = k == 1 ? 0 : winners[1];
+   }
+
+   public boolean isEmpty() {
+      return losers[0] == NONE || chunks[losers[0]] == null;
+   }
+
+   /**
+    * @return the chunk of the smallest line
+    */
+   public Chunk minChunk() {
+      return chunks[losers[0]];
+   }
+
+   /**
+    * @return the index of the smallest line in its chunk
+    */
+   public int minIndex() {
+      return positions[losers[0]];
+   }
+
+   /**
+    * Consumes the smallest line and finds the next one.
+    */
+   public void next() throws IOException {
+      int w = losers[0];
+
+      if (++positions[w] == chunks[w].size())
+         nextChunk(w);
+
+      for (int n = (w + k) >> 1; n > 0; n >>= 1) {
+         if (less(losers[n], w)) {
+            int t = losers[n];
+            losers[n] = w;
+            w = t;
+         }
+      }
+
+      losers[0] = w;
+   }
+
+   private void nextChunk(int run) throws IOException {
+      Chunk ch = runs[run].nextChunk();
+      while (ch != null && ch.isEmpty())
+         ch = runs[run].nextChunk();
+
+      chunks[run] = ch;
+      positions[run] = 0;
+
+      if (ch == null)
+         closeSilently(runs[run]);
+   }
+
+   /**
+    * Exhausted runs lose every match.
+    */
+   private boolean less(int a, int b) {
+      if (chunks[a] == null)
+         return false;
+      if (chunks[b] == null)
+         return true;
+
+      comparisons++;
+      int c = Chunk.compareAt(chunks[a], positions[a], chunks[b], positions[b]);
+      return c < 0 || (c == 0 && a < b);
+   }
+
+   @Override
+   public void close() throws IOException {
+      for (ChunkReader run : runs)
+         closeSilently(run);
+
+      Metrics.add(Metrics.Counter.COMPARISONS, comparisons);
+      comparisons = 0;
+   }
+
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.util.Metrics;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Reads a part of a file on the local file system by mapping it into the memory.
+ * <p/>
+ * The file is divided into {@code numChunks} parts of equal size, every part starts
+ * with the first line which begins in it, or a planned part of the file is read. Chunk boundaries are found right in
+ * the mapped file instead of reading it byte by byte through the checksummed Hadoop
+ * stream. A chunk which is too large for one array is returned as several regions,
+ * every region ends with a whole line.
+ * <p/>
+ * This is not a zero-copy read: chunk markers index a heap array, so every region
+ * is copied from the mapping into a {@code byte[]}. The array is allocated once per
+ * reader and takes no more than {@code maxRegionSz} bytes, so it fits the memory
+ * budget of the chunk when the budget is given as the region size. Every next region
+ * refills the same array, so the returned chunk is valid until the next call of
+ * {@link #nextChunk()}. If the number of lines is limited by {@link #setMaxLines(int)},
+ * a region of many short lines is returned in several parts.
+ * <p/>
+ * Also note that this reader supports only Linux like LF markers and
+ * doesn't support unicode encoding.
+ *
+ * @author Serj Sintsov
+ */
+public class MappedChunkReader implements ChunkReader {
+
+   public static final int MAX_REGION_SIZE = Integer.MAX_VALUE - 8; // max array size
+   private static final int SCAN_WINDOW_SIZE = 1024 * 1024; // 1Mb
+
+   private final FileChannel channel;
+   private final long fLen;
+   private final int maxRegionSz;
+   private final KeySpec keySpec;
+   private long end;
+   private int maxLines = Integer.MAX_VALUE;
+
+   private long nextRegion;
+   private byte[] buffer = new byte[0];
+   private int regionSz;
+   private int nextLine;
+
+   public MappedChunkReader(int chunkId, int numChunks, FileSystem fs, Path inPath) throws IOException {
+      this(chunkId, numChunks, fs, inPath, MAX_REGION_SIZE);
+   }
+
+   public MappedChunkReader(int chunkId, int numChunks, FileSystem fs, Path inPath, int maxRegionSz)
+         throws IOException {
+      this(chunkId, numChunks, fs, inPath, maxRegionSz, KeySpec.WHOLE_LINE);
+   }
+
+   /**
+    * @param keySpec keys to extract from every line of the chunk
+    */
+   public MappedChunkReader(int chunkId, int numChunks, FileSystem fs, Path inPath, int maxRegionSz,
+                            KeySpec keySpec) throws IOException {
+      this(fs, inPath, maxRegionSz, keySpec);
+
+      try {
+         long chunkSz = (long) Math.ceil((double) fLen / numChunks);
+         nextRegion = nextLineStart(Math.min(fLen, (chunkId - 1) * chunkSz));
+         end = nextLineStart(Math.min(fLen, chunkId * chunkSz));
+      }
+      catch (IOException e) {
+         closeSilently(channel);
+         throw e;
+      }
+   }
+
+   /**
+    * Reads the bytes {@code [start, end)} of the file, both positions must be
+    * line starts or the file end, e.g. a chunk planned by {@link ChunkPlanner}.
+    *
+    * @param keySpec keys to extract from every line of the chunk
+    */
+   public MappedChunkReader(FileSystem fs, Path inPath, long start, long end, int maxRegionSz, KeySpec keySpec)
+         throws IOException {
+      this(fs, inPath, maxRegionSz, keySpec);
+      this.nextRegion = Math.min(fLen, start);
+      this.end = Math.min(fLen, end);
+   }
+
+   private MappedChunkReader(FileSystem fs, Path inPath, int maxRegionSz, KeySpec keySpec) throws IOException {
+      if (!isLocal(fs))
+         throw new IllegalArgumentException("File system '" + fs.getUri() + "' is not local");
+      if (maxRegionSz < 1 || maxRegionSz > MAX_REGION_SIZE)
+         throw new IllegalArgumentException("Region size must be in range [1, " + MAX_REGION_SIZE + "]");
+
+      File file = new File(fs.makeQualified(inPath).toUri());
+      if (!file.isFile())
+         throw new FileNotFoundException("No such file '" + inPath + "'");
+
+      this.maxRegionSz = maxRegionSz;
+      this.keySpec = keySpec;
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+      try {
+         fLen = channel.size();
+      }
+      catch (IOException e) {
+         closeSilently(channel);
+         throw e;
+      }
+   }
+
+   /**
+    * Limits the number of lines of every returned part of a region,
+    * the markers of a part are allocated at once for up to {@code maxLines} lines.
+    */
+   public void setMaxLines(int maxLines) {
+      if (maxLines < 1)
+         throw new IllegalArgumentException("Max number of lines must be positive integer");
+      this.maxLines = maxLines;
+   }
+
+   public static boolean isLocal(FileSystem fs) {
+      return "file".equals(fs.getUri().getScheme());
+   }
+
+   /**
+    * @return the next region of the chunk or its next part or {@code null} if the whole chunk is read
+    */
+   @Override
+   public Chunk nextChunk() throws IOException {
+      if (nextLine >= regionSz && !mapNextRegion())
+         return null;
+
+      int capacity = Math.min(maxLines, regionSz - nextLine + 1);
+      Chunk chunk = maxLines == Integer.MAX_VALUE ? new Chunk(keySpec) : new Chunk(keySpec, false, capacity);
+      chunk.setRawData(buffer);
+      readLines(chunk);
+      return chunk;
+   }
+
+   /**
+    * @return {@code false} if the whole chunk is read
+    */
+   private boolean mapNextRegion() throws IOException {
+      if (nextRegion >= end)
+         return false;
+      if (buffer.length == 0) // every region fits, it's no longer than either the region size or the whole chunk
+         buffer = new byte[(int) Math.min(maxRegionSz, end - nextRegion)];
+
+      long regionEnd = end;
+      if (regionEnd - nextRegion > maxRegionSz)
+         regionEnd = lastLineStart(nextRegion, nextRegion + maxRegionSz);
+
+      regionSz = (int) (regionEnd - nextRegion);
+      nextLine = 0;
+      MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, nextRegion, regionSz);
+
+      region.get(buffer, 0, regionSz);
+      nextRegion = regionEnd;
+      Metrics.add(Metrics.Counter.BYTES_READ, regionSz);
+      return true;
+   }
+
+   private void readLines(Chunk chunk) {
+      int lineOff = nextLine;
+      for (int i = nextLine; i < regionSz && chunk.size() < maxLines; i++) {
+         if (isLF(buffer[i])) {
+            chunk.addMarkerUnsafely(lineOff, i - lineOff);
+            lineOff = i + 1;
+         }
+      }
+
+      if (lineOff < regionSz && chunk.size() < maxLines) { // the last line of the file without EOL
+         chunk.addMarkerUnsafely(lineOff, regionSz - lineOff);
+         lineOff = regionSz;
+      }
+      nextLine = lineOff;
+   }
+
+   /**
+    * @return the position of the first line which starts at {@code pos} or after it
+    */
+   private long nextLineStart(long pos) throws IOException {
+      if (pos == 0 || pos >= fLen)
+         return pos;
+
+      for (long winOff = pos - 1; winOff < fLen; winOff += SCAN_WINDOW_SIZE) {
+         int winSz = (int) Math.min(SCAN_WINDOW_SIZE, fLen - winOff);
+         MappedByteBuffer win = channel.map(FileChannel.MapMode.READ_ONLY, winOff, winSz);
+         for (int i = 0; i < winSz; i++)
+            if (isLF(win.get(i)))
+               return winOff + i + 1;
+      }
+
+      return fLen;
+   }
+
+   /**
+    * @return the position of the last line which starts after {@code from} and not after {@code to}
+    */
+   private long lastLineStart(long from, long to) throws IOException {
+      for (long winEnd = to; winEnd > from; winEnd -= SCAN_WINDOW_SIZE) {
+         int winSz = (int) Math.min(SCAN_WINDOW_SIZE, winEnd - from);
+         long winOff = winEnd - winSz;
+         MappedByteBuffer win = channel.map(FileChannel.MapMode.READ_ONLY, winOff, winSz);
+         for (int i = winSz - 1; i >= 0; i--)
+            if (isLF(win.get(i)))
+               return winOff + i + 1;
+      }
+
+      throw new IOException("Region size too small to store even one line of text");
+   }
+
+   private boolean isLF(int c) {
+      return c == '\n';
+   }
+
+   @Override
+   public void close() throws IOException {
+      closeSilently(channel);
+   }
+
+}
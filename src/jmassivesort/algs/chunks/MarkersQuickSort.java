@@ -0,0 +1,123 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.chunks.OrderFunctions.MarkerComparator;
+
+/**
+ * Sorts markers of a {@link Chunk} in place.
+ * <p/>
+ * Three-way quicksort which groups equal lines together, falls back to
+ * insertion sort on small ranges and to heapsort when the recursion goes
+ * too deep. Needs no extra memory besides the chunk's markers.
+ *
+ * @author Serj Sintsov
+ */
+final class MarkersQuickSort {
+
+   private static final int INSERTION_SORT_THRESHOLD = 16;
+
+   private MarkersQuickSort() {
+   }
+
+   public static void sort(Chunk ch, MarkerComparator cmp) {
+      sort(ch, cmp, 0, ch.size());
+   }
+
+   /**
+    * Sorts markers in range {@code [from, to)}.
+    */
+   public static void sort(Chunk ch, MarkerComparator cmp, int from, int to) {
+      sort(ch, cmp, from, to-1, 2 * (32 - Integer.numberOfLeadingZeros(to - from)));
+   }
+
+   private static void sort(Chunk ch, MarkerComparator cmp, int lo, int hi, int depth) {
+      while (hi - lo > INSERTION_SORT_THRESHOLD) {
+         if (depth-- == 0) {
+            heapSort(ch, cmp, lo, hi);
+            return;
+         }
+
+         movePivotToLo(ch, cmp, lo, lo + (hi - lo) / 2, hi);
+
+         // the marker at lt is always equal to the pivot
+         int lt = lo;
+         int gt = hi;
+         int i = lo + 1;
+         while (i <= gt) {
+            int c = cmp.compare(i, lt);
+            if (c < 0)
+               ch.swapMarkers(lt++, i++);
+            else if (c > 0)
+               ch.swapMarkers(i, gt--);
+            else
+               i++;
+         }
+
+         // recurse into the smaller part to keep the stack shallow
+         if (lt - lo < hi - gt) {
+            sort(ch, cmp, lo, lt-1, depth);
+            lo = gt + 1;
+         }
+         else {
+            sort(ch, cmp, gt+1, hi, depth);
+            hi = lt - 1;
+         }
+      }
+
+      insertionSort(ch, cmp, lo, hi);
+   }
+
+   private static void movePivotToLo(Chunk ch, MarkerComparator cmp, int lo, int mid, int hi) {
+      if (cmp.compare(mid, lo) < 0) ch.swapMarkers(mid, lo);
+      if (cmp.compare(hi, lo) < 0) ch.swapMarkers(hi, lo);
+      if (cmp.compare(hi, mid) < 0) ch.swapMarkers(hi, mid);
+      ch.swapMarkers(lo, mid);
+   }
+
+   private static void insertionSort(Chunk ch, MarkerComparator cmp, int lo, int hi) {
+      for (int i = lo + 1; i <= hi; i++)
+         for (int j = i; j > lo && cmp.compare(j, j-1) < 0; j--)
+            ch.swapMarkers(j, j-1);
+   }
+
+   private static void heapSort(Chunk ch, MarkerComparator cmp, int lo, int hi) {
+      int n = hi - lo + 1;
+      for (int k = n/2 - 1; k >= 0; k--)
+         siftDown(ch, cmp, lo, k, n);
+
+      while (n > 1) {
+         ch.swapMarkers(lo, lo + --n);
+         siftDown(ch, cmp, lo, 0, n);
+      }
+   }
+
+   private static void siftDown(Chunk ch, MarkerComparator cmp, int lo, int k, int n) {
+      for (;;) {
+         int child = 2*k + 1;
+         if (child >= n)
+            return;
+         if (child + 1 < n && cmp.compare(lo + child + 1, lo + child) > 0)
+            child++;
+         if (cmp.compare(lo + k, lo + child) >= 0)
+            return;
+
+         ch.swapMarkers(lo + k, lo + child);
+         k = child;
+      }
+   }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.chunks.OrderFunctions.CountingComparator;
+import jmassivesort.algs.chunks.OrderFunctions.MarkerComparator;
+import jmassivesort.util.Metrics;
+
+import java.util.Arrays;
+
+/**
+ * Sorts markers of a {@link Chunk} in place by the bytes of their lines.
+ * <p/>
+ * MSD radix sort (American flag sort). Markers are distributed into 257
+ * buckets by the byte at the current depth, where the first bucket holds
+ * the lines which are shorter than the depth. Then every bucket is sorted
+ * by the next byte, so a common prefix of lines is read only once per
+ * level instead of once per comparison. Small buckets are finished by
+ * insertion sort which starts comparing lines from the current depth.
+ * First bytes of lines are taken from the chunk's line prefixes, so the
+ * first levels don't touch the line data at all.
+ * <p/>
+ * A chunk with {@link KeySpec} keys is distributed by the bytes of the first
+ * key, lines with equal first keys are then sorted by the rest of the keys.
+ * <p/>
+ * A numeric chunk is distributed by the bytes of its prefixes, which are the
+ * values of the lines, so it is sorted as a {@code long} array and the line
+ * data is read only to order lines with equal values.
+ * <p/>
+ * The order is the same as the one of {@link Chunk#compareMarkers(long, long)}.
+ *
+ * @author Serj Sintsov
+ */
+final class MarkersRadixSort {
+
+   private static final int RADIX = 256 + 1; // +1 for the end of line
+   private static final int INSERTION_SORT_THRESHOLD = 32;
+
+   private final Chunk ch;
+   private final byte[] data;
+   private final CountingComparator ties;
+
+   private final int[] count = new int[RADIX];
+   private final int[] next = new int[RADIX];
+   private final int[] end = new int[RADIX];
+
+   // pending buckets to sort: lo, hi (exclusive), depth
+   private int[] tasks = new int[3 * 64];
+   private int nTasks = 0;
+
+   private long comparisons = 0;
+
+   private MarkersRadixSort(final Chunk ch) {
+      this.ch = ch;
+      this.data = ch.rawData();
+      this.ties = OrderFunctions.counting(new MarkerComparator() {
+         @Override
+         public int compare(int i, int j) {
+            return ch.compareTiesAt(i, j);
+         }
+      });
+   }
+
+   public static void sort(Chunk ch) {
+      if (ch.size() > 1) {
+         MarkersRadixSort sorter = new MarkersRadixSort(ch);
+         sorter.sort();
+         Metrics.add(Metrics.Counter.COMPARISONS, sorter.comparisons + sorter.ties.count());
+      }
+   }
+
+   private void sort() {
+      push(0, ch.size(), 0);
+
+      while (nTasks > 0) {
+         nTasks--;
+         int lo = tasks[3*nTasks];
+         int hi = tasks[3*nTasks + 1];
+         int depth = tasks[3*nTasks + 2];
+
+         if (hi - lo <= INSERTION_SORT_THRESHOLD)
+            insertionSort(lo, hi, depth);
+         else
+            distribute(lo, hi, depth);
+      }
+   }
+
+   private void distribute(int lo, int hi, int depth) {
+      Arrays.fill(count, 0);
+      for (int i = lo; i < hi; i++)
+         count[key(i, depth)]++;
+
+      int off = lo;
+      for (int b = 0; b < RADIX; b++) {
+         next[b] = off;
+         off += count[b];
+         end[b] = off;
+      }
+
+      // every swap puts one marker into its final bucket
+      for (int b = 0; b < RADIX; b++) {
+         while (next[b] < end[b]) {
+            int k = key(next[b], depth);
+            if (k == b)
+               next[b]++;
+            else
+               ch.swapMarkers(next[b], next[k]++);
+         }
+      }
+
+      // lines of the first bucket are ended hence equal, unless they have more to compare
+      if (count[0] > 1 && (ch.hasKeys() || ch.isNumeric()))
+         MarkersQuickSort.sort(ch, ties, lo, lo + count[0]);
+
+      for (int b = 1; b < RADIX; b++)
+         if (count[b] > 1)
+            push(end[b] - count[b], end[b], depth + 1);
+   }
+
+   private void insertionSort(int lo, int hi, int depth) {
+      for (int i = lo + 1; i < hi; i++)
+         for (int j = i; j > lo && compareFrom(j, j-1, depth) < 0; j--)
+            ch.swapMarkers(j, j-1);
+   }
+
+   private int compareFrom(int i, int j, int depth) {
+      comparisons++;
+      if (depth < Chunk.PREFIX_LENGTH)
+         return ch.compareAt(i, j);
+      if (ch.isNumeric())
+         return ch.compareTiesAt(i, j);
+
+      long m1 = ch.keyAt(i);
+      long m2 = ch.keyAt(j);
+      int len1 = Math.max(0, Chunk.lengthOf(m1) - depth);
+      int len2 = Math.max(0, Chunk.lengthOf(m2) - depth);
+
+      int c = UnsignedBytes.compare(data, Chunk.offsetOf(m1) + depth, len1, data, Chunk.offsetOf(m2) + depth, len2);
+      if (c != 0 || !ch.hasKeys())
+         return c;
+      return ch.compareTiesAt(i, j);
+   }
+
+   private int key(int i, int depth) {
+      if (ch.isNumeric())
+         return depth < Chunk.PREFIX_LENGTH ? Chunk.prefixByte(ch.prefixAt(i), depth) + 1 : 0;
+
+      long marker = ch.keyAt(i);
+      if (depth >= Chunk.lengthOf(marker))
+         return 0;
+      else if (depth < Chunk.PREFIX_LENGTH)
+         return Chunk.prefixByte(ch.prefixAt(i), depth) + 1;
+      else
+         return bucket(data[Chunk.offsetOf(marker) + depth]);
+   }
+
+   /** keeps the unsigned byte order of {@link Chunk#compareMarkers(long, long)}, 0 is for the end of the line */
+   private static int bucket(byte b) {
+      return (b & 0xFF) + 1;
+   }
+
+   private void push(int lo, int hi, int depth) {
+      if (3*nTasks == tasks.length)
+         tasks = Arrays.copyOf(tasks, tasks.length * 2);
+
+      tasks[3*nTasks] = lo;
+      tasks[3*nTasks + 1] = hi;
+      tasks[3*nTasks + 2] = depth;
+      nTasks++;
+   }
+
+}
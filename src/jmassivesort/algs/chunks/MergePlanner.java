@@ -0,0 +1,153 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.util.*;
+
+/**
+ * Plans merging of sorted runs with a bounded number of runs merged at once.
+ * <p/>
+ * If there are more runs than the fan-in, groups of runs are merged into
+ * intermediate runs first. Each run is read once per merge it takes part in,
+ * so the planner always merges the smallest runs available. The first merge
+ * takes just enough runs to let every next merge take exactly {@code fanIn}
+ * runs, which gives the least total amount of data read and written for
+ * the given fan-in.
+ *
+ * @author Serj Sintsov
+ */
+public class MergePlanner {
+
+   /**
+    * Merge of several runs into one file.
+    */
+   public static class MergeStep {
+      private final List<Path> inputs;
+      private final Path output;
+      private final boolean intermediate;
+
+      MergeStep(List<Path> inputs, Path output, boolean intermediate) {
+         this.inputs = inputs;
+         this.output = output;
+         this.intermediate = intermediate;
+      }
+
+      public List<Path> getInputs() {
+         return inputs;
+      }
+
+      public Path getOutput() {
+         return output;
+      }
+
+      /**
+       * @return {@code true} if the output is an intermediate run and not the final file
+       */
+      public boolean isIntermediate() {
+         return intermediate;
+      }
+   }
+
+   private static class Run {
+      final Path path;
+      final long len;
+
+      Run(Path path, long len) {
+         this.path = path;
+         this.len = len;
+      }
+   }
+
+   private static final Comparator<Run> BY_LENGTH = new Comparator<Run>() {
+      @Override
+      public int compare(Run r1, Run r2) {
+         return r1.len < r2.len ? -1 : (r1.len == r2.len ? 0 : 1);
+      }
+   };
+
+   private final int fanIn;
+
+   public MergePlanner(int fanIn) {
+      if (fanIn < 2)
+         throw new IllegalArgumentException("Fan-in must be at least 2");
+      this.fanIn = fanIn;
+   }
+
+   /**
+    * Every merge pass reads and writes all the data, so the number of passes is
+    * the least one the maximum fan-in allows. Then the fan-in is reduced as much as
+    * the number of passes stays the same, which leaves more memory for every run.
+    *
+    * @return the fan-in to merge {@code numRuns} runs with
+    */
+   public static int fanIn(int numRuns, int maxFanIn) {
+      if (maxFanIn < 2)
+         throw new IllegalArgumentException("Fan-in must be at least 2");
+      if (numRuns <= maxFanIn)
+         return Math.max(2, numRuns);
+
+      int passes = 1;
+      for (long n = maxFanIn; n < numRuns; n *= maxFanIn)
+         passes++;
+
+      int fanIn = Math.max(2, (int) Math.ceil(Math.pow(numRuns, 1.0 / passes)));
+      while (fanIn < maxFanIn && Math.pow(fanIn, passes) < numRuns)
+         fanIn++;
+      return fanIn;
+   }
+
+   /**
+    * @param runs sorted runs to merge
+    * @param tmpDirPath directory for intermediate runs
+    * @param runSuffix suffix of the intermediate run files
+    * @param outPath the final output file
+    * @return merge steps in order of their execution, the last step writes the output
+    */
+   public List<MergeStep> plan(List<FileStatus> runs, Path tmpDirPath, String runSuffix, Path outPath) {
+      PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(1, runs.size()), BY_LENGTH);
+      for (FileStatus run : runs)
+         queue.add(new Run(run.getPath(), run.getLen()));
+
+      List<MergeStep> steps = new ArrayList<>();
+
+      int groupSz = queue.size() > fanIn ? (queue.size() - 2) % (fanIn - 1) + 2 : queue.size();
+      while (queue.size() > fanIn) {
+         List<Path> inputs = new ArrayList<>(groupSz);
+         long len = 0;
+         for (int i = 0; i < groupSz; i++) {
+            Run r = queue.poll();
+            inputs.add(r.path);
+            len += r.len;
+         }
+
+         Path out = new Path(tmpDirPath, "merge-" + steps.size() + runSuffix);
+         steps.add(new MergeStep(inputs, out, true));
+         queue.add(new Run(out, len));
+         groupSz = fanIn;
+      }
+
+      List<Path> inputs = new ArrayList<>(queue.size());
+      while (!queue.isEmpty())
+         inputs.add(queue.poll().path);
+      steps.add(new MergeStep(inputs, outPath, false));
+
+      return steps;
+   }
+
+}
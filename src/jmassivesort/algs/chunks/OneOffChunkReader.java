@@ -15,9 +15,10 @@
  */
 package jmassivesort.algs.chunks;
 
+import jmassivesort.util.Metrics;
+
 import static jmassivesort.util.IOUtils.closeSilently;
 import java.io.*;
-import jmassivesort.algs.chunks.Chunk.ChunkMarker;
 import org.apache.hadoop.fs.*;
 
 /**
@@ -27,26 +28,44 @@ import org.apache.hadoop.fs.*;
  * file's part into the memory and then separates it into lines
  * (finds lines offsets and etc.).
  * <p/>
+ * The number of lines of a returned chunk may be limited by {@link #setMaxLines(int)},
+ * then a chunk of many short lines is returned in several parts which share
+ * the buffer, so their markers don't take more memory than the limit.
+ * <p/>
  * Also note that this reader supports only Linux like LF markers and
  * doesn't support unicode encoding.
  *
  * @author Serj Sintsov
  */
-public class OneOffChunkReader implements Closeable {
+public class OneOffChunkReader implements ChunkReader {
 
    private static final int CHUNK_OVERHEAD_SIZE = 1 * 1024 * 1024; // 1Mb
    private static final int MAX_CHUNK_SIZE      = Integer.MAX_VALUE - CHUNK_OVERHEAD_SIZE;
 
    private final long chunkSz;
    private final int  chunkOverSz;
+   private final KeySpec keySpec;
+
+   private int maxLines = Integer.MAX_VALUE;
 
    private byte[] buffer;
    private int nextByte;
+   private boolean done = false;
    boolean countEolEof = false;
 
    private InputStream in;
 
    public OneOffChunkReader(int chunkId, int numChunks, FileSystem fs, Path inPath) throws IOException {
+      this(chunkId, numChunks, fs, inPath, KeySpec.WHOLE_LINE);
+   }
+
+   /**
+    * @param keySpec keys to extract from every line of the chunk
+    */
+   public OneOffChunkReader(int chunkId, int numChunks, FileSystem fs, Path inPath, KeySpec keySpec)
+         throws IOException {
+      this.keySpec = keySpec;
+
       if (!fs.exists(inPath) || !fs.isFile(inPath))
          throw new FileNotFoundException("No such file '" + inPath.toString() + "'");
 
@@ -68,6 +87,24 @@ public class OneOffChunkReader implements Closeable {
          in = null;
    }
 
+   /**
+    * @return the number of bytes the reader allocates to hold one chunk
+    *         of the file with the given length
+    */
+   public static long chunkBufferSize(long fLen, int numChunks) {
+      return (long) Math.ceil((double) fLen / numChunks) + CHUNK_OVERHEAD_SIZE + 1;
+   }
+
+   /**
+    * Limits the number of lines of every returned part of the chunk,
+    * the markers of a part are allocated at once for up to {@code maxLines} lines.
+    */
+   public void setMaxLines(int maxLines) {
+      if (maxLines < 1)
+         throw new IllegalArgumentException("Max number of lines must be positive integer");
+      this.maxLines = maxLines;
+   }
+
    private void fill() throws IOException {
       buffer = new byte[chunkOverSz + 1]; // +1 to determine EOF or end of buffer
 
@@ -77,6 +114,7 @@ public class OneOffChunkReader implements Closeable {
          int n = in.read(buffer, off, len);
          if (n < 0) {
             buffer[off] = -1;
+            Metrics.add(Metrics.Counter.BYTES_READ, off);
             break;
          }
          else if (n < len) {
@@ -85,6 +123,7 @@ public class OneOffChunkReader implements Closeable {
          }
          else {
             buffer[chunkOverSz] = -2; // end of buffer
+            Metrics.add(Metrics.Counter.BYTES_READ, chunkOverSz);
             break;
          }
       }
@@ -94,18 +133,28 @@ public class OneOffChunkReader implements Closeable {
 
 
 
-   public Chunk readChunk() throws IOException {
-      if (in == null) // just return empty chunk
-         return new Chunk();
+   /**
+    * @return the next part of the chunk or {@code null} if the whole chunk is read
+    */
+   @Override
+   public Chunk nextChunk() throws IOException {
+      if (in == null || done) // too many chunks
+         return null;
 
-      fill();
+      if (buffer == null)
+         fill();
 
-      Chunk chunk = new Chunk();
+      Chunk chunk = maxLines == Integer.MAX_VALUE ? new Chunk(keySpec)
+                                                  : new Chunk(keySpec, false, Math.min(maxLines, chunkOverSz + 1));
       chunk.setRawData(buffer);
-      for (;;)
-         if (readLine(chunk) == null) break;
+      while (chunk.size() < maxLines) {
+         if (!readLine(chunk)) {
+            done = true;
+            break;
+         }
+      }
 
-      return chunk;
+      return chunk.isEmpty() && done ? null : chunk;
    }
 
    @SuppressWarnings("ResultOfMethodCallIgnored")
@@ -166,9 +215,12 @@ public class OneOffChunkReader implements Closeable {
       }
    }
 
-   private ChunkMarker readLine(Chunk chunk) throws IOException {
+   /**
+    * @return {@code true} if a line marker was added to the chunk
+    */
+   private boolean readLine(Chunk chunk) throws IOException {
       if (nextByte >= chunkSz)
-         return null;
+         return false;
 
       int b;
       int lineTailLen = 0;
@@ -182,23 +234,23 @@ public class OneOffChunkReader implements Closeable {
             nextByte--;
 
             if (lineLen == 0)
-               return null;
+               return false;
             else
-               return chunk.addMarker(nextByte - lineLen, lineLen);
+               return addLine(chunk, nextByte - lineLen, lineLen);
          }
          else if (isLF(b)) { // EOL
             int lnEnd = nextByte-1;
             lineLen += lineTailLen;
 
             if (nextByte > chunkSz)
-               return chunk.addMarker(lnEnd - lineLen, lineLen);
+               return addLine(chunk, lnEnd - lineLen, lineLen);
 
             if (!countEolEof && buffer[nextByte] == -1) { // don't forget the last EOL+EOF
                nextByte--;
                countEolEof = true;
             }
 
-            return chunk.addMarker(lnEnd - lineLen, lineLen);
+            return addLine(chunk, lnEnd - lineLen, lineLen);
          }
          else
             lineTailLen++;
@@ -210,9 +262,9 @@ public class OneOffChunkReader implements Closeable {
 
             lineLen += lineTailLen;
             if (lineLen == 0)
-               return null;
+               return false;
             else
-               return chunk.addMarker(nextByte - lineLen, lineLen);
+               return addLine(chunk, nextByte - lineLen, lineLen);
          }
          else if (nextByte == chunkOverSz) { // allow chunks of more than the official size
             b = buffer[nextByte];
@@ -221,13 +273,18 @@ public class OneOffChunkReader implements Closeable {
 
             lineLen += lineTailLen;
             if (lineLen == 0)
-               return null;
+               return false;
             else
-               return chunk.addMarker(nextByte - lineLen, lineLen);
+               return addLine(chunk, nextByte - lineLen, lineLen);
          }
       }
    }
 
+   private boolean addLine(Chunk chunk, int offset, int length) {
+      chunk.addMarker(offset, length);
+      return true;
+   }
+
    private boolean isLF(int c) {
       return c == '\n';
    }
@@ -15,8 +15,9 @@
  */
 package jmassivesort.algs.chunks;
 
-import java.util.Comparator;
-import jmassivesort.algs.chunks.Chunk.ChunkMarker;
+import java.nio.charset.StandardCharsets;
+import java.text.Collator;
+import java.util.Locale;
 
 /**
  *
@@ -25,7 +26,14 @@ import jmassivesort.algs.chunks.Chunk.ChunkMarker;
  */
 public class OrderFunctions {
 
-   private static final class AscComparator implements Comparator<ChunkMarker> {
+   /**
+    * Compares two markers of the same chunk by their indexes.
+    */
+   public interface MarkerComparator {
+      int compare(int i, int j);
+   }
+
+   private static final class AscComparator implements MarkerComparator {
       private final Chunk ch;
 
       public AscComparator(Chunk ch) {
@@ -33,13 +41,87 @@ public class OrderFunctions {
       }
 
       @Override
-      public int compare(ChunkMarker m1, ChunkMarker m2) {
-         return ch.compareMarkers(m1, m2);
+      public int compare(int i, int j) {
+         return ch.compareAt(i, j);
       }
    }
 
-   public static Comparator<ChunkMarker> asc(Chunk ch) {
+   public static MarkerComparator asc(Chunk ch) {
       return new AscComparator(ch);
    }
 
+   /**
+    * Counts the comparisons of another comparator, used by one thread at a time.
+    */
+   public static final class CountingComparator implements MarkerComparator {
+      private final MarkerComparator cmp;
+      private long count = 0;
+
+      private CountingComparator(MarkerComparator cmp) {
+         this.cmp = cmp;
+      }
+
+      @Override
+      public int compare(int i, int j) {
+         count++;
+         return cmp.compare(i, j);
+      }
+
+      public long count() {
+         return count;
+      }
+   }
+
+   public static CountingComparator counting(MarkerComparator cmp) {
+      return new CountingComparator(cmp);
+   }
+
+   /**
+    * Turns a line or a key into a binary sort key, sort keys compare by
+    * {@link UnsignedBytes} in the order of the function.
+    */
+   public interface SortKeyFunction {
+      byte[] sortKey(byte[] data, int offset, int length);
+   }
+
+   private static final class FoldCaseFunction implements SortKeyFunction {
+      @Override
+      public byte[] sortKey(byte[] data, int offset, int length) {
+         byte[] key = new byte[length];
+         for (int k = 0; k < length; k++) {
+            byte b = data[offset + k];
+            key[k] = b >= 'a' && b <= 'z' ? (byte) (b - 'a' + 'A') : b;
+         }
+         return key;
+      }
+   }
+
+   private static final class CollatorFunction implements SortKeyFunction {
+      private final Collator collator;
+
+      public CollatorFunction(Collator collator) {
+         this.collator = collator;
+      }
+
+      @Override
+      public byte[] sortKey(byte[] data, int offset, int length) {
+         return collator.getCollationKey(new String(data, offset, length, StandardCharsets.UTF_8)).toByteArray();
+      }
+   }
+
+   /**
+    * Lower case ASCII letters compare as upper case ones, like {@code LC_ALL=C sort -f}.
+    */
+   public static SortKeyFunction foldCase() {
+      return new FoldCaseFunction();
+   }
+
+   /**
+    * UTF-8 text compares by the {@link Collator} of the locale. Collators are not
+    * meant to be shared between threads, so every call makes a new one.
+    */
+   public static SortKeyFunction collator(Locale locale) {
+      return new CollatorFunction(Collator.getInstance(locale));
+   }
+
 }
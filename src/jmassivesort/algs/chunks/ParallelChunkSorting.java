@@ -0,0 +1,159 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.AbstractAlgorithm;
+import jmassivesort.algs.SortingAlgorithmException;
+import jmassivesort.util.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Sorts all chunks {@link Chunk} of the input file within one JVM.
+ * <p/>
+ * Every chunk is sorted by {@link ChunkSorting} on a bounded pool of worker
+ * threads. All workers share one file system instance. A worker doesn't start
+ * reading its chunk until there is enough room in the memory budget, so the
+ * heap used by all chunks being sorted at the same time stays below the budget.
+ * Chunks planned by {@link ChunkPlanning} may differ in size, so the budget
+ * is taken for the largest one.
+ *
+ * @author Serj Sintsov
+ */
+public class ParallelChunkSorting extends AbstractAlgorithm {
+
+   /**
+    * chunk buffer, a copy of a part of it and the markers and prefixes of the part,
+    * {@link ChunkSorting} limits the lines of a part so its markers fit into the buffer size
+    */
+   private static final int MEMORY_PER_CHUNK_BYTE = 3;
+   private static final int PERMIT_SIZE = 1024; // 1Kb
+
+   private final Metrics metrics = Metrics.create(getClass());
+
+   private ParallelChunkSortingOptions opts;
+
+   public ParallelChunkSorting(ParallelChunkSortingOptions options) {
+      if  (options == null)
+         throw new IllegalArgumentException("options cannot be null");
+      this.opts = options;
+   }
+
+   @Override
+   public void apply() throws SortingAlgorithmException {
+      Metrics.Phase phase = metrics.startPhase("apply");
+
+      final int permitsPerChunk = permitsPerChunk(plannedChunks());
+      final Semaphore memory = new Semaphore(permits(opts.getMemoryBudget()), true);
+
+      ExecutorService workers = Executors.newFixedThreadPool(opts.getThreads());
+      List<Future<?>> results = new ArrayList<>(opts.getNumChunks());
+
+      try {
+         for (int i = 1; i <= opts.getNumChunks(); i++) {
+            final ChunkSortingOptions chunkOpts = opts.chunkOptions(i);
+            results.add(workers.submit(new Callable<Void>() {
+               @Override
+               public Void call() throws InterruptedException {
+                  memory.acquire(permitsPerChunk);
+                  try {
+                     new ChunkSorting(chunkOpts).apply();
+                     return null;
+                  }
+                  finally {
+                     memory.release(permitsPerChunk);
+                  }
+               }
+            }));
+         }
+
+         awaitAll(results);
+      }
+      finally {
+         workers.shutdownNow();
+      }
+
+      phase.stop();
+   }
+
+   /**
+    * @param splits planned chunks or {@code null} if the input is divided into equal chunks
+    */
+   private int permitsPerChunk(List<ChunkPlanner.ChunkSplit> splits) {
+      long chunkBufferSz;
+      if (splits != null) {
+         long maxLen = 0;
+         for (ChunkPlanner.ChunkSplit split : splits)
+            maxLen = Math.max(maxLen, split.getLength());
+         chunkBufferSz = OneOffChunkReader.chunkBufferSize(maxLen, 1);
+      }
+      else {
+         try {
+            long fLen = opts.getFs().getFileStatus(opts.getInPath()).getLen();
+            chunkBufferSz = OneOffChunkReader.chunkBufferSize(fLen, opts.getNumChunks());
+         }
+         catch (IOException e) {
+            throw new SortingAlgorithmException("Cannot read file '" + opts.getInPath() + "'", e);
+         }
+      }
+
+      long chunkMemory = chunkBufferSz * MEMORY_PER_CHUNK_BYTE;
+      if (chunkMemory > opts.getMemoryBudget())
+         throw new SortingAlgorithmException("Memory budget " + opts.getMemoryBudget() + " byte is too small "
+               + "to sort even one chunk of " + chunkMemory + " byte. Increase number of chunks");
+
+      return permits(chunkMemory);
+   }
+
+   /**
+    * Records the input identity before the chunks are sorted, so the workers
+    * don't compute the input checksum all at once.
+    *
+    * @return chunks planned by {@link ChunkPlanning} or {@code null} if the input is not planned
+    */
+   private List<ChunkPlanner.ChunkSplit> plannedChunks() {
+      try {
+         JobManifest manifest = new JobManifest(opts.getFs(), opts.getChunksDirPath());
+         return manifest.plannedChunks(manifest.inputIdentity(opts.getInPath()), opts.getNumChunks());
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot record input '" + opts.getInPath() + "'", e);
+      }
+   }
+
+   private static int permits(long bytes) {
+      return (int) Math.min(Integer.MAX_VALUE, (bytes + PERMIT_SIZE - 1) / PERMIT_SIZE);
+   }
+
+   private void awaitAll(List<Future<?>> results) {
+      for (int i = 0; i < results.size(); i++) {
+         try {
+            results.get(i).get();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SortingAlgorithmException("Interrupted while sorting chunk " + (i+1), e);
+         }
+         catch (ExecutionException e) {
+            throw new SortingAlgorithmException("Cannot sort chunk " + (i+1), e.getCause());
+         }
+      }
+   }
+
+}
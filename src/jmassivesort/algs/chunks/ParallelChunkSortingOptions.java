@@ -0,0 +1,221 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+import jmassivesort.CliOptionsBuilderException;
+import jmassivesort.algs.SortingAlgorithm;
+import jmassivesort.algs.SortingAlgorithmBuilder;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options to use {@link ParallelChunkSorting} algorithm.
+ * @author Serj Sintsov
+ */
+public class ParallelChunkSortingOptions {
+
+   private static final int DEFAULT_MEMORY_PERCENT = 75;
+
+   public static Builder builder() {
+      return new Builder();
+   }
+
+   public static ParallelChunkSortingBuilder algorithmBuilder() {
+      return new ParallelChunkSortingBuilder();
+   }
+
+   public static class Builder {
+      private final Map<String, String> optionDescriptions = new HashMap<String, String>() {{
+         put("<numChunks>", "Integer value > 0. Number of chunks the input file is divided into");
+         put("<threads>", "Integer value > 0. Number of chunks sorted at the same time");
+         put("[memoryMb]", "Integer value > 0. Heap budget for all chunks being sorted, "
+               + DEFAULT_MEMORY_PERCENT + "% of max heap by default");
+         put(ChunkSortingOptions.ENGINE_FLAG + " <name>", ChunkSortingOptions.ENGINE_DESCRIPTION);
+         put(RunCompression.CODEC_FLAG + " <name>", RunCompression.CODEC_DESCRIPTION);
+         put(KeySpec.KEY_FLAG + " <key>", KeySpec.KEY_DESCRIPTION);
+         put(KeySpec.SEPARATOR_FLAG + " <char>", KeySpec.SEPARATOR_DESCRIPTION);
+         put(KeySpec.NUMERIC_FLAG, KeySpec.NUMERIC_DESCRIPTION);
+         put(KeySpec.FOLD_CASE_FLAG, KeySpec.FOLD_CASE_DESCRIPTION);
+         put(KeySpec.COLLATE_FLAG + " <locale>", KeySpec.COLLATE_DESCRIPTION);
+         put(DuplicateMode.UNIQUE_FLAG, DuplicateMode.UNIQUE_DESCRIPTION);
+         put(DuplicateMode.COUNT_FLAG, DuplicateMode.COUNT_DESCRIPTION);
+      }};
+
+      protected int numChunks;
+      protected int threads;
+      protected long memoryBudget;
+      protected Path inPath;
+      protected Path chunksDirPath;
+      protected SortEngine engine;
+      protected CompressionCodec codec;
+      protected KeySpec keySpec;
+      protected DuplicateMode duplicates;
+
+      public ParallelChunkSortingOptions build(String[] options) throws CliOptionsBuilderException {
+         if (options == null)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         CliFlags flags;
+         try {
+            flags = CliFlags.parse(options, ChunkSortingOptions.VALUE_FLAGS, ChunkSortingOptions.SWITCHES);
+            engine = ChunkSortingOptions.parseEngine(flags);
+            codec = RunCompression.parseCodec(flags);
+            keySpec = KeySpec.parse(flags);
+            duplicates = DuplicateMode.parse(flags);
+         }
+         catch (IllegalArgumentException e) {
+            throw new CliOptionsBuilderException(usage(e.getMessage()), optionDescriptions);
+         }
+
+         options = flags.args();
+         if (options.length < 2 || options.length > 3)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         try {
+            numChunks = Integer.parseInt(options[0]);
+            if (numChunks < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+
+            threads = Integer.parseInt(options[1]);
+            if (threads < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+
+            if (options.length == 3) {
+               int memoryMb = Integer.parseInt(options[2]);
+               if (memoryMb < 1)
+                  throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+               memoryBudget = memoryMb * 1024L * 1024L;
+            }
+            else
+               memoryBudget = Runtime.getRuntime().maxMemory() / 100 * DEFAULT_MEMORY_PERCENT;
+         }
+         catch (NumberFormatException ex) {
+            throw new CliOptionsBuilderException(usage("Incorrect option value"), optionDescriptions);
+         }
+
+         try {
+            inPath = new Path(URI.create("hdfs:///in/input"));
+            chunksDirPath = new Path(URI.create("hdfs:///tmp/"));
+         }
+         catch (Exception e) {
+            throw new CliOptionsBuilderException(usage("Incorrect input file path"), optionDescriptions);
+         }
+
+         return new ParallelChunkSortingOptions(numChunks, threads, memoryBudget, inPath, chunksDirPath, engine,
+               codec, keySpec, duplicates, ChunkSortingOptions.defaultFs());
+      }
+
+      private String usage(String error) {
+         return error + ". Specify options in order <numChunks> <threads> [memoryMb] ["
+               + ChunkSortingOptions.ENGINE_FLAG + " <name>] [" + RunCompression.CODEC_FLAG + " <name>] ["
+               + KeySpec.KEY_FLAG + " <key>]... [" + KeySpec.SEPARATOR_FLAG + " <char>] [" + KeySpec.NUMERIC_FLAG
+               + " | " + KeySpec.FOLD_CASE_FLAG + " | " + KeySpec.COLLATE_FLAG + " <locale>] ["
+               + DuplicateMode.UNIQUE_FLAG + " | " + DuplicateMode.COUNT_FLAG + "]";
+      }
+   }
+
+   public static class ParallelChunkSortingBuilder implements SortingAlgorithmBuilder {
+      @Override
+      public SortingAlgorithm build(String[] options) throws CliOptionsBuilderException {
+         return new ParallelChunkSorting(ParallelChunkSortingOptions.builder().build(options));
+      }
+   }
+
+   private int numChunks;
+   private int threads;
+   private long memoryBudget;
+   private Path inPath;
+   private Path chunksDirPath;
+   private SortEngine engine;
+   private CompressionCodec codec;
+   private KeySpec keySpec;
+   private DuplicateMode duplicates;
+   private FileSystem fs;
+
+   protected ParallelChunkSortingOptions(int numChunks, int threads, long memoryBudget, Path inPath,
+                                         Path chunksDirPath, SortEngine engine, CompressionCodec codec,
+                                         KeySpec keySpec, DuplicateMode duplicates, FileSystem fs) {
+      this.numChunks = numChunks;
+      this.threads = threads;
+      this.memoryBudget = memoryBudget;
+      this.inPath = inPath;
+      this.chunksDirPath = chunksDirPath;
+      this.engine = engine;
+      this.codec = codec;
+      this.keySpec = keySpec;
+      this.duplicates = duplicates;
+      this.fs = fs;
+   }
+
+   /**
+    * @param chunkId chunk number starting from 1
+    * @return options to sort one chunk which share the file system instance
+    *         with all the other chunks
+    */
+   public ChunkSortingOptions chunkOptions(int chunkId) {
+      Path outPath = ChunkSortingOptions.chunkOutPath(chunksDirPath, chunkId, codec);
+      return new ChunkSortingOptions(chunkId, numChunks, inPath, outPath, engine, codec, keySpec, duplicates, fs);
+   }
+
+   public int getNumChunks() {
+      return numChunks;
+   }
+
+   public int getThreads() {
+      return threads;
+   }
+
+   /**
+    * @return heap budget in bytes for all chunks being sorted at the same time
+    */
+   public long getMemoryBudget() {
+      return memoryBudget;
+   }
+
+   public Path getInPath() {
+      return inPath;
+   }
+
+   public Path getChunksDirPath() {
+      return chunksDirPath;
+   }
+
+   public SortEngine getEngine() {
+      return engine;
+   }
+
+   public CompressionCodec getCodec() {
+      return codec;
+   }
+
+   public KeySpec getKeySpec() {
+      return keySpec;
+   }
+
+   public DuplicateMode getDuplicates() {
+      return duplicates;
+   }
+
+   public FileSystem getFs() {
+      return fs;
+   }
+}
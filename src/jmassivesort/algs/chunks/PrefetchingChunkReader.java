@@ -0,0 +1,139 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Reads chunks of another reader ahead in the background.
+ * <p/>
+ * While the current chunk is being merged, up to {@code depth} next chunks
+ * are read by the given executor, so the merge doesn't stall on every
+ * round trip to the file system. Only one chunk of the underlying reader
+ * is read at a time and executor threads never wait for free space, so
+ * many readers can share a small pool of threads.
+ * <p/>
+ * The underlying reader must return a new chunk on every call.
+ *
+ * @author Serj Sintsov
+ */
+public class PrefetchingChunkReader implements ChunkReader {
+
+   private final ChunkReader in;
+   private final Executor executor;
+   private final int depth;
+
+   private final Deque<Chunk> ready = new ArrayDeque<>();
+   private boolean fetching = false;
+   private boolean eof = false;
+   private boolean closed = false;
+   private IOException error = null;
+
+   public PrefetchingChunkReader(ChunkReader in, Executor executor, int depth) {
+      if (depth < 1)
+         throw new IllegalArgumentException("Read-ahead depth must be positive integer");
+
+      this.in = in;
+      this.executor = executor;
+      this.depth = depth;
+
+      synchronized (this) {
+         fetchIfRoom();
+      }
+   }
+
+   @Override
+   public synchronized Chunk nextChunk() throws IOException {
+      fetchIfRoom();
+
+      try {
+         while (ready.isEmpty() && !eof && error == null)
+            wait();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for the next chunk");
+      }
+
+      if (error != null)
+         throw error;
+
+      Chunk ch = ready.poll();
+      fetchIfRoom();
+      return ch;
+   }
+
+   private void fetchIfRoom() {
+      if (fetching || eof || closed || error != null || ready.size() >= depth)
+         return;
+
+      fetching = true;
+      executor.execute(new Runnable() {
+         @Override
+         public void run() {
+            fetch();
+         }
+      });
+   }
+
+   private void fetch() {
+      Chunk ch = null;
+      IOException err = null;
+
+      try {
+         ch = in.nextChunk();
+      }
+      catch (IOException e) {
+         err = e;
+      }
+      catch (RuntimeException | Error e) { // e.g. OutOfMemoryError, the merge waiting for the chunk must fail too
+         err = new IOException("Cannot read the next chunk", e);
+      }
+
+      synchronized (this) {
+         fetching = false;
+
+         if (err != null)
+            error = err;
+         else if (ch == null)
+            eof = true;
+         else
+            ready.add(ch);
+
+         if (closed || eof)
+            closeSilently(in);
+         else
+            fetchIfRoom();
+
+         notifyAll();
+      }
+   }
+
+   @Override
+   public synchronized void close() throws IOException {
+      closed = true;
+      ready.clear();
+      if (!fetching)
+         closeSilently(in);
+   }
+
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Divides sorted runs into key ranges which can be merged independently.
+ * <p/>
+ * Splitter lines are chosen from a sample of lines taken at evenly spaced
+ * positions of all the runs. Then every run is binary searched for the first
+ * line which is not less than every splitter, so the range {@code i} of the
+ * merge consists of the same byte range {@code [bounds[i], bounds[i+1])} of
+ * every run and the merged ranges follow each other in the output.
+ * <p/>
+ * Runs must be uncompressed to be searched, a compressed one is rejected.
+ *
+ * @author Serj Sintsov
+ */
+final class RangeSplitter {
+
+   private static final int SAMPLES_PER_RANGE = 16;
+   private static final int PROBE_BUFFER_SIZE = 4 * 1024; // 4Kb
+
+   private RangeSplitter() {
+   }
+
+   /**
+    * @return at most {@code numRanges - 1} sorted splitter lines
+    */
+   static List<byte[]> sampleSplitters(FileSystem fs, List<Path> runs, int numRanges, KeySpec keySpec,
+                                       DuplicateMode duplicates) throws IOException {
+      return sampleSplitters(fs, runs, numRanges, SAMPLES_PER_RANGE, keySpec, duplicates);
+   }
+
+   /**
+    * @return at most {@code numRanges - 1} sorted splitter lines chosen from
+    *         {@code samplesPerRange * numRanges} lines of the files, equal
+    *         splitters mean that the line is too frequent for one range
+    * @param duplicates duplicate mode of the runs, the counts of counted runs are not sampled
+    */
+   static List<byte[]> sampleSplitters(FileSystem fs, List<Path> runs, int numRanges, int samplesPerRange,
+                                       final KeySpec keySpec, DuplicateMode duplicates) throws IOException {
+      long[] lengths = new long[runs.size()];
+      long total = 0;
+      for (int i = 0; i < runs.size(); i++) {
+         lengths[i] = fs.getFileStatus(runs.get(i)).getLen();
+         total += lengths[i];
+      }
+
+      int numSamples = samplesPerRange * numRanges;
+      List<byte[]> samples = new ArrayList<>(numSamples + runs.size());
+
+      for (int i = 0; i < runs.size(); i++) {
+         if (lengths[i] == 0)
+            continue;
+
+         int runSamples = (int) Math.max(1, (double) numSamples * lengths[i] / total);
+         RunProbe probe = new RunProbe(fs, runs.get(i), lengths[i]);
+         try {
+            for (int k = 0; k < runSamples; k++) {
+               long pos = probe.nextLineStart(lengths[i] * k / runSamples);
+               if (pos < lengths[i])
+                  samples.add(duplicates.isCounted() ? stripCount(probe.lineAt(pos)) : probe.lineAt(pos));
+            }
+         }
+         finally {
+            closeSilently(probe);
+         }
+      }
+
+      Collections.sort(samples, new Comparator<byte[]>() {
+         @Override
+         public int compare(byte[] l1, byte[] l2) {
+            return keySpec.compareLines(l1, l2);
+         }
+      });
+
+      List<byte[]> splitters = new ArrayList<>(numRanges - 1);
+      for (int r = 1; r < numRanges && !samples.isEmpty(); r++)
+         splitters.add(samples.get(samples.size() * r / numRanges));
+      return splitters;
+   }
+
+   /**
+    * Unless duplicates are kept, all the lines with the key of a splitter go to the range
+    * after it, so every group of duplicates is merged within one range.
+    *
+    * @return for every run the byte positions where the ranges start, followed by the run length
+    */
+   static long[][] bounds(FileSystem fs, List<Path> runs, List<byte[]> splitters, KeySpec keySpec,
+                          DuplicateMode duplicates) throws IOException {
+      long[][] bounds = new long[runs.size()][];
+
+      for (int i = 0; i < runs.size(); i++) {
+         long len = fs.getFileStatus(runs.get(i)).getLen();
+         RunProbe probe = new RunProbe(fs, runs.get(i), len);
+         try {
+            bounds[i] = new long[splitters.size() + 2];
+            for (int s = 0; s < splitters.size(); s++)
+               bounds[i][s + 1] = probe.lowerBound(splitters.get(s), bounds[i][s], keySpec, duplicates);
+            bounds[i][splitters.size() + 1] = len;
+         }
+         finally {
+            closeSilently(probe);
+         }
+      }
+
+      return bounds;
+   }
+
+   /**
+    * @return {@code n + 1} positions which divide the file into {@code n} parts of
+    *         about equal size, every part starts with a line
+    */
+   static long[] splitByLines(FileSystem fs, Path file, int n) throws IOException {
+      long len = fs.getFileStatus(file).getLen();
+      long[] splits = new long[n + 1];
+      for (int i = 1; i <= n; i++)
+         splits[i] = len * i / n;
+      return snapToLines(fs, file, splits);
+   }
+
+   /**
+    * Moves every position but the first and the last one to the first line
+    * which starts at it or after it, so the positions divide the file into
+    * parts of whole lines.
+    *
+    * @param positions ascending positions of the file, changed in place
+    * @return the positions
+    */
+   static long[] snapToLines(FileSystem fs, Path file, long[] positions) throws IOException {
+      long len = fs.getFileStatus(file).getLen();
+
+      RunProbe probe = new RunProbe(fs, file, len);
+      try {
+         for (int i = 1; i < positions.length - 1; i++)
+            positions[i] = Math.max(positions[i - 1], probe.nextLineStart(positions[i]));
+      }
+      finally {
+         closeSilently(probe);
+      }
+
+      return positions;
+   }
+
+   /**
+    * @return the line of a counted run without its count
+    */
+   private static byte[] stripCount(byte[] line) {
+      int i = 0;
+      while (i < line.length && line[i] != '\t')
+         i++;
+      return i < line.length ? Arrays.copyOfRange(line, i + 1, line.length) : line;
+   }
+
+   /**
+    * Random access to the lines of one run.
+    */
+   private static class RunProbe implements Closeable {
+      private final FSDataInputStream in;
+      private final long len;
+      private final byte[] buffer = new byte[PROBE_BUFFER_SIZE];
+
+      /**
+       * @throws IllegalArgumentException if the run is compressed
+       */
+      RunProbe(FileSystem fs, Path run, long len) throws IOException {
+         if (RunCompression.codecOf(fs, run) != null)
+            throw new IllegalArgumentException("Compressed file '" + run + "' cannot be searched by positions");
+         this.in = fs.open(run);
+         this.len = len;
+      }
+
+      /**
+       * @return the position of the first line which starts at {@code pos} or after it
+       */
+      long nextLineStart(long pos) throws IOException {
+         if (pos == 0 || pos >= len)
+            return pos;
+
+         in.seek(pos - 1);
+         for (long off = pos - 1; off < len; ) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, len - off));
+            if (n < 0)
+               break;
+            for (int i = 0; i < n; i++)
+               if (buffer[i] == '\n')
+                  return off + i + 1;
+            off += n;
+         }
+
+         return len;
+      }
+
+      /**
+       * @return the line which starts at {@code pos} without EOL
+       */
+      byte[] lineAt(long pos) throws IOException {
+         in.seek(pos);
+         byte[] line = new byte[0];
+
+         for (long off = pos; off < len; ) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, len - off));
+            if (n < 0)
+               break;
+            for (int i = 0; i < n; i++)
+               if (buffer[i] == '\n')
+                  return append(line, buffer, i);
+            line = append(line, buffer, n);
+            off += n;
+         }
+
+         return line;
+      }
+
+      /**
+       * @param from a line start known to be not greater than the result
+       * @return the position of the first line which is not less than the key, or the run length
+       */
+      long lowerBound(byte[] key, long from, KeySpec keySpec, DuplicateMode duplicates) throws IOException {
+         long lo = from; // a line start, all lines before it are less than the key
+         long hi = len;  // a line start or the end, the line at it is not less than the key
+
+         while (lo < hi) {
+            long mid = lo + (hi - lo) / 2;
+            long p = mid == lo ? lo : nextLineStart(mid);
+            if (p >= hi) // no line starts in [mid, hi)
+               p = lo;
+
+            byte[] line = lineAt(p);
+            if (compare(duplicates.isCounted() ? stripCount(line) : line, key, keySpec, duplicates) < 0)
+               lo = Math.min(len, p + line.length + 1);
+            else
+               hi = p;
+         }
+
+         return lo;
+      }
+
+      private static int compare(byte[] line, byte[] key, KeySpec keySpec, DuplicateMode duplicates) {
+         return duplicates == DuplicateMode.KEEP ? keySpec.compareLines(line, key) : keySpec.compareKeysOf(line, key);
+      }
+
+      private static byte[] append(byte[] line, byte[] buf, int n) {
+         byte[] res = Arrays.copyOf(line, line.length + n);
+         System.arraycopy(buf, 0, res, line.length, n);
+         return res;
+      }
+
+      @Override
+      public void close() throws IOException {
+         in.close();
+      }
+   }
+
+}
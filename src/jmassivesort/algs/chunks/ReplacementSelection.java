@@ -0,0 +1,345 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.util.Metrics;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Generates sorted runs by replacement selection.
+ * <p/>
+ * Lines of the input are kept in a heap ordered by run number and then by
+ * line. The smallest line of the current run is written out and replaced by
+ * the next input line. If the new line is smaller than the one just written,
+ * it can't join the current run and is marked for the next run. On random
+ * input the runs are about twice as large as the memory, and an input which
+ * is sorted except for local disorder becomes a single run.
+ * <p/>
+ * The heap keeps the prefixes of the lines' keys, which resolve most of the
+ * comparisons. Lines with equal prefixes are compared by {@link KeySpec#compareLines(byte[], long, byte[], long)}.
+ * <p/>
+ * As in a {@link Chunk}, the bytes of the lines are packed one after another into
+ * a shared buffer and the heap keeps their markers, so a line costs its bytes and
+ * a few numbers instead of an array of its own. A written line leaves a gap in the
+ * buffer, new lines are appended after the last one. Once the buffer is full, it's
+ * compacted if at least a quarter of it is gaps, otherwise more lines are written
+ * out first. The buffer grows up to the memory budget.
+ * <p/>
+ * Unless duplicates are kept, every written line is held back until a line with
+ * another key or of another run comes out of the heap, the lines with the same
+ * key in between are only counted.
+ *
+ * @author Serj Sintsov
+ */
+public class ReplacementSelection {
+
+   /** the heap entry: marker, prefix and run number, and the line's place in the order of a compaction */
+   private static final int LINE_OVERHEAD = 8 + 8 + 4 + 8;
+   private static final int INITIAL_CAPACITY = 1024;
+   private static final int INITIAL_DATA_CAPACITY = 64 * 1024; // 64Kb
+   private static final int MAX_DATA_CAPACITY = Integer.MAX_VALUE - 8; // max array size
+
+   private final long memoryBudget;
+   private final int maxDataSz;
+   private final FileSystem fs;
+   private final Path runsDirPath;
+   private final CompressionCodec codec;
+   private final KeySpec keySpec;
+   private final DuplicateMode duplicates;
+
+   // the heap of lines ordered by run and line, the markers point to the data
+   private long[] markers = new long[INITIAL_CAPACITY];
+   private long[] prefixes = new long[INITIAL_CAPACITY];
+   private int[] runs = new int[INITIAL_CAPACITY];
+   private int size = 0;
+
+   private byte[] data;
+   private int dataEnd = 0; // the lines are appended here
+   private long liveBytes = 0; // bytes of the lines in the heap, the rest of [0, dataEnd) are gaps
+
+   private int currentRun = 0;
+   private byte[] lastLine = new byte[0];
+   private long lastMarker = -1; // marker of the last line in lastLine, -1 if there is no line yet
+   private long lastPrefix;
+   private long lastCount; // lines the last line stands for, 0 if it's written
+   private BufferedChunkWriter wr = null;
+
+   /**
+    * @param memoryBudget heap budget in bytes for the lines being selected
+    * @param codec codec to compress the runs with or {@code null}
+    */
+   public ReplacementSelection(long memoryBudget, FileSystem fs, Path runsDirPath, CompressionCodec codec) {
+      this(memoryBudget, fs, runsDirPath, codec, KeySpec.WHOLE_LINE, DuplicateMode.KEEP);
+   }
+
+   /**
+    * @param keySpec keys to order the lines by, the input chunks must have the same keys
+    * @param duplicates what to do with lines which have equal keys
+    */
+   public ReplacementSelection(long memoryBudget, FileSystem fs, Path runsDirPath, CompressionCodec codec,
+                               KeySpec keySpec, DuplicateMode duplicates) {
+      if (memoryBudget < 1)
+         throw new IllegalArgumentException("Memory budget must be positive integer");
+
+      this.memoryBudget = memoryBudget;
+      this.maxDataSz = (int) Math.min(MAX_DATA_CAPACITY, memoryBudget);
+      this.data = new byte[Math.min(INITIAL_DATA_CAPACITY, maxDataSz)];
+      this.fs = fs;
+      this.runsDirPath = runsDirPath;
+      this.codec = codec;
+      this.keySpec = keySpec;
+      this.duplicates = duplicates;
+   }
+
+   /**
+    * Writes all lines of the input into sorted runs {@code 1.chunk, 2.chunk, ...}.
+    *
+    * @return number of runs
+    */
+   public int generate(ChunkReader in) throws IOException {
+      try {
+         for (Chunk ch = in.nextChunk(); ch != null; ch = in.nextChunk()) {
+            for (int i = 0; i < ch.size(); i++) {
+               int length = Chunk.lengthOf(ch.markerAt(i));
+               while (size > 0 && (liveBytes + cost(size + 1, length) > memoryBudget || !reserve(length)))
+                  writeMin();
+               add(ch.rawData(), ch.markerAt(i), ch.prefixAt(i));
+            }
+         }
+
+         while (size > 0)
+            writeMin();
+
+         if (wr != null) {
+            if (lastCount > 0)
+               writeLast();
+            wr.close();
+         }
+      }
+      finally {
+         closeSilently(wr);
+         wr = null;
+      }
+
+      return currentRun;
+   }
+
+   /**
+    * @return memory taken by {@code numLines} lines besides their bytes plus the bytes of one more line
+    */
+   private static long cost(int numLines, int length) {
+      return (long) numLines * LINE_OVERHEAD + length;
+   }
+
+   /**
+    * Makes room for {@code length} bytes after the last line, growing the data or compacting it.
+    *
+    * @return {@code false} if there is no room unless more lines are written out
+    */
+   private boolean reserve(int length) {
+      if ((long) dataEnd + length <= data.length)
+         return true;
+
+      long gaps = dataEnd - liveBytes;
+      if (gaps >= data.length / 4 && liveBytes + length <= data.length) {
+         compact();
+         return true;
+      }
+
+      if (data.length < maxDataSz && liveBytes + length <= maxDataSz) {
+         compact();
+         data = Arrays.copyOf(data, (int) Math.max(liveBytes + length, Math.min(maxDataSz, 2L * data.length)));
+         return true;
+      }
+
+      return false;
+   }
+
+   /**
+    * Moves the lines of the heap to the start of the data in the order they lie, closing the gaps.
+    */
+   private void compact() {
+      long[] order = new long[size];
+      for (int i = 0; i < size; i++)
+         order[i] = (long) Chunk.offsetOf(markers[i]) << 32 | i;
+      Arrays.sort(order);
+
+      int end = 0;
+      for (long o : order) {
+         int i = (int) o;
+         int length = Chunk.lengthOf(markers[i]);
+         System.arraycopy(data, Chunk.offsetOf(markers[i]), data, end, length);
+         markers[i] = Chunk.pack(end, length);
+         end += length;
+      }
+      dataEnd = end;
+   }
+
+   /**
+    * Puts the line into the current run if it's not smaller than the last written one.
+    */
+   private void add(byte[] chunkData, long marker, long prefix) {
+      int length = Chunk.lengthOf(marker);
+      if ((long) dataEnd + length > data.length) // a line larger than the budget
+         data = Arrays.copyOf(data, dataEnd + length);
+      System.arraycopy(chunkData, Chunk.offsetOf(marker), data, dataEnd, length);
+      long line = Chunk.pack(dataEnd, length);
+      dataEnd += length;
+      liveBytes += length;
+
+      int run = currentRun;
+      if (lastMarker == -1)
+         run = Math.max(1, currentRun);
+      else if (compare(data, line, prefix, lastLine, lastMarker, lastPrefix) < 0)
+         run = currentRun + 1;
+
+      if (size == markers.length) {
+         markers = Arrays.copyOf(markers, size * 2);
+         prefixes = Arrays.copyOf(prefixes, size * 2);
+         runs = Arrays.copyOf(runs, size * 2);
+      }
+
+      set(size, line, prefix, run);
+      siftUp(size++);
+   }
+
+   private void writeMin() throws IOException {
+      long line = markers[0];
+      long prefix = prefixes[0];
+      int run = runs[0];
+
+      size--;
+      if (size > 0) {
+         set(0, markers[size], prefixes[size], runs[size]);
+         siftDown(0);
+      }
+      liveBytes -= Chunk.lengthOf(line);
+
+      if (run == currentRun && lastCount > 0
+          && prefix == lastPrefix && keySpec.compareKeysOf(data, line, lastLine, lastMarker) == 0) {
+         lastCount++;
+      }
+      else {
+         if (run != currentRun)
+            nextRun(run);
+         else if (lastCount > 0)
+            writeLast();
+
+         keepLast(line, prefix);
+         if (duplicates == DuplicateMode.KEEP)
+            writeLast();
+      }
+
+      if (size == 0)
+         dataEnd = 0;
+   }
+
+   /**
+    * Copies the line out of the data, where it's a gap from now on.
+    */
+   private void keepLast(long line, long prefix) {
+      int length = Chunk.lengthOf(line);
+      if (lastLine.length < length)
+         lastLine = new byte[Math.max(length, 2 * lastLine.length)];
+      System.arraycopy(data, Chunk.offsetOf(line), lastLine, 0, length);
+
+      lastMarker = Chunk.pack(0, length);
+      lastPrefix = prefix;
+      lastCount = 1;
+   }
+
+   private void writeLast() throws IOException {
+      if (duplicates == DuplicateMode.COUNT)
+         wr.write(lastLine, lastMarker, lastCount);
+      else
+         wr.write(lastLine, lastMarker);
+      lastCount = 0;
+   }
+
+   private void nextRun(int run) throws IOException {
+      if (wr != null) {
+         if (lastCount > 0)
+            writeLast();
+         wr.close();
+      }
+
+      currentRun = run;
+      Path runPath = ChunkSortingOptions.chunkOutPath(runsDirPath, run, codec);
+      wr = new BufferedChunkWriter(fs, runPath, BufferedChunkWriter.RING_BUFFER_SZ,
+                                   BufferedChunkWriter.RING_SIZE, codec);
+      Metrics.add(Metrics.Counter.RUNS, 1);
+   }
+
+   private void siftUp(int i) {
+      long line = markers[i];
+      long prefix = prefixes[i];
+      int run = runs[i];
+
+      while (i > 0) {
+         int parent = (i - 1) >>> 1;
+         if (compare(run, line, prefix, parent) >= 0)
+            break;
+         set(i, markers[parent], prefixes[parent], runs[parent]);
+         i = parent;
+      }
+
+      set(i, line, prefix, run);
+   }
+
+   private void siftDown(int i) {
+      long line = markers[i];
+      long prefix = prefixes[i];
+      int run = runs[i];
+
+      for (int child = 2*i + 1; child < size; child = 2*i + 1) {
+         if (child + 1 < size && compare(runs[child + 1], markers[child + 1], prefixes[child + 1], child) < 0)
+            child++;
+         if (compare(run, line, prefix, child) <= 0)
+            break;
+         set(i, markers[child], prefixes[child], runs[child]);
+         i = child;
+      }
+
+      set(i, line, prefix, run);
+   }
+
+   private void set(int i, long line, long prefix, int run) {
+      markers[i] = line;
+      prefixes[i] = prefix;
+      runs[i] = run;
+   }
+
+   private int compare(int run, long line, long prefix, int j) {
+      if (run != runs[j])
+         return run < runs[j] ? -1 : 1;
+      return compare(data, line, prefix, data, markers[j], prefixes[j]);
+   }
+
+   private int compare(byte[] data1, long l1, long p1, byte[] data2, long l2, long p2) {
+      int c = Chunk.comparePrefixes(p1, p2);
+      if (c != 0)
+         return c;
+      return keySpec.compareLines(data1, l1, data2, l2);
+   }
+
+}
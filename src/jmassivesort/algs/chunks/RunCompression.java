@@ -0,0 +1,167 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.*;
+import org.apache.hadoop.io.compress.zlib.ZlibCompressor;
+import org.apache.hadoop.io.compress.zlib.ZlibFactory;
+
+import java.io.*;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Compression of sorted runs by Hadoop codecs.
+ * <p/>
+ * The codec of a run is recorded as the extension of its file name, e.g.
+ * {@code 1.chunk.deflate}, so readers find it by the file name and runs
+ * compressed differently may be merged together. Codecs are configured
+ * for speed rather than for ratio.
+ *
+ * @author Serj Sintsov
+ */
+final class RunCompression {
+
+   static final String CODEC_FLAG = "-codec";
+   static final String CODEC_DESCRIPTION = "Codec to compress sorted runs with, e.g. deflate, gzip, lz4, snappy, "
+         + "lz4 and snappy need native hadoop libraries. Runs are not compressed by default";
+
+   private RunCompression() {
+   }
+
+   /**
+    * @return the codec given by the command line flag or {@code null} if there is no flag
+    * @throws IllegalArgumentException if there is no such codec or it cannot be used
+    */
+   static CompressionCodec parseCodec(CliFlags flags) {
+      String name = flags.value(CODEC_FLAG, null);
+      return name == null ? null : codecByName(name, new Configuration());
+   }
+
+   /**
+    * @param name alias or class name of the codec, e.g. {@code deflate}
+    * @throws IllegalArgumentException if there is no such codec or it cannot be used
+    */
+   static CompressionCodec codecByName(String name, Configuration conf) {
+      conf = new Configuration(conf);
+      ZlibFactory.setCompressionLevel(conf, ZlibCompressor.CompressionLevel.BEST_SPEED);
+
+      CompressionCodec codec = new CompressionCodecFactory(conf).getCodecByName(name);
+      if (codec == null)
+         throw new IllegalArgumentException("Unknown codec '" + name + "'");
+
+      try { // fail fast if the codec needs native libraries which are not loaded
+         CodecPool.returnCompressor(CodecPool.getCompressor(codec));
+      }
+      catch (RuntimeException | LinkageError e) {
+         throw new IllegalArgumentException("Codec '" + name + "' cannot be used: " + e.getMessage(), e);
+      }
+
+      return codec;
+   }
+
+   /**
+    * @return the codec which matches the file extension or {@code null} if the file is not compressed
+    */
+   static CompressionCodec codecOf(FileSystem fs, Path path) {
+      return new CompressionCodecFactory(fs.getConf()).getCodec(path);
+   }
+
+   static Path withExtension(Path run, CompressionCodec codec) {
+      return codec == null ? run : run.suffix(codec.getDefaultExtension());
+   }
+
+   /**
+    * Creates the file and compresses all written data by the codec if it's not {@code null}.
+    */
+   static OutputStream create(FileSystem fs, Path path, CompressionCodec codec) throws IOException {
+      OutputStream out = fs.create(path);
+      if (codec == null)
+         return out;
+
+      final Compressor compressor = CodecPool.getCompressor(codec);
+      try {
+         return new FilterOutputStream(codec.createOutputStream(out, compressor)) {
+            private boolean closed = false;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+               out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+               if (closed)
+                  return;
+               closed = true;
+
+               try {
+                  out.close();
+               }
+               finally {
+                  CodecPool.returnCompressor(compressor);
+               }
+            }
+         };
+      }
+      catch (IOException | RuntimeException e) {
+         closeSilently(out);
+         CodecPool.returnCompressor(compressor);
+         throw e;
+      }
+   }
+
+   /**
+    * Opens the file and decompresses it by the codec which matches its extension, if any.
+    */
+   static InputStream open(FileSystem fs, Path path) throws IOException {
+      InputStream in = fs.open(path);
+      CompressionCodec codec = codecOf(fs, path);
+      if (codec == null)
+         return in;
+
+      final Decompressor decompressor = CodecPool.getDecompressor(codec);
+      try {
+         return new FilterInputStream(codec.createInputStream(in, decompressor)) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+               if (closed)
+                  return;
+               closed = true;
+
+               try {
+                  in.close();
+               }
+               finally {
+                  CodecPool.returnDecompressor(decompressor);
+               }
+            }
+         };
+      }
+      catch (IOException | RuntimeException e) {
+         closeSilently(in);
+         CodecPool.returnDecompressor(decompressor);
+         throw e;
+      }
+   }
+
+}
@@ -0,0 +1,328 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.AbstractAlgorithm;
+import jmassivesort.algs.SortingAlgorithmException;
+import jmassivesort.util.Metrics;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Sorts a file by partitioning its lines into key ranges, TeraSort style.
+ * <p/>
+ * First {@code buckets - 1} splitter lines are chosen from a sample of the
+ * input. Then workers sort parts of the input and scatter the sorted lines
+ * into buckets by the splitters: every part is saved as one file where the
+ * buckets follow each other. At last every bucket is produced by merging its
+ * byte ranges of all the part files, independently of the other buckets, so
+ * the sorted buckets laid one after another are the output and there is no
+ * global merge.
+ * <p/>
+ * A line which is so frequent that several splitters are equal to it is spread
+ * evenly over all the buckets between those splitters, since the buckets hold
+ * nothing but that line.
+ *
+ * @author Serj Sintsov
+ */
+public class SampleSort extends AbstractAlgorithm {
+
+   private static final int SAMPLES_PER_BUCKET = 32;
+   private static final int MIN_BUF_PER_PART = 1024 * 1024; // 1Mb
+   private static final int MAX_BUF_PER_PART = 16 * 1024 * 1024; // 16Mb
+
+   private final Metrics metrics = Metrics.create(getClass());
+
+   private SampleSortOptions opts;
+   private Chunk splitters; // sorted, with their keys extracted like the ones of the input lines
+   private JobDirectory tmpDir;
+
+   /**
+    * Sorted part of the input scattered into buckets.
+    */
+   private static class ScatteredPart {
+      final Path path;
+      final long[] bounds; // bucket b is [bounds[b], bounds[b+1])
+
+      ScatteredPart(Path path, long[] bounds) {
+         this.path = path;
+         this.bounds = bounds;
+      }
+   }
+
+   public SampleSort(SampleSortOptions options) {
+      if  (options == null)
+         throw new IllegalArgumentException("options cannot be null");
+      this.opts = options;
+   }
+
+   @Override
+   public void apply() throws SortingAlgorithmException {
+      Metrics.Phase phase = metrics.startPhase("apply");
+
+      FileSystem fs = opts.getFs();
+      if (RunCompression.codecOf(fs, opts.getInPath()) != null)
+         throw new SortingAlgorithmException("Compressed input '" + opts.getInPath() + "' cannot be sampled");
+
+      ExecutorService workers = Executors.newFixedThreadPool(opts.getThreads());
+      try {
+         tmpDir = JobDirectory.create(fs, opts.getTmpDirPath());
+         if (opts.isKeepSegments())
+            fs.delete(opts.getOutPath(), true);
+
+         chooseSplitters();
+         List<ScatteredPart> parts = scatter(workers);
+         Path segmentsDirPath = opts.isKeepSegments() ? opts.getOutPath()
+                                                      : new Path(tmpDir.path(), ChunkMerging.SEGMENTS_DIR_NAME);
+         mergeBuckets(workers, parts, segmentsDirPath);
+
+         if (!opts.isKeepSegments())
+            ChunkMerging.joinSegments(fs, segmentsDirPath, opts.getBuckets(), opts.getOutPath(), metrics);
+         tmpDir.delete();
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot sort file '" + opts.getInPath() + "'", e);
+      }
+      finally {
+         workers.shutdownNow();
+      }
+
+      phase.stop();
+   }
+
+   private void chooseSplitters() throws IOException {
+      Metrics.Phase phase = metrics.startPhase("chooseSplitters");
+
+      List<byte[]> sample = RangeSplitter.sampleSplitters(opts.getFs(), Collections.singletonList(opts.getInPath()),
+                                                          opts.getBuckets(), SAMPLES_PER_BUCKET, opts.getKeySpec(),
+                                                          DuplicateMode.KEEP);
+      int len = 0;
+      for (byte[] line : sample)
+         len += line.length;
+
+      byte[] data = new byte[len];
+      splitters = new Chunk(opts.getKeySpec());
+      splitters.setRawData(data);
+      int off = 0;
+      for (byte[] line : sample) {
+         System.arraycopy(line, 0, data, off, line.length);
+         splitters.addMarkerUnsafely(off, line.length);
+         off += line.length;
+      }
+
+      phase.stop();
+   }
+
+   private int chunkSize() {
+      return ExternalSort.chunkSize(opts.getMemoryBudget() / opts.getThreads());
+   }
+
+   private List<ScatteredPart> scatter(ExecutorService workers) throws IOException {
+      Metrics.Phase phase = metrics.startPhase("scatter");
+
+      final int chunkSz = chunkSize();
+      long fLen = opts.getFs().getFileStatus(opts.getInPath()).getLen();
+      int numParts = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (fLen + chunkSz - 1) / chunkSz));
+      final long[] splits = RangeSplitter.splitByLines(opts.getFs(), opts.getInPath(), numParts);
+      metrics.echo("scattering " + numParts + " parts into " + opts.getBuckets() + " buckets");
+
+      List<Future<List<ScatteredPart>>> results = new ArrayList<>(numParts);
+      for (int i = 0; i < numParts; i++) {
+         final int part = i;
+         results.add(workers.submit(new Callable<List<ScatteredPart>>() {
+            @Override
+            public List<ScatteredPart> call() throws IOException {
+               return scatterPart(part, splits[part], splits[part + 1], chunkSz);
+            }
+         }));
+      }
+
+      List<ScatteredPart> parts = new ArrayList<>();
+      for (Future<List<ScatteredPart>> res : results)
+         parts.addAll(get(res));
+
+      phase.stop();
+      return parts;
+   }
+
+   /**
+    * Sorts the part of the input chunk by chunk and scatters every chunk into a file of buckets.
+    */
+   private List<ScatteredPart> scatterPart(int part, long start, long end, int chunkSz) throws IOException {
+      List<ScatteredPart> scattered = new ArrayList<>();
+      if (start == end)
+         return scattered;
+
+      Metrics.Phase phase = metrics.startPhase("scatterPart");
+
+      SequentialChunkReader rd = new SequentialChunkReader(chunkSz, opts.getFs(), opts.getInPath(), start, end,
+                                                           opts.getKeySpec());
+      rd.setMaxLines(ExternalSort.maxLines(chunkSz, opts.getKeySpec(), opts.getDuplicates()));
+      try {
+         int n = 0;
+         for (Chunk ch = rd.nextChunk(); ch != null; ch = rd.nextChunk()) {
+            opts.getEngine().sort(ch);
+            opts.getDuplicates().collapse(ch);
+            Path path = new Path(tmpDir.path(), "part-" + part + "-" + n++ + ".chunk");
+            scattered.add(new ScatteredPart(path, writeBuckets(ch, path)));
+            Metrics.add(Metrics.Counter.RUNS, 1);
+         }
+      }
+      finally {
+         closeSilently(rd);
+      }
+
+      phase.stop();
+      return scattered;
+   }
+
+   /**
+    * Unless duplicates are kept, a line with the key of a splitter goes to the bucket
+    * after it like the lines of the other parts with the same key, so every group of
+    * duplicates is merged within one bucket.
+    *
+    * @return positions of the buckets in the file
+    */
+   private long[] writeBuckets(Chunk ch, Path path) throws IOException {
+      long[] bounds = new long[opts.getBuckets() + 1];
+      BufferedChunkWriter wr = null;
+
+      try {
+         wr = new BufferedChunkWriter(opts.getFs(), path, BufferedChunkWriter.RING_BUFFER_SZ, 1, null);
+
+         boolean distinct = opts.getDuplicates() != DuplicateMode.KEEP;
+         int bucket = 0;
+         for (int i = 0; i < ch.size(); ) {
+            while (bucket < splitters.size() && (Chunk.compareAt(ch, i, splitters, bucket) > 0
+                                                 || distinct && Chunk.equalKeysAt(ch, i, splitters, bucket)))
+               bounds[++bucket] = wr.getWrittenBytes();
+
+            if (bucket < splitters.size() && Chunk.compareAt(ch, i, splitters, bucket) == 0) {
+               // the line goes after the equal splitters, the buckets between them are for it only
+               int last = bucket;
+               while (last + 1 < splitters.size() && Chunk.compareAt(ch, i, splitters, last + 1) == 0)
+                  last++;
+
+               int end = i + 1;
+               while (end < ch.size() && ch.compareAt(end, i) == 0)
+                  end++;
+
+               int count = end - i;
+               int first = bucket + 1;
+               int targets = last - bucket + 1;
+               for (int k = 0; k < count; k++) {
+                  int target = first + (int) ((long) k * targets / count);
+                  while (bucket < target)
+                     bounds[++bucket] = wr.getWrittenBytes();
+                  wr.writeAt(ch, i + k);
+               }
+
+               i = end;
+               continue;
+            }
+
+            wr.writeAt(ch, i++);
+         }
+
+         while (bucket < opts.getBuckets())
+            bounds[++bucket] = wr.getWrittenBytes();
+
+         wr.close();
+      }
+      finally {
+         closeSilently(wr);
+      }
+
+      return bounds;
+   }
+
+   private void mergeBuckets(ExecutorService workers, final List<ScatteredPart> parts, final Path segmentsDirPath)
+         throws IOException {
+      Metrics.Phase phase = metrics.startPhase("mergeBuckets");
+
+      long perPart = opts.getMemoryBudget() / opts.getThreads() / Math.max(1, parts.size());
+      final int bufferSz = (int) Math.max(MIN_BUF_PER_PART,
+                                          Math.min(MAX_BUF_PER_PART, perPart / ExternalSort.MEMORY_PER_CHUNK_BYTE));
+
+      List<Future<?>> results = new ArrayList<>(opts.getBuckets());
+      for (int b = 0; b < opts.getBuckets(); b++) {
+         final int bucket = b;
+         results.add(workers.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+               mergeBucket(bucket, parts, ChunkMerging.segmentPath(segmentsDirPath, bucket), bufferSz);
+               return null;
+            }
+         }));
+      }
+
+      ChunkMerging.awaitAll(results);
+
+      phase.stop();
+   }
+
+   private void mergeBucket(int bucket, List<ScatteredPart> parts, Path outPath, int bufferSz) throws IOException {
+      Metrics.Phase phase = metrics.startPhase("mergeBucket");
+      List<ChunkReader> inputRDs = new ArrayList<>();
+      try {
+         for (ScatteredPart part : parts) {
+            long start = part.bounds[bucket];
+            long end = part.bounds[bucket + 1];
+            if (start < end) {
+               SequentialChunkReader rd = new SequentialChunkReader(bufferSz, opts.getFs(), part.path, start, end,
+                                                                    opts.getKeySpec(),
+                                                                    opts.getDuplicates().isCounted());
+               rd.setMaxLines(ExternalSort.maxLines(bufferSz, opts.getKeySpec(), opts.getDuplicates()));
+               inputRDs.add(rd);
+            }
+         }
+      }
+      catch (IOException e) {
+         for (ChunkReader rd : inputRDs)
+            closeSilently(rd);
+         throw e;
+      }
+
+      ChunkMerging.mergeInto(opts.getFs(), inputRDs.toArray(new ChunkReader[inputRDs.size()]), outPath, null,
+                            opts.getDuplicates());
+      phase.stop();
+   }
+
+   private static <T> T get(Future<T> result) throws IOException {
+      try {
+         return result.get();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while scattering the input");
+      }
+      catch (ExecutionException e) {
+         if (e.getCause() instanceof IOException)
+            throw (IOException) e.getCause();
+         throw new SortingAlgorithmException("Cannot scatter the input", e.getCause());
+      }
+   }
+
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+import jmassivesort.CliOptionsBuilderException;
+import jmassivesort.algs.SortingAlgorithm;
+import jmassivesort.algs.SortingAlgorithmBuilder;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options to use {@link SampleSort} algorithm.
+ * @author Serj Sintsov
+ */
+public class SampleSortOptions {
+
+   private static final int DEFAULT_MEMORY_PERCENT = 50;
+
+   static final List<String> VALUE_FLAGS = Arrays.asList(ChunkSortingOptions.ENGINE_FLAG,
+                                                         ExternalSortOptions.RUNS_DIR_FLAG,
+                                                         KeySpec.KEY_FLAG, KeySpec.SEPARATOR_FLAG);
+   static final List<String> SWITCHES = Arrays.asList(ChunkMergingOptions.SEGMENTS_FLAG, KeySpec.NUMERIC_FLAG,
+                                                      DuplicateMode.UNIQUE_FLAG, DuplicateMode.COUNT_FLAG);
+
+   public static Builder builder() {
+      return new Builder();
+   }
+
+   public static SampleSortBuilder algorithmBuilder() {
+      return new SampleSortBuilder();
+   }
+
+   public static class Builder {
+      private final Map<String, String> optionDescriptions = new HashMap<String, String>() {{
+         put("<inputFile>", "Uncompressed file to sort");
+         put("<outputFile>", "File to write sorted lines to");
+         put("<buckets>", "Integer value > 0. Number of key ranges the lines are scattered into and "
+               + "sorted independently");
+         put("[threads]", "Integer value > 0. Number of workers, number of processors by default");
+         put("[memoryMb]", "Integer value > 0. Heap budget for all workers, "
+               + DEFAULT_MEMORY_PERCENT + "% of max heap by default");
+         put(ChunkSortingOptions.ENGINE_FLAG + " <name>", ChunkSortingOptions.ENGINE_DESCRIPTION);
+         put(ExternalSortOptions.RUNS_DIR_FLAG + " <dir>", "Directory for the scattered parts. The parts are "
+               + "written to a new subdirectory of it, which is deleted when the sort is done. "
+               + "<outputFile>.runs by default");
+         put(ChunkMergingOptions.SEGMENTS_FLAG, "Write the buckets as part-NNNNN files into the output directory "
+               + "instead of joining them into one output file");
+         put(KeySpec.KEY_FLAG + " <key>", KeySpec.KEY_DESCRIPTION);
+         put(KeySpec.SEPARATOR_FLAG + " <char>", KeySpec.SEPARATOR_DESCRIPTION);
+         put(KeySpec.NUMERIC_FLAG, KeySpec.NUMERIC_DESCRIPTION);
+         put(DuplicateMode.UNIQUE_FLAG, DuplicateMode.UNIQUE_DESCRIPTION);
+         put(DuplicateMode.COUNT_FLAG, DuplicateMode.COUNT_DESCRIPTION);
+      }};
+
+      protected Path inPath;
+      protected Path outPath;
+      protected Path tmpDirPath;
+      protected int buckets;
+      protected int threads;
+      protected long memoryBudget;
+      protected SortEngine engine;
+      protected boolean keepSegments;
+      protected KeySpec keySpec;
+      protected DuplicateMode duplicates;
+
+      public SampleSortOptions build(String[] options) throws CliOptionsBuilderException {
+         if (options == null)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         CliFlags flags;
+         try {
+            flags = CliFlags.parse(options, VALUE_FLAGS, SWITCHES);
+            engine = ChunkSortingOptions.parseEngine(flags);
+            keepSegments = flags.has(ChunkMergingOptions.SEGMENTS_FLAG);
+            keySpec = KeySpec.parse(flags);
+            duplicates = DuplicateMode.parse(flags);
+         }
+         catch (IllegalArgumentException e) {
+            throw new CliOptionsBuilderException(usage(e.getMessage()), optionDescriptions);
+         }
+
+         options = flags.args();
+         if (options.length < 3 || options.length > 5)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         try {
+            buckets = Integer.parseInt(options[2]);
+            if (buckets < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+
+            threads = options.length > 3 ? Integer.parseInt(options[3]) : Runtime.getRuntime().availableProcessors();
+            if (threads < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+
+            if (options.length > 4) {
+               int memoryMb = Integer.parseInt(options[4]);
+               if (memoryMb < 1)
+                  throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+               memoryBudget = memoryMb * 1024L * 1024L;
+            }
+            else
+               memoryBudget = Runtime.getRuntime().maxMemory() / 100 * DEFAULT_MEMORY_PERCENT;
+         }
+         catch (NumberFormatException ex) {
+            throw new CliOptionsBuilderException(usage("Incorrect option value"), optionDescriptions);
+         }
+
+         try {
+            inPath = new Path(URI.create(options[0]));
+            outPath = new Path(URI.create(options[1]));
+            String tmpDir = flags.value(ExternalSortOptions.RUNS_DIR_FLAG, null);
+            tmpDirPath = tmpDir != null ? new Path(URI.create(tmpDir)) : outPath.suffix(".runs");
+         }
+         catch (Exception e) {
+            throw new CliOptionsBuilderException(usage("Incorrect path"), optionDescriptions);
+         }
+
+         return new SampleSortOptions(inPath, outPath, tmpDirPath, buckets, threads, memoryBudget, engine,
+                                      keepSegments, keySpec, duplicates,
+                                      ChunkSortingOptions.defaultFs());
+      }
+
+      private String usage(String error) {
+         return error + ". Specify options in order <inputFile> <outputFile> <buckets> [threads] [memoryMb] ["
+               + ChunkSortingOptions.ENGINE_FLAG + " <name>] [" + ExternalSortOptions.RUNS_DIR_FLAG + " <dir>] ["
+               + ChunkMergingOptions.SEGMENTS_FLAG + "] [" + KeySpec.KEY_FLAG + " <key>]... ["
+               + KeySpec.SEPARATOR_FLAG + " <char>] [" + KeySpec.NUMERIC_FLAG + "] ["
+               + DuplicateMode.UNIQUE_FLAG + " | " + DuplicateMode.COUNT_FLAG + "]";
+      }
+   }
+
+   public static class SampleSortBuilder implements SortingAlgorithmBuilder {
+      @Override
+      public SortingAlgorithm build(String[] options) throws CliOptionsBuilderException {
+         return new SampleSort(SampleSortOptions.builder().build(options));
+      }
+   }
+
+   private Path inPath;
+   private Path outPath;
+   private Path tmpDirPath;
+   private int buckets;
+   private int threads;
+   private long memoryBudget;
+   private SortEngine engine;
+   private boolean keepSegments;
+   private KeySpec keySpec;
+   private DuplicateMode duplicates;
+   private FileSystem fs;
+
+   protected SampleSortOptions(Path inPath, Path outPath, Path tmpDirPath, int buckets, int threads,
+                               long memoryBudget, SortEngine engine, boolean keepSegments, KeySpec keySpec,
+                               DuplicateMode duplicates, FileSystem fs) {
+      this.inPath = inPath;
+      this.outPath = outPath;
+      this.tmpDirPath = tmpDirPath;
+      this.buckets = buckets;
+      this.threads = threads;
+      this.memoryBudget = memoryBudget;
+      this.engine = engine;
+      this.keepSegments = keepSegments;
+      this.keySpec = keySpec;
+      this.duplicates = duplicates;
+      this.fs = fs;
+   }
+
+   public Path getInPath() {
+      return inPath;
+   }
+
+   public Path getOutPath() {
+      return outPath;
+   }
+
+   /**
+    * @return directory to create the directory of the scattered parts of the input in, see {@link JobDirectory}
+    */
+   public Path getTmpDirPath() {
+      return tmpDirPath;
+   }
+
+   public int getBuckets() {
+      return buckets;
+   }
+
+   public int getThreads() {
+      return threads;
+   }
+
+   /**
+    * @return heap budget in bytes for all workers
+    */
+   public long getMemoryBudget() {
+      return memoryBudget;
+   }
+
+   public SortEngine getEngine() {
+      return engine;
+   }
+
+   /**
+    * @return {@code true} if the output is a directory of sorted part-NNNNN files
+    */
+   public boolean isKeepSegments() {
+      return keepSegments;
+   }
+
+   public KeySpec getKeySpec() {
+      return keySpec;
+   }
+
+   public DuplicateMode getDuplicates() {
+      return duplicates;
+   }
+
+   public FileSystem getFs() {
+      return fs;
+   }
+}
@@ -15,28 +15,36 @@
  */
 package jmassivesort.algs.chunks;
 
+import jmassivesort.util.Metrics;
+
 import java.io.*;
 
 import static jmassivesort.util.IOUtils.closeSilently;
-import jmassivesort.algs.chunks.Chunk.ChunkMarker;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.hadoop.fs.*;
 
 /**
  * Reads a file sequentially chunk-by-chunk {@link jmassivesort.algs.chunks.Chunk}.
- * Each chunk is filled with markers {@link ChunkMarker} which correspond to file
- * lines.
+ * Each chunk is filled with line markers which correspond to file lines.
+ * A file compressed by a codec is decompressed transparently, see {@link RunCompression}.
+ * <p/>
+ * The markers of a chunk of short lines may take a few times the memory of
+ * its bytes, so the number of lines of a chunk may be limited by {@link #setMaxLines(int)}.
  * <p/>
  * Also note that this reader supports only Linux like LF markers and
  * doesn't support unicode encoding.
  *
  * @author Serj Sintsov
  */
-public class SequentialChunkReader implements Closeable {
+public class SequentialChunkReader implements ChunkReader {
 
    private static final byte EOL_EXTRA_SIZE = 2;
    private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE - EOL_EXTRA_SIZE;
 
    private final int chunkSz;
+   private final KeySpec keySpec;
+   private final boolean counted;
+   private int maxLines = Integer.MAX_VALUE;
 
    private byte[] buffer;
    private int bufferSz;
@@ -46,25 +54,88 @@ public class SequentialChunkReader implements Closeable {
    private InputStream in;
 
    public SequentialChunkReader(int chunkSz, FileSystem fs, Path inPath) throws IOException {
+      this(chunkSz, fs, inPath, KeySpec.WHOLE_LINE);
+   }
+
+   /**
+    * @param keySpec keys to extract from every line of the chunks
+    */
+   public SequentialChunkReader(int chunkSz, FileSystem fs, Path inPath, KeySpec keySpec) throws IOException {
+      this(chunkSz, fs, inPath, keySpec, false);
+   }
+
+   /**
+    * @param counted {@code true} if the file is a counted run, see {@link DuplicateMode}
+    */
+   public SequentialChunkReader(int chunkSz, FileSystem fs, Path inPath, KeySpec keySpec, boolean counted)
+         throws IOException {
+      this(chunkSz, fs, inPath, 0, -1, keySpec, counted);
+   }
+
+   public SequentialChunkReader(int chunkSz, FileSystem fs, Path inPath, long start, long end) throws IOException {
+      this(chunkSz, fs, inPath, start, end, KeySpec.WHOLE_LINE);
+   }
+
+   public SequentialChunkReader(int chunkSz, FileSystem fs, Path inPath, long start, long end, KeySpec keySpec)
+         throws IOException {
+      this(chunkSz, fs, inPath, start, end, keySpec, false);
+   }
+
+   /**
+    * Reads only the bytes {@code [start, end)} of an uncompressed file. Both positions
+    * must be line starts or the file end, {@code end < 0} means the file end.
+    */
+   public SequentialChunkReader(int chunkSz, FileSystem fs, Path inPath, long start, long end, KeySpec keySpec,
+                                boolean counted) throws IOException {
       if (!fs.exists(inPath) || !fs.isFile(inPath))
          throw new FileNotFoundException("No such file '" + inPath + "'");
 
       this.chunkSz = chunkSz;
+      this.keySpec = keySpec;
+      this.counted = counted;
 
       if (chunkSz < 0)
          throw new IllegalArgumentException("Chunk size must be positive integer");
       if (chunkSz == MAX_CHUNK_SIZE)
          throw new IllegalArgumentException("Chunk size too large. Max value is " + MAX_CHUNK_SIZE + " byte");
 
-      in = fs.open(inPath);
+      in = start == 0 && end < 0 ? RunCompression.open(fs, inPath) : openRange(fs, inPath, start, end);
       buffer = new byte[chunkSz + EOL_EXTRA_SIZE]; // + some extra bytes to determine EOF or EOL
    }
 
+   private static InputStream openRange(FileSystem fs, Path inPath, long start, long end) throws IOException {
+      if (RunCompression.codecOf(fs, inPath) != null)
+         throw new IllegalArgumentException("Compressed file '" + inPath + "' cannot be read by ranges");
+
+      FSDataInputStream in = fs.open(inPath);
+      try {
+         in.seek(start);
+      }
+      catch (IOException e) {
+         closeSilently(in);
+         throw e;
+      }
+
+      return end < 0 ? in : new BoundedInputStream(in, end - start);
+   }
+
+   /**
+    * Ends every chunk after {@code maxLines} lines, the rest of the bytes go to the next chunk.
+    * The markers of a chunk are allocated at once for up to {@code maxLines} lines,
+    * e.g. for {@link Chunk#maxLines(long, KeySpec, boolean)} of the memory left for them.
+    */
+   public void setMaxLines(int maxLines) {
+      if (maxLines < 2)
+         throw new IllegalArgumentException("Max number of lines must be at least 2");
+      this.maxLines = maxLines;
+   }
+
    private void fill() throws IOException {
       bufferSz -= chunkEnd;
 
       System.arraycopy(buffer, chunkEnd, buffer, 0, bufferSz);
 
+      int filledSz = bufferSz;
       int len = buffer.length-bufferSz;
       for (;;) {
          int n = in.read(buffer, bufferSz, len);
@@ -86,19 +157,22 @@ public class SequentialChunkReader implements Closeable {
          }
       }
 
+      Metrics.add(Metrics.Counter.BYTES_READ, bufferSz - filledSz);
       chunkEnd = 0;
       nextByte = 0;
    }
 
+   @Override
    public Chunk nextChunk() throws IOException {
       fill();
 
       if (buffer[nextByte] == -1)
          return null;
 
-      Chunk chunk = new Chunk();
-      for (;;)
-         if (readLine(chunk) == null) break;
+      Chunk chunk = maxLines == Integer.MAX_VALUE ? new Chunk(keySpec, counted)
+                                                  : new Chunk(keySpec, counted, Math.min(maxLines, bufferSz + 1));
+      chunk.setRawData(buffer); // to calculate line prefixes while reading
+      while (readLine(chunk)) { }
 
       byte[] chData = new byte[chunkEnd];
       System.arraycopy(buffer, 0, chData, 0, chunkEnd);
@@ -106,9 +180,20 @@ public class SequentialChunkReader implements Closeable {
       return chunk;
    }
 
-   private ChunkMarker readLine(Chunk ch) throws IOException {
-      if (nextByte >= chunkSz)
-         return null;
+   /**
+    * @return {@code true} if {@link #nextChunk()} will return one more chunk
+    */
+   public boolean hasMoreChunks() throws IOException {
+      fill();
+      return buffer[nextByte] != -1;
+   }
+
+   /**
+    * @return {@code true} if there may be more lines to read into the chunk
+    */
+   private boolean readLine(Chunk ch) throws IOException {
+      if (nextByte >= chunkSz || ch.size() > maxLines - 2) // a call may add two markers
+         return false;
 
       int b;
       int lineLen = 0;
@@ -121,16 +206,14 @@ public class SequentialChunkReader implements Closeable {
             nextByte--;
             chunkEnd += nextByte - lineOff;
 
-            if (lineLen == 0)
-               return null;
-            else {
+            if (lineLen != 0)
                ch.addMarkerUnsafely(nextByte - lineLen, lineLen);
-               return null;
-            }
+            return false;
          }
          else if (isLF(b)) { // EOL
             chunkEnd += nextByte - lineOff;
-            return ch.addMarkerUnsafely(nextByte - lineLen - 1, lineLen);
+            ch.addMarkerUnsafely(nextByte - lineLen - 1, lineLen);
+            return true;
          }
          else
             lineLen++;
@@ -138,10 +221,10 @@ public class SequentialChunkReader implements Closeable {
          if (nextByte == chunkSz) {
             b = buffer[nextByte];
             if (b != -1 && !isLF(b)) {
-               if (ch.allMarkers().isEmpty())
+               if (ch.isEmpty())
                   throw new IOException("Chunk size too small to store even one line of text");
                else
-                  return null;
+                  return false;
             }
 
             chunkEnd += nextByte - lineOff + 1;
@@ -155,7 +238,7 @@ public class SequentialChunkReader implements Closeable {
             if (b == -1)
                chunkEnd--;
 
-            return null;
+            return false;
          }
       }
    }
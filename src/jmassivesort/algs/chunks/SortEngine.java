@@ -0,0 +1,83 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.util.Metrics;
+
+import static jmassivesort.algs.chunks.OrderFunctions.asc;
+import static jmassivesort.algs.chunks.OrderFunctions.counting;
+
+/**
+ * In-memory sorting algorithms of the lines of a {@link Chunk}.
+ * <p/>
+ * Every sort adds the lines and the comparisons to the {@link Metrics},
+ * comparisons are counted by the sort and added once.
+ *
+ * @author Serj Sintsov
+ */
+public enum SortEngine {
+
+   /** comparison sort, suits any lines, numeric lines are sorted by radix anyway */
+   QUICK("quick") {
+      @Override
+      void sortMarkers(Chunk ch) {
+         if (ch.isNumeric())
+            MarkersRadixSort.sort(ch);
+         else {
+            OrderFunctions.CountingComparator cmp = counting(asc(ch));
+            MarkersQuickSort.sort(ch, cmp);
+            Metrics.add(Metrics.Counter.COMPARISONS, cmp.count());
+         }
+      }
+   },
+
+   /** byte-wise radix sort, suits lines with long common prefixes */
+   RADIX("radix") {
+      @Override
+      void sortMarkers(Chunk ch) {
+         MarkersRadixSort.sort(ch);
+      }
+   };
+
+   private final String engineName;
+
+   SortEngine(String engineName) {
+      this.engineName = engineName;
+   }
+
+   public void sort(Chunk ch) {
+      sortMarkers(ch);
+      Metrics.add(Metrics.Counter.LINES, ch.size());
+   }
+
+   abstract void sortMarkers(Chunk ch);
+
+   public String engineName() {
+      return engineName;
+   }
+
+   /**
+    * @throws IllegalArgumentException if there is no engine with such name
+    */
+   public static SortEngine byName(String name) {
+      for (SortEngine engine : values())
+         if (engine.engineName.equals(name))
+            return engine;
+
+      throw new IllegalArgumentException("Unknown sort engine '" + name + "'");
+   }
+
+}
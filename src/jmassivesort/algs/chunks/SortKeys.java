@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lines prefixed with the binary sort keys of a collated {@link KeySpec}.
+ * <p/>
+ * A line is encoded as {@code <sortKey>\0<line>}, where the sort key is the
+ * sort keys of all the keys of the line, or of the whole line, one after another.
+ * Every sort key is escaped to contain neither {@code \0} nor EOL and ends with
+ * a terminator less than any escaped byte, so encoded lines compared as bytes,
+ * the sort key first and then the line, are in the order of the key spec.
+ * <p/>
+ * Sort keys are made once when the input is read and written into the runs with
+ * the lines, so the merge compares the bytes of the sort keys by
+ * {@link KeySpec#SORT_KEY} instead of collating the lines again.
+ *
+ * @author Serj Sintsov
+ */
+final class SortKeys {
+
+   static final byte KEY_SEPARATOR = 0;
+
+   /** bytes below are escaped as {@code ESCAPE, b + ESCAPE_SHIFT} */
+   private static final int MAX_ESCAPED = '\n';
+   private static final byte ESCAPE = 1;
+   private static final int ESCAPE_SHIFT = 0x10;
+   private static final byte KEY_END = 1; // after ESCAPE, less than any escaped byte
+
+   private SortKeys() {
+   }
+
+   /**
+    * Encodes every chunk read by the reader if the key spec is collated.
+    */
+   static ChunkReader encode(final ChunkReader rd, KeySpec keySpec) {
+      if (!keySpec.isCollated())
+         return rd;
+
+      return new ChunkReader() {
+         @Override
+         public Chunk nextChunk() throws IOException {
+            Chunk ch = rd.nextChunk();
+            return ch == null ? null : encode(ch);
+         }
+
+         @Override
+         public void close() throws IOException {
+            rd.close();
+         }
+      };
+   }
+
+   /**
+    * @return a new chunk of the encoded lines compared by {@link KeySpec#SORT_KEY}
+    *         or the chunk itself if its key spec is not collated
+    */
+   static Chunk encode(Chunk ch) {
+      KeySpec keySpec = ch.keySpec();
+      if (!keySpec.isCollated())
+         return ch;
+
+      OrderFunctions.SortKeyFunction fn = keySpec.sortKeyFunction();
+      byte[] src = ch.rawData();
+      int numKeys = keySpec.numKeys();
+      long[] lines = new long[ch.size()];
+      byte[] data = new byte[(int) Math.min(Integer.MAX_VALUE - 16, 2L * src.length + 4L * ch.size())];
+      int pos = 0;
+
+      for (int i = 0; i < ch.size(); i++) {
+         long line = ch.markerAt(i);
+         int start = pos;
+
+         for (int k = 0; k < Math.max(1, numKeys); k++) {
+            long key = numKeys == 0 ? line : ch.keyAt(i, k);
+            byte[] sortKey = fn.sortKey(src, Chunk.offsetOf(key), Chunk.lengthOf(key));
+            data = ensureCapacity(data, pos + 2 * sortKey.length + 2);
+            for (byte b : sortKey) {
+               if ((b & 0xFF) <= MAX_ESCAPED) {
+                  data[pos++] = ESCAPE;
+                  data[pos++] = (byte) (b + ESCAPE_SHIFT);
+               }
+               else
+                  data[pos++] = b;
+            }
+            data[pos++] = ESCAPE;
+            data[pos++] = KEY_END;
+         }
+
+         data = ensureCapacity(data, pos + 1 + Chunk.lengthOf(line));
+         data[pos++] = KEY_SEPARATOR;
+         System.arraycopy(src, Chunk.offsetOf(line), data, pos, Chunk.lengthOf(line));
+         pos += Chunk.lengthOf(line);
+         lines[i] = Chunk.pack(start, pos - start);
+      }
+
+      Chunk encoded = new Chunk(KeySpec.SORT_KEY);
+      encoded.setRawData(data);
+      for (long line : lines)
+         encoded.addMarkerUnsafely(Chunk.offsetOf(line), Chunk.lengthOf(line));
+      return encoded;
+   }
+
+   private static byte[] ensureCapacity(byte[] data, int size) {
+      if (size <= data.length)
+         return data;
+      if (size < 0)
+         throw new IllegalStateException("Encoded chunk is too large");
+      return Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 16, Math.max(size, data.length * 3L / 2)));
+   }
+
+   /**
+    * @return marker of the line of the encoded line
+    */
+   static long lineOf(byte[] data, long encoded) {
+      int offset = Chunk.offsetOf(encoded);
+      int end = offset + Chunk.lengthOf(encoded);
+      for (int i = offset; i < end; i++)
+         if (data[i] == KEY_SEPARATOR)
+            return Chunk.pack(i + 1, end - i - 1);
+      return encoded;
+   }
+
+}
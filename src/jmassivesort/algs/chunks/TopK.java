@@ -0,0 +1,203 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.AbstractAlgorithm;
+import jmassivesort.algs.SortingAlgorithmException;
+import jmassivesort.util.Metrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Writes the first K lines of the sorted input without sorting the whole input.
+ * <p/>
+ * The input is read once, chunk by chunk, through a heap of the K best lines
+ * seen so far, whose root is the worst of them. A line is compared with the root
+ * only and replaces it if it's better, so the input takes {@code O(n log K)} time
+ * and the memory holds the K lines and one chunk. Lines are ordered the same way
+ * as by the other algorithms, so the output is the head of the sorted input, or
+ * of the input sorted in reverse.
+ *
+ * @author Serj Sintsov
+ */
+public class TopK extends AbstractAlgorithm {
+
+   private static final int READ_SIZE = 16 * 1024 * 1024; // 16Mb
+   private static final int INITIAL_CAPACITY = 1024;
+
+   private final Metrics metrics = Metrics.create(getClass());
+
+   private TopKOptions opts;
+
+   // the heap of the best lines, the root is the worst one
+   private byte[][] lines;
+   private long[] prefixes;
+   private int size;
+
+   public TopK(TopKOptions options) {
+      if  (options == null)
+         throw new IllegalArgumentException("options cannot be null");
+      this.opts = options;
+   }
+
+   @Override
+   public void apply() throws SortingAlgorithmException {
+      Metrics.Phase phase = metrics.startPhase("apply");
+
+      int capacity = Math.min(opts.getK(), INITIAL_CAPACITY);
+      lines = new byte[capacity][];
+      prefixes = new long[capacity];
+      size = 0;
+
+      select();
+      write();
+
+      phase.stop();
+   }
+
+   private void select() {
+      SequentialChunkReader rd = null;
+
+      try {
+         rd = new SequentialChunkReader(READ_SIZE, opts.getFs(), opts.getInPath(), opts.getKeySpec());
+         for (Chunk ch = rd.nextChunk(); ch != null; ch = rd.nextChunk())
+            for (int i = 0; i < ch.size(); i++)
+               offer(ch, i);
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot read file '" + opts.getInPath() + "'", e);
+      }
+      finally {
+         closeSilently(rd);
+      }
+
+      metrics.echo("selected " + size + " lines");
+   }
+
+   /**
+    * Keeps the line if there are less than K lines or it's better than the worst one.
+    */
+   private void offer(Chunk ch, int i) {
+      long marker = ch.markerAt(i);
+      long prefix = ch.prefixAt(i);
+
+      if (size == opts.getK()) {
+         if (compare(ch.rawData(), marker, prefix, lines[0], prefixes[0]) >= 0)
+            return;
+         set(0, copyOf(ch.rawData(), marker), prefix);
+         siftDown(0);
+         return;
+      }
+
+      if (size == lines.length) {
+         int capacity = (int) Math.min(opts.getK(), 2L * size);
+         lines = Arrays.copyOf(lines, capacity);
+         prefixes = Arrays.copyOf(prefixes, capacity);
+      }
+
+      set(size, copyOf(ch.rawData(), marker), prefix);
+      siftUp(size++);
+   }
+
+   private static byte[] copyOf(byte[] data, long marker) {
+      return Arrays.copyOfRange(data, Chunk.offsetOf(marker), Chunk.offsetOf(marker) + Chunk.lengthOf(marker));
+   }
+
+   /**
+    * Takes the worst line out of the heap until it's empty, so the lines come out in reverse order.
+    */
+   private void write() {
+      byte[][] sorted = new byte[size][];
+      while (size > 0) {
+         sorted[size - 1] = lines[0];
+         size--;
+         if (size > 0) {
+            set(0, lines[size], prefixes[size]);
+            siftDown(0);
+         }
+         lines[size] = null;
+      }
+
+      BufferedChunkWriter wr = null;
+      try {
+         wr = new BufferedChunkWriter(opts.getFs(), opts.getOutPath(), BufferedChunkWriter.DEFAULT_BUFFER_SZ, 1,
+                                      null);
+         for (byte[] line : sorted)
+            wr.write(line, Chunk.pack(0, line.length));
+         wr.close();
+      }
+      catch (IOException e) {
+         throw new SortingAlgorithmException("Cannot write to file '" + opts.getOutPath() + "'", e);
+      }
+      finally {
+         closeSilently(wr);
+      }
+   }
+
+   private void siftUp(int i) {
+      byte[] line = lines[i];
+      long prefix = prefixes[i];
+
+      while (i > 0) {
+         int parent = (i - 1) >>> 1;
+         if (compare(line, prefix, parent) <= 0)
+            break;
+         set(i, lines[parent], prefixes[parent]);
+         i = parent;
+      }
+
+      set(i, line, prefix);
+   }
+
+   private void siftDown(int i) {
+      byte[] line = lines[i];
+      long prefix = prefixes[i];
+
+      for (int child = 2*i + 1; child < size; child = 2*i + 1) {
+         if (child + 1 < size && compare(lines[child + 1], prefixes[child + 1], child) > 0)
+            child++;
+         if (compare(line, prefix, child) >= 0)
+            break;
+         set(i, lines[child], prefixes[child]);
+         i = child;
+      }
+
+      set(i, line, prefix);
+   }
+
+   private void set(int i, byte[] line, long prefix) {
+      lines[i] = line;
+      prefixes[i] = prefix;
+   }
+
+   private int compare(byte[] line, long prefix, int j) {
+      return compare(line, Chunk.pack(0, line.length), prefix, lines[j], prefixes[j]);
+   }
+
+   /**
+    * @return a negative number if the first line goes before the second one in the output
+    */
+   private int compare(byte[] data1, long line1, long p1, byte[] l2, long p2) {
+      int c = Chunk.comparePrefixes(p1, p2);
+      if (c == 0)
+         c = opts.getKeySpec().compareLines(data1, line1, l2, Chunk.pack(0, l2.length));
+      return opts.isReverse() ? -c : c;
+   }
+
+}
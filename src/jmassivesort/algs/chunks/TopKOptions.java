@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+import jmassivesort.CliOptionsBuilderException;
+import jmassivesort.algs.SortingAlgorithm;
+import jmassivesort.algs.SortingAlgorithmBuilder;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options to use {@link TopK} algorithm.
+ * @author Serj Sintsov
+ */
+public class TopKOptions {
+
+   static final String REVERSE_FLAG = "-r";
+
+   static final List<String> VALUE_FLAGS = Arrays.asList(KeySpec.KEY_FLAG, KeySpec.SEPARATOR_FLAG);
+   static final List<String> SWITCHES = Arrays.asList(REVERSE_FLAG, KeySpec.NUMERIC_FLAG);
+
+   public static Builder builder() {
+      return new Builder();
+   }
+
+   public static TopKBuilder algorithmBuilder() {
+      return new TopKBuilder();
+   }
+
+   public static class Builder {
+      private final Map<String, String> optionDescriptions = new HashMap<String, String>() {{
+         put("<inputFile>", "File to take the lines from");
+         put("<outputFile>", "File to write the first <k> sorted lines to");
+         put("<k>", "Integer value > 0. Number of lines to write, all of them are kept in memory");
+         put(REVERSE_FLAG, "Write the last <k> lines in descending order instead of the first ones");
+         put(KeySpec.KEY_FLAG + " <key>", KeySpec.KEY_DESCRIPTION);
+         put(KeySpec.SEPARATOR_FLAG + " <char>", KeySpec.SEPARATOR_DESCRIPTION);
+         put(KeySpec.NUMERIC_FLAG, KeySpec.NUMERIC_DESCRIPTION);
+      }};
+
+      protected Path inPath;
+      protected Path outPath;
+      protected int k;
+      protected boolean reverse;
+      protected KeySpec keySpec;
+
+      public TopKOptions build(String[] options) throws CliOptionsBuilderException {
+         if (options == null)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         CliFlags flags;
+         try {
+            flags = CliFlags.parse(options, VALUE_FLAGS, SWITCHES);
+            reverse = flags.has(REVERSE_FLAG);
+            keySpec = KeySpec.parse(flags);
+         }
+         catch (IllegalArgumentException e) {
+            throw new CliOptionsBuilderException(usage(e.getMessage()), optionDescriptions);
+         }
+
+         options = flags.args();
+         if (options.length != 3)
+            throw new CliOptionsBuilderException(usage("Incorrect usage"), optionDescriptions);
+
+         try {
+            k = Integer.parseInt(options[2]);
+            if (k < 1)
+               throw new CliOptionsBuilderException(usage("Incorrect option format"), optionDescriptions);
+         }
+         catch (NumberFormatException ex) {
+            throw new CliOptionsBuilderException(usage("Incorrect option value"), optionDescriptions);
+         }
+
+         try {
+            inPath = new Path(URI.create(options[0]));
+            outPath = new Path(URI.create(options[1]));
+         }
+         catch (Exception e) {
+            throw new CliOptionsBuilderException(usage("Incorrect path"), optionDescriptions);
+         }
+
+         return new TopKOptions(inPath, outPath, k, reverse, keySpec, ChunkSortingOptions.defaultFs());
+      }
+
+      private String usage(String error) {
+         return error + ". Specify options in order <inputFile> <outputFile> <k> [" + REVERSE_FLAG + "] ["
+               + KeySpec.KEY_FLAG + " <key>]... [" + KeySpec.SEPARATOR_FLAG + " <char>] ["
+               + KeySpec.NUMERIC_FLAG + "]";
+      }
+   }
+
+   public static class TopKBuilder implements SortingAlgorithmBuilder {
+      @Override
+      public SortingAlgorithm build(String[] options) throws CliOptionsBuilderException {
+         return new TopK(TopKOptions.builder().build(options));
+      }
+   }
+
+   private Path inPath;
+   private Path outPath;
+   private int k;
+   private boolean reverse;
+   private KeySpec keySpec;
+   private FileSystem fs;
+
+   protected TopKOptions(Path inPath, Path outPath, int k, boolean reverse, KeySpec keySpec, FileSystem fs) {
+      this.inPath = inPath;
+      this.outPath = outPath;
+      this.k = k;
+      this.reverse = reverse;
+      this.keySpec = keySpec;
+      this.fs = fs;
+   }
+
+   public Path getInPath() {
+      return inPath;
+   }
+
+   public Path getOutPath() {
+      return outPath;
+   }
+
+   public int getK() {
+      return k;
+   }
+
+   /**
+    * @return {@code true} if the last lines are written in descending order
+    */
+   public boolean isReverse() {
+      return reverse;
+   }
+
+   public KeySpec getKeySpec() {
+      return keySpec;
+   }
+
+   public FileSystem getFs() {
+      return fs;
+   }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lexicographical comparison of byte ranges with bytes taken as unsigned,
+ * the order of {@code LC_ALL=C sort} and of UTF-8 code points.
+ * <p/>
+ * Ranges are compared byte by byte, which is the fastest way for the short
+ * equal prefixes most lines have. Only ranges equal in the first
+ * {@value #WORDS_THRESHOLD} bytes are compared further 8 bytes at a time as
+ * big-endian {@code long}s read by {@link ByteBuffer#getLong(int)}, so the
+ * arrays are wrapped only for the long comparisons where it pays off. The
+ * first differing byte is found by the leading zeros of the xor of the words.
+ *
+ * @author Serj Sintsov
+ */
+public final class UnsignedBytes {
+
+   /** equal bytes to compare one by one before comparing words */
+   static final int WORDS_THRESHOLD = 16;
+
+   private static final int WORD = 8;
+
+   private UnsignedBytes() {
+   }
+
+   /**
+    * @return a negative number, zero or a positive number as the first range
+    *         is less than, equal to or greater than the second one
+    */
+   public static int compare(byte[] data1, int off1, int len1, byte[] data2, int off2, int len2) {
+      int n = Math.min(len1, len2);
+      int k = Math.min(n, WORDS_THRESHOLD);
+
+      int c = compareBytes(data1, off1, data2, off2, k);
+      if (c != 0)
+         return c;
+
+      if (n - k >= WORD) {
+         ByteBuffer buf1 = ByteBuffer.wrap(data1); // big-endian
+         ByteBuffer buf2 = ByteBuffer.wrap(data2);
+         for (; k + WORD <= n; k += WORD) {
+            long w1 = buf1.getLong(off1 + k);
+            long w2 = buf2.getLong(off2 + k);
+            if (w1 != w2) {
+               int shift = (WORD - 1) * 8 - (Long.numberOfLeadingZeros(w1 ^ w2) & ~7);
+               return (int) ((w1 >>> shift) & 0xFF) - (int) ((w2 >>> shift) & 0xFF);
+            }
+         }
+      }
+
+      c = compareBytes(data1, off1 + k, data2, off2 + k, n - k);
+      return c != 0 ? c : len1 - len2;
+   }
+
+   /**
+    * Compares {@code len} bytes of both ranges one byte at a time.
+    */
+   public static int compareBytes(byte[] data1, int off1, byte[] data2, int off2, int len) {
+      for (int k = 0; k < len; k++) {
+         int b1 = data1[off1 + k] & 0xFF;
+         int b2 = data2[off2 + k] & 0xFF;
+         if (b1 != b2)
+            return b1 - b2;
+      }
+      return 0;
+   }
+
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.util;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static jmassivesort.util.IOUtils.closeSilently;
+
+/**
+ * Metrics of the sorting job, shared by all the threads of the process:
+ * timers of the phases of the algorithms and counters of the work they do.
+ * <p/>
+ * A phase is timed by {@link System#nanoTime()} from {@link #startPhase(String)}
+ * to {@link Phase#stop()} on the same thread, which also measures the bytes
+ * the thread allocated meanwhile, if the JVM can tell, and the time all
+ * the garbage collectors spent meanwhile. Phases of the same name, e.g. chunks
+ * sorted by several threads at once, are summed up, so the GC time of
+ * overlapping phases is counted by each of them.
+ * <p/>
+ * Only the allocation of the thread which stops the phase is counted, a phase
+ * which hands its work over to other threads doesn't see what they allocate.
+ * Such work is timed by phases of its own on the worker threads, e.g.
+ * {@code ChunkMerging.mergeRange} within {@code ChunkMerging.mergeParallel}.
+ * <p/>
+ * Counters are atomic and are added once per buffer, chunk, run or sort,
+ * never per line. Comparisons are counted by the sort or the merge in a plain
+ * field first, so the metrics are cheap enough to be always on.
+ * <p/>
+ * The metrics are exported as JSON at the end of the job by {@link #export()}
+ * and are available live over JMX, see {@link MetricsMXBean}.
+ *
+ * @author Serj Sintsov
+ */
+public final class Metrics {
+
+   public static final String OBJECT_NAME = "jmassivesort:type=Metrics";
+
+   /** system property with the file to export the metrics to, they are printed otherwise */
+   public static final String EXPORT_PROPERTY = "jmassivesort.metrics";
+
+   public enum Counter {
+      /** bytes read from the input and the runs, after decompression */
+      BYTES_READ,
+      /** bytes of the lines written to the runs and the output, before compression */
+      BYTES_WRITTEN,
+      /** lines sorted in memory */
+      LINES,
+      /** line comparisons of the in-memory sorts and the merges */
+      COMPARISONS,
+      /** runs written, including intermediate merges */
+      RUNS,
+      /** buffers written out by the writers */
+      FLUSHES;
+
+      String jsonName() {
+         return name().toLowerCase();
+      }
+   }
+
+   private static final AtomicLong[] counters = new AtomicLong[Counter.values().length];
+   private static final ConcurrentMap<String, PhaseStats> phases = new ConcurrentHashMap<>();
+
+   private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+   private static final boolean allocationSupported = isAllocationSupported();
+
+   static {
+      for (int i = 0; i < counters.length; i++)
+         counters[i] = new AtomicLong();
+
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+      }
+      catch (JMException e) {
+         // metrics are still exported at the end of the job
+         new Metrics(Metrics.class).echo("JMX export is unavailable: " + e.getMessage());
+      }
+   }
+
+   private final String source;
+
+   /**
+    * Totals of the phases of the same name.
+    */
+   private static final class PhaseStats {
+      final AtomicLong count = new AtomicLong();
+      final AtomicLong nanos = new AtomicLong();
+      final AtomicLong maxNanos = new AtomicLong();
+      final AtomicLong allocatedBytes = new AtomicLong();
+      final AtomicLong gcMillis = new AtomicLong();
+
+      void add(long phaseNanos, long phaseAllocated, long phaseGcMillis) {
+         count.incrementAndGet();
+         nanos.addAndGet(phaseNanos);
+         allocatedBytes.addAndGet(phaseAllocated);
+         gcMillis.addAndGet(phaseGcMillis);
+
+         long max = maxNanos.get();
+         while (phaseNanos > max && !maxNanos.compareAndSet(max, phaseNanos))
+            max = maxNanos.get();
+      }
+   }
+
+   /**
+    * A running phase, it's started and stopped by the same thread.
+    */
+   public static final class Phase {
+      private final String name;
+      private final long startAllocated;
+      private final long startGcMillis;
+      private final long startNanos;
+
+      private Phase(String name) {
+         this.name = name;
+         this.startAllocated = allocatedBytes();
+         this.startGcMillis = gcMillis();
+         this.startNanos = System.nanoTime();
+      }
+
+      /**
+       * Records the phase with the bytes allocated by the current thread only.
+       *
+       * @return nanoseconds the phase took
+       */
+      public long stop() {
+         long nanos = System.nanoTime() - startNanos;
+         long allocated = allocationSupported ? allocatedBytes() - startAllocated : 0;
+         stats(name).add(nanos, allocated, gcMillis() - startGcMillis);
+         return nanos;
+      }
+   }
+
+   /**
+    * JMX view of the metrics.
+    */
+   private static final class Bean implements MetricsMXBean {
+      @Override
+      public Map<String, Long> getCounters() {
+         return Metrics.getCounters();
+      }
+
+      @Override
+      public Map<String, Long> getPhaseNanos() {
+         Map<String, Long> nanos = new TreeMap<>();
+         for (Map.Entry<String, PhaseStats> phase : phases.entrySet())
+            nanos.put(phase.getKey(), phase.getValue().nanos.get());
+         return nanos;
+      }
+
+      @Override
+      public String getJson() {
+         return toJson();
+      }
+   }
+
+   private Metrics(Class<?> clazz) {
+      this.source = clazz.getSimpleName();
+   }
+
+   /**
+    * @return metrics of the phases of the class
+    */
+   public static Metrics create(Class<?> clazz) {
+      return new Metrics(clazz);
+   }
+
+   /**
+    * Starts the phase named {@code <class>.<name>}.
+    */
+   public Phase startPhase(String name) {
+      return new Phase(source + "." + name);
+   }
+
+   /**
+    * Prints a message of the class, meant for the rare events worth knowing of.
+    */
+   public void echo(String msg) {
+      System.out.println("[" + source + "] " + msg);
+   }
+
+   public static void add(Counter counter, long delta) {
+      counters[counter.ordinal()].addAndGet(delta);
+   }
+
+   public static long get(Counter counter) {
+      return counters[counter.ordinal()].get();
+   }
+
+   /**
+    * @return value of every counter by its name
+    */
+   public static Map<String, Long> getCounters() {
+      Map<String, Long> values = new TreeMap<>();
+      for (Counter counter : Counter.values())
+         values.put(counter.jsonName(), get(counter));
+      return values;
+   }
+
+   /**
+    * Clears all the metrics, e.g. between the jobs run by the same process.
+    */
+   public static void reset() {
+      for (AtomicLong counter : counters)
+         counter.set(0);
+      phases.clear();
+   }
+
+   /**
+    * @return the metrics as
+    *         {@code {"counters": {<name>: <value>, ...}, "phases": {<name>: {"count": ..., "nanos": ...,
+    *         "max_nanos": ..., "allocated_bytes": ..., "gc_millis": ...}, ...}}}
+    */
+   public static String toJson() {
+      StringBuilder sb = new StringBuilder("{\"counters\": {");
+      String sep = "";
+      for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+         sb.append(sep).append('"').append(counter.getKey()).append("\": ").append(counter.getValue());
+         sep = ", ";
+      }
+
+      sb.append("}, \"phases\": {");
+      sep = "";
+      for (Map.Entry<String, PhaseStats> phase : new TreeMap<>(phases).entrySet()) {
+         PhaseStats stats = phase.getValue();
+         sb.append(sep).append('"').append(escape(phase.getKey())).append("\": {")
+           .append("\"count\": ").append(stats.count.get())
+           .append(", \"nanos\": ").append(stats.nanos.get())
+           .append(", \"max_nanos\": ").append(stats.maxNanos.get())
+           .append(", \"allocated_bytes\": ").append(stats.allocatedBytes.get())
+           .append(", \"gc_millis\": ").append(stats.gcMillis.get())
+           .append('}');
+         sep = ", ";
+      }
+      return sb.append("}}").toString();
+   }
+
+   /**
+    * Writes the metrics as JSON into the file named by the {@value #EXPORT_PROPERTY}
+    * system property or prints them if it's not set.
+    */
+   public void export() {
+      String path = System.getProperty(EXPORT_PROPERTY);
+      if (path == null) {
+         echo(toJson());
+         return;
+      }
+
+      OutputStream out = null;
+      try {
+         out = new FileOutputStream(path);
+         out.write(toJson().getBytes(StandardCharsets.UTF_8));
+         out.close();
+      }
+      catch (IOException e) {
+         echo("cannot export metrics to '" + path + "': " + e.getMessage());
+      }
+      finally {
+         closeSilently(out);
+      }
+   }
+
+   private static PhaseStats stats(String name) {
+      PhaseStats stats = phases.get(name);
+      if (stats != null)
+         return stats;
+
+      PhaseStats created = new PhaseStats();
+      stats = phases.putIfAbsent(name, created);
+      return stats != null ? stats : created;
+   }
+
+   private static boolean isAllocationSupported() {
+      if (!(threads instanceof com.sun.management.ThreadMXBean))
+         return false;
+
+      com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+      return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled();
+   }
+
+   /**
+    * @return bytes allocated by the current thread so far
+    */
+   private static long allocatedBytes() {
+      if (!allocationSupported)
+         return 0;
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   private static long gcMillis() {
+      long millis = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+         millis += Math.max(0, gc.getCollectionTime());
+      return millis;
+   }
+
+   private static String escape(String s) {
+      return s.replace("\\", "\\\\").replace("\"", "\\\"");
+   }
+
+}
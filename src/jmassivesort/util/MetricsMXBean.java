@@ -0,0 +1,43 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.util;
+
+import java.util.Map;
+
+/**
+ * Live view of the {@link Metrics} of the running job over JMX,
+ * registered as {@value Metrics#OBJECT_NAME}.
+ *
+ * @author Serj Sintsov
+ */
+public interface MetricsMXBean {
+
+   /**
+    * @return value of every counter by its name
+    */
+   Map<String, Long> getCounters();
+
+   /**
+    * @return total nanoseconds of every finished phase by its name
+    */
+   Map<String, Long> getPhaseNanos();
+
+   /**
+    * @return all the metrics as JSON, the same as exported at the end of the job
+    */
+   String getJson();
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Builds chunks of lines in memory and runs in a temporary directory of the local
+ * file system for the tests of sorting and merging.
+ * <p/>
+ * Lines are encoded in ISO-8859-1, one byte per char, so {@link String#compareTo(String)}
+ * orders them as unsigned bytes, the same way as {@code LC_ALL=C sort}.
+ *
+ * @author Serj Sintsov
+ */
+public class BaseChunkTest {
+
+   protected static final Charset LATIN1 = StandardCharsets.ISO_8859_1;
+
+   protected static FileSystem localFs() throws IOException {
+      return FileSystem.getLocal(new Configuration());
+   }
+
+   /**
+    * @return a new empty directory named after the test class
+    */
+   protected Path createTmpDir(String name) throws IOException {
+      Path dir = new Path(System.getProperty("java.io.tmpdir"), getClass().getSimpleName() + "_" + name);
+      localFs().delete(dir, true);
+      localFs().mkdirs(dir);
+      return dir;
+   }
+
+   /**
+    * Writes every line followed by EOL.
+    */
+   protected static Path writeLines(Path file, String... lines) throws IOException {
+      FSDataOutputStream out = localFs().create(file, true);
+      try {
+         for (String line : lines) {
+            out.write(line.getBytes(LATIN1));
+            out.write('\n');
+         }
+      }
+      finally {
+         out.close();
+      }
+      return file;
+   }
+
+   protected static List<String> readLines(Path file) throws IOException {
+      List<String> lines = new ArrayList<>();
+      BufferedReader in = new BufferedReader(new InputStreamReader(localFs().open(file), LATIN1));
+      try {
+         for (String line = in.readLine(); line != null; line = in.readLine())
+            lines.add(line);
+      }
+      finally {
+         in.close();
+      }
+      return lines;
+   }
+
+   protected static Chunk chunkOf(String... lines) {
+      return chunkOf(KeySpec.WHOLE_LINE, false, lines);
+   }
+
+   /**
+    * @param counted {@code true} if every line starts with its count, see {@link Chunk#collapseDuplicates(boolean)}
+    */
+   protected static Chunk chunkOf(KeySpec keySpec, boolean counted, String... lines) {
+      ByteArrayOutputStream data = new ByteArrayOutputStream();
+      int[] offsets = new int[lines.length];
+      for (int i = 0; i < lines.length; i++) {
+         offsets[i] = data.size();
+         byte[] line = lines[i].getBytes(LATIN1);
+         data.write(line, 0, line.length);
+         data.write('\n');
+      }
+
+      Chunk ch = new Chunk(keySpec, counted);
+      ch.setRawData(data.toByteArray());
+      for (int i = 0; i < lines.length; i++)
+         ch.addMarker(offsets[i], lines[i].length());
+      return ch;
+   }
+
+   protected static List<String> linesOf(Chunk ch) {
+      List<String> lines = new ArrayList<>(ch.size());
+      for (int i = 0; i < ch.size(); i++)
+         lines.add(lineAt(ch, i));
+      return lines;
+   }
+
+   protected static String lineAt(Chunk ch, int i) {
+      long m = ch.markerAt(i);
+      return new String(ch.rawData(), Chunk.offsetOf(m), Chunk.lengthOf(m), LATIN1);
+   }
+
+   protected static List<String> sorted(String... lines) {
+      return sorted(Arrays.asList(lines));
+   }
+
+   protected static List<String> sorted(List<String> lines) {
+      List<String> sorted = new ArrayList<>(lines);
+      Collections.sort(sorted);
+      return sorted;
+   }
+
+   /**
+    * A run which returns the given chunks and remembers whether it was closed.
+    */
+   protected static class ChunksReader implements ChunkReader {
+      private final Iterator<Chunk> chunks;
+      protected boolean closed;
+
+      public ChunksReader(Chunk... chunks) {
+         this.chunks = Arrays.asList(chunks).iterator();
+      }
+
+      @Override
+      public Chunk nextChunk() throws IOException {
+         return chunks.hasNext() ? chunks.next() : null;
+      }
+
+      @Override
+      public void close() throws IOException {
+         closed = true;
+      }
+   }
+
+}
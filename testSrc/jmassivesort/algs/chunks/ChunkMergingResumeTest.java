@@ -0,0 +1,130 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.SortingAlgorithmException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for resuming a failed {@link ChunkMerging} from its finished steps.
+ * <p/>
+ * Four runs are merged with fan-in 2, so two intermediate merges go before the final one.
+ * The final merge of the first attempt fails, since the parent of the output is a file.
+ * Then the run {@code 0.chunk} is replaced by a run of the same length, which the merge
+ * can't tell from the original one: only a merge from the start writes its new line.
+ *
+ * @author Serj Sintsov
+ */
+public class ChunkMergingResumeTest extends BaseChunkTest {
+
+   private static final int MAX_FAN_IN = 2;
+
+   @Test(description = "finished steps are not merged again")
+   public void test_resumeAfterFailure() throws Exception {
+      Path dir = createTmpDir("resumeAfterFailure");
+      failFinalStep(dir);
+
+      writeLines(run(dir, 0), "z");
+
+      assertEquals(Arrays.asList("a", "bb", "ccc", "dddd"), merge(dir));
+   }
+
+   @Test(description = "the merge starts again if an intermediate run of a finished step is changed")
+   public void test_restartOnChangedIntermediate() throws Exception {
+      Path dir = createTmpDir("restartOnChangedIntermediate");
+      failFinalStep(dir);
+
+      writeLines(run(dir, 0), "z");
+      FileStatus[] intermediates = localFs().listStatus(new Path(runsDir(dir), ChunkMerging.INTERMEDIATE_DIR_NAME));
+      assertTrue(intermediates.length > 0);
+      for (FileStatus run : intermediates)
+         writeLines(run.getPath(), "changed");
+
+      assertEquals(Arrays.asList("bb", "ccc", "dddd", "z"), merge(dir));
+   }
+
+   @Test(description = "the merge starts again if the runs are changed")
+   public void test_restartOnChangedRuns() throws Exception {
+      Path dir = createTmpDir("restartOnChangedRuns");
+      failFinalStep(dir);
+
+      writeLines(run(dir, 0), "zz");
+
+      assertEquals(Arrays.asList("bb", "ccc", "dddd", "zz"), merge(dir));
+   }
+
+   @Test(description = "a finished merge is not resumed by the next one")
+   public void test_noResumeAfterSuccess() throws Exception {
+      Path dir = createTmpDir("noResumeAfterSuccess");
+      writeRuns(dir);
+      assertEquals(Arrays.asList("a", "bb", "ccc", "dddd"), merge(dir));
+
+      writeLines(run(dir, 0), "z");
+
+      assertEquals(Arrays.asList("bb", "ccc", "dddd", "z"), merge(dir));
+   }
+
+   /**
+    * Writes the runs and fails the merge after its intermediate steps.
+    */
+   private void failFinalStep(Path dir) throws IOException {
+      writeRuns(dir);
+      Path blocker = writeLines(new Path(dir, "out"));
+      try {
+         new ChunkMerging(options(new Path(blocker, "output"), dir)).apply();
+         fail("the output can't be written into a file");
+      }
+      catch (SortingAlgorithmException e) {
+         localFs().delete(blocker, false);
+      }
+   }
+
+   private static void writeRuns(Path dir) throws IOException {
+      writeLines(run(dir, 0), "a");
+      writeLines(run(dir, 1), "bb");
+      writeLines(run(dir, 2), "ccc");
+      writeLines(run(dir, 3), "dddd");
+   }
+
+   private static List<String> merge(Path dir) throws Exception {
+      Path out = new Path(new Path(dir, "out"), "output");
+      new ChunkMerging(options(out, dir)).apply();
+      return readLines(out);
+   }
+
+   private static ChunkMergingOptions options(Path out, Path dir) throws IOException {
+      return new ChunkMergingOptions(out, runsDir(dir), 0, MAX_FAN_IN, null, localFs());
+   }
+
+   private static Path runsDir(Path dir) {
+      return new Path(dir, "runs");
+   }
+
+   private static Path run(Path dir, int i) {
+      return new Path(runsDir(dir), i + ".chunk");
+   }
+
+}
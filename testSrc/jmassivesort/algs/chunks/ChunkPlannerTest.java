@@ -0,0 +1,151 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link ChunkPlanner}.
+ *
+ * @author Serj Sintsov
+ */
+public class ChunkPlannerTest extends BaseChunkTest {
+
+   @Test(description = "with more blocks than chunks every chunk is a group of whole blocks")
+   public void test_boundsOfMoreBlocks() {
+      BlockLocation[] blocks = blocks(100, 100, 100, 100, 100, 100, 100, 100, 100, 100);
+      checkBounds(new long[]{0, 300, 600, 1000}, ChunkPlanner.bounds(blocks, 1000, 3));
+      checkBounds(new long[]{0, 500, 1000}, ChunkPlanner.bounds(blocks, 1000, 2));
+      checkBounds(new long[]{0, 1000}, ChunkPlanner.bounds(blocks, 1000, 1));
+   }
+
+   @Test(description = "as many blocks as chunks give a chunk per block, whatever their lengths are")
+   public void test_boundsOfEqualBlocks() {
+      checkBounds(new long[]{0, 10, 310, 320}, ChunkPlanner.bounds(blocks(10, 300, 10), 320, 3));
+   }
+
+   @Test(description = "with fewer blocks than chunks the longer blocks get more chunks, which don't cross blocks")
+   public void test_boundsOfFewerBlocks() {
+      checkBounds(new long[]{0, 100, 200, 300, 400}, ChunkPlanner.bounds(blocks(300, 100), 400, 4));
+      checkBounds(new long[]{0, 50, 100, 150, 200, 250}, ChunkPlanner.bounds(blocks(100, 100, 50), 250, 5));
+      checkBounds(new long[]{0, 50, 100, 200}, ChunkPlanner.bounds(blocks(100, 100), 200, 3));
+      checkBounds(new long[]{0, 33, 66, 100}, ChunkPlanner.bounds(blocks(100), 100, 3));
+   }
+
+   @Test(description = "every block offset is a chunk bound, however many chunks there are")
+   public void test_boundsKeepBlockOffsets() {
+      BlockLocation[] blocks = blocks(128, 128, 128, 7);
+      for (int numChunks = blocks.length; numChunks < 40; numChunks++) {
+         long[] bounds = ChunkPlanner.bounds(blocks, 391, numChunks);
+         assertEquals(numChunks + 1, bounds.length);
+         for (int i = 1; i < bounds.length; i++)
+            assertTrue(bounds[i - 1] < bounds[i]);
+         for (BlockLocation block : blocks)
+            assertTrue(Arrays.binarySearch(bounds, block.getOffset()) >= 0);
+      }
+   }
+
+   @Test(description = "a file without blocks is divided into equal chunks, a zero-length file into empty ones")
+   public void test_boundsWithoutBlocks() {
+      checkBounds(new long[]{0, 3, 6, 10}, ChunkPlanner.bounds(new BlockLocation[0], 10, 3));
+      checkBounds(new long[]{0, 0, 0, 0}, ChunkPlanner.bounds(new BlockLocation[0], 0, 3));
+   }
+
+   @Test(description = "hosts are ordered by the bytes of the chunk they keep, then by their names")
+   public void test_hostsByOverlap() throws IOException {
+      BlockLocation[] blocks = {
+            block(0, 100, "h1", "h2"),
+            block(100, 100, "h2", "h3"),
+            block(200, 100, "h3")};
+
+      assertEquals(Arrays.asList("h3", "h2", "h1"), ChunkPlanner.hosts(blocks, 50, 300));
+      assertEquals(Arrays.asList("h2", "h1", "h3"), ChunkPlanner.hosts(blocks, 0, 110));
+      assertEquals(Arrays.asList("h2", "h3"), ChunkPlanner.hosts(blocks, 100, 200));
+      assertEquals(Arrays.asList("h1", "h2"), ChunkPlanner.hosts(blocks, 0, 100));
+   }
+
+   @Test(description = "an empty chunk or a chunk out of the blocks has no hosts")
+   public void test_hostsOfEmptyChunk() throws IOException {
+      BlockLocation[] blocks = {block(0, 100, "h1"), block(100, 100, "h2")};
+
+      assertEquals(Collections.<String>emptyList(), ChunkPlanner.hosts(blocks, 100, 100));
+      assertEquals(Collections.<String>emptyList(), ChunkPlanner.hosts(blocks, 200, 300));
+      assertEquals(Collections.<String>emptyList(), ChunkPlanner.hosts(new BlockLocation[0], 0, 10));
+   }
+
+   @Test(description = "planned chunks of a local file start at lines and are kept on localhost")
+   public void test_planLocalFile() throws IOException {
+      Path in = writeLines(new Path(createTmpDir("planLocalFile"), "in.txt"), "aaaa", "bb", "c", "dddddd", "e");
+
+      List<ChunkPlanner.ChunkSplit> splits = ChunkPlanner.plan(localFs(), in, 3);
+
+      assertEquals(3, splits.size());
+      assertEquals(0, splits.get(0).getStart());
+      assertEquals(8, splits.get(0).getEnd());
+      assertEquals(8, splits.get(1).getStart());
+      assertEquals(17, splits.get(1).getEnd());
+      assertEquals(17, splits.get(2).getStart());
+      assertEquals(19, splits.get(2).getEnd());
+      for (ChunkPlanner.ChunkSplit split : splits)
+         assertEquals(Collections.singletonList("localhost"), split.getHosts());
+   }
+
+   @Test(description = "chunks of a zero-length file are empty")
+   public void test_planEmptyFile() throws IOException {
+      Path in = writeLines(new Path(createTmpDir("planEmptyFile"), "in.txt"));
+
+      List<ChunkPlanner.ChunkSplit> splits = ChunkPlanner.plan(localFs(), in, 2);
+
+      assertEquals(2, splits.size());
+      for (ChunkPlanner.ChunkSplit split : splits) {
+         assertEquals(0, split.getStart());
+         assertEquals(0, split.getEnd());
+         assertEquals(Collections.<String>emptyList(), split.getHosts());
+      }
+   }
+
+   private static void checkBounds(long[] expected, long[] bounds) {
+      assertEquals(Arrays.toString(expected), Arrays.toString(bounds));
+   }
+
+   /**
+    * @return adjacent blocks of the given lengths starting from 0
+    */
+   private static BlockLocation[] blocks(long... lengths) {
+      BlockLocation[] blocks = new BlockLocation[lengths.length];
+      long offset = 0;
+      for (int i = 0; i < lengths.length; i++) {
+         blocks[i] = block(offset, lengths[i], "localhost");
+         offset += lengths[i];
+      }
+      return blocks;
+   }
+
+   private static BlockLocation block(long offset, long length, String... hosts) {
+      return new BlockLocation(hosts, hosts, offset, length);
+   }
+
+}
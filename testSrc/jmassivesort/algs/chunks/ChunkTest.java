@@ -0,0 +1,105 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.testng.annotations.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for the packed markers and the prefixes of {@link Chunk}.
+ *
+ * @author Serj Sintsov
+ */
+public class ChunkTest extends BaseChunkTest {
+
+   @Test(description = "offset and length are unpacked as they were packed, even the largest ones")
+   public void test_packMarkers() {
+      int[] values = {0, 1, 255, 65536, Integer.MAX_VALUE - 8, Integer.MAX_VALUE};
+      for (int off : values)
+         for (int len : values) {
+            long m = Chunk.pack(off, len);
+            assertEquals(off, Chunk.offsetOf(m));
+            assertEquals(len, Chunk.lengthOf(m));
+         }
+   }
+
+   @Test(description = "markers of the chunk point to its lines, an empty line has the empty marker")
+   public void test_markersOfLines() {
+      Chunk ch = chunkOf("abc", "", "de");
+
+      assertEquals(3, ch.size());
+      assertEquals(Chunk.pack(0, 3), ch.markerAt(0));
+      assertEquals(Chunk.EMPTY_MARKER, ch.markerAt(1));
+      assertEquals(Chunk.pack(5, 2), ch.markerAt(2));
+      assertEquals("de", lineAt(ch, 2));
+   }
+
+   @Test(description = "prefix keeps the first 8 bytes of the line big-endian and pads short lines with zeros")
+   public void test_prefix() {
+      byte[] data = "abcdefghij".getBytes(LATIN1);
+
+      assertEquals(0x6162636465666768L, Chunk.prefix(data, 0, 10));
+      assertEquals(0x6263000000000000L, Chunk.prefix(data, 1, 2));
+      assertEquals(0L, Chunk.prefix(data, 0, 0));
+      for (int k = 0; k < Chunk.PREFIX_LENGTH; k++)
+         assertEquals('a' + k, Chunk.prefixByte(Chunk.prefix(data, 0, 10), k));
+   }
+
+   @Test(description = "prefixes compare as unsigned, so bytes >= 0x80 go after ASCII ones")
+   public void test_comparePrefixesUnsigned() {
+      long ascii = Chunk.prefix(new byte[]{'z'}, 0, 1);
+      long high = Chunk.prefix(new byte[]{(byte) 0xE9}, 0, 1);
+
+      assertTrue(high < 0);
+      assertTrue(Chunk.comparePrefixes(ascii, high) < 0);
+      assertTrue(Chunk.comparePrefixes(high, ascii) > 0);
+      assertEquals(0, Chunk.comparePrefixes(high, high));
+   }
+
+   @Test(description = "lines with equal prefixes are compared by the rest of their bytes and then by length")
+   public void test_compareEqualPrefixes() {
+      Chunk ch = chunkOf("abcdefgh", "abcdefghi", "abcdefgh\u00e9", "abcdefghz", "abcdefgh");
+
+      assertEquals(ch.prefixAt(0), ch.prefixAt(1));
+      assertTrue(ch.compareAt(0, 1) < 0);
+      assertTrue(ch.compareAt(2, 3) > 0);
+      assertTrue(ch.compareAt(1, 3) < 0);
+      assertEquals(0, ch.compareAt(0, 4));
+   }
+
+   @Test(description = "swapped lines keep their markers and prefixes together")
+   public void test_swapMarkers() {
+      Chunk ch = chunkOf("b", "a");
+      long prefix = ch.prefixAt(1);
+      ch.swapMarkers(0, 1);
+
+      assertEquals("a", lineAt(ch, 0));
+      assertEquals(prefix, ch.prefixAt(0));
+   }
+
+   @Test(description = "markers of maxLines lines fit into the given memory")
+   public void test_maxLines() {
+      int perLine = Chunk.bytesPerLine(KeySpec.WHOLE_LINE, false);
+
+      assertEquals(16, perLine);
+      assertEquals(24, Chunk.bytesPerLine(KeySpec.WHOLE_LINE, true));
+      assertEquals(1000, Chunk.maxLines(1000L * perLine + perLine - 1, KeySpec.WHOLE_LINE, false));
+      assertEquals(1, Chunk.maxLines(0, KeySpec.WHOLE_LINE, false));
+   }
+
+}
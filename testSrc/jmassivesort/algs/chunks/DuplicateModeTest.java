@@ -0,0 +1,137 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link DuplicateMode}: duplicates collapsed in the chunks and in the merge.
+ *
+ * @author Serj Sintsov
+ */
+public class DuplicateModeTest extends BaseChunkTest {
+
+   private static final KeySpec FIRST_FIELD = new KeySpec(new int[]{1}, new int[]{1}, (byte) ',', false);
+
+   @Test(description = "the first line of every group of equal lines is left")
+   public void test_collapseUnique() {
+      Chunk ch = chunkOf("", "", "a", "a", "b", "c", "c", "c");
+      DuplicateMode.UNIQUE.collapse(ch);
+
+      assertEquals(Arrays.asList("", "a", "b", "c"), linesOf(ch));
+      assertFalse(ch.hasCounts());
+   }
+
+   @Test(description = "lines are grouped by keys, the smallest line of the group is left")
+   public void test_collapseByKeys() {
+      Chunk ch = chunkOf(FIRST_FIELD, false, "a,1", "a,2", "b,9", "c,1", "c,1");
+      SortEngine.QUICK.sort(ch);
+      DuplicateMode.UNIQUE.collapse(ch);
+
+      assertEquals(Arrays.asList("a,1", "b,9", "c,1"), linesOf(ch));
+   }
+
+   @Test(description = "every line left has the number of lines of its group")
+   public void test_collapseCount() {
+      Chunk ch = chunkOf("a", "a", "b", "c", "c", "c");
+      DuplicateMode.COUNT.collapse(ch);
+
+      assertEquals(Arrays.asList("a", "b", "c"), linesOf(ch));
+      assertEquals(2, ch.countAt(0));
+      assertEquals(1, ch.countAt(1));
+      assertEquals(3, ch.countAt(2));
+   }
+
+   @Test(description = "counts of a counted chunk are parsed and summed up, lines of no lines are removed")
+   public void test_collapseCounted() {
+      Chunk ch = chunkOf(KeySpec.WHOLE_LINE, true, "2\ta", "10\ta", "1\tb", "0\tc", "");
+
+      assertEquals("a", lineAt(ch, 0));
+      assertEquals(10, ch.countAt(1));
+      assertEquals(0, ch.countAt(4));
+
+      ch.collapseDuplicates(true);
+      assertEquals(Arrays.asList("a", "b"), linesOf(ch));
+      assertEquals(12, ch.countAt(0));
+      assertEquals(1, ch.countAt(1));
+   }
+
+   @Test(description = "a line of a counted run must start with the count",
+         expectedExceptions = NumberFormatException.class)
+   public void test_onLineWithoutCount() {
+      chunkOf(KeySpec.WHOLE_LINE, true, "a");
+   }
+
+   @Test(description = "duplicates of different runs and chunks are merged into one line")
+   public void test_mergeUnique() throws IOException {
+      List<String> merged = merge("mergeUnique", DuplicateMode.UNIQUE,
+                                  new ChunksReader(chunkOf("a", "b"), chunkOf("b", "d")),
+                                  new ChunksReader(chunkOf("b"), chunkOf("c", "d")),
+                                  new ChunksReader(chunkOf("a", "e")));
+
+      assertEquals(Arrays.asList("a", "b", "c", "d", "e"), merged);
+   }
+
+   @Test(description = "lines of different runs with equal keys are written once, the smallest line of them")
+   public void test_mergeUniqueByKeys() throws IOException {
+      List<String> merged = merge("mergeUniqueByKeys", DuplicateMode.UNIQUE,
+                                  new ChunksReader(chunkOf(FIRST_FIELD, false, "a,2", "b,1")),
+                                  new ChunksReader(chunkOf(FIRST_FIELD, false, "a,1", "b,3")));
+
+      assertEquals(Arrays.asList("a,1", "b,1"), merged);
+   }
+
+   @Test(description = "counts of the runs are summed up and written as <count>\\t<line>")
+   public void test_mergeCountFormat() throws IOException {
+      List<String> merged = merge("mergeCountFormat", DuplicateMode.COUNT,
+                                  new ChunksReader(chunkOf(KeySpec.WHOLE_LINE, true, "2\ta", "1\tb\tc")),
+                                  new ChunksReader(chunkOf(KeySpec.WHOLE_LINE, true, "3\ta", "0\tz")),
+                                  new ChunksReader(chunkOf(KeySpec.WHOLE_LINE, true, "4\t", "1\tb\tc")));
+
+      assertEquals(Arrays.asList("4\t", "5\ta", "2\tb\tc"), merged);
+   }
+
+   @Test(description = "runs merged with counts can be merged with counts again")
+   public void test_mergeCountedOutput() throws IOException {
+      Path dir = createTmpDir("mergeCountedOutput");
+      Path first = new Path(dir, "first");
+      ChunkMerging.mergeInto(localFs(), new ChunkReader[]{new ChunksReader(chunkOf(KeySpec.WHOLE_LINE, true,
+                                                                                   "1\ta", "2\tb"))},
+                             first, null, DuplicateMode.COUNT);
+      List<String> lines = readLines(first);
+      Chunk again = chunkOf(KeySpec.WHOLE_LINE, true, lines.toArray(new String[lines.size()]));
+
+      assertEquals(Arrays.asList("a", "b"), linesOf(again));
+      assertEquals(2, again.countAt(1));
+      assertTrue(again.hasCounts());
+   }
+
+   private List<String> merge(String name, DuplicateMode duplicates, ChunkReader... runs) throws IOException {
+      Path out = new Path(createTmpDir(name), "output");
+      ChunkMerging.mergeInto(localFs(), runs, out, null, duplicates);
+      return readLines(out);
+   }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.CliFlags;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for the fields {@code -k} and the separator {@code -t} of {@link KeySpec}.
+ *
+ * @author Serj Sintsov
+ */
+public class KeySpecTest extends BaseChunkTest {
+
+   @Test(description = "a key is the text from its start field to its end field or to the end of the line")
+   public void test_keyFields() {
+      assertEquals(Arrays.asList("b"), keysOf(keySpec(",", "2,2"), "a,b,c"));
+      assertEquals(Arrays.asList("b,c"), keysOf(keySpec(",", "2"), "a,b,c"));
+      assertEquals(Arrays.asList("a,b"), keysOf(keySpec(",", "1,2"), "a,b,c"));
+      assertEquals(Arrays.asList("a,b,c"), keysOf(keySpec(",", "1"), "a,b,c"));
+      assertEquals(Arrays.asList("c"), keysOf(keySpec(",", "3,3"), "a,b,c"));
+   }
+
+   @Test(description = "fields are separated by a tab by default, other blanks are parts of fields")
+   public void test_defaultSeparator() {
+      assertEquals(Arrays.asList("b c"), keysOf(keySpec(null, "2,2"), "a\tb c\td"));
+      assertEquals(Arrays.asList("a,b"), keysOf(keySpec(null, "1,1"), "a,b\tc"));
+   }
+
+   @Test(description = "fields missing in the line make empty keys")
+   public void test_missingFields() {
+      assertEquals(Arrays.asList(""), keysOf(keySpec(",", "2,2"), "a"));
+      assertEquals(Arrays.asList(""), keysOf(keySpec(",", "3"), "a,b"));
+      assertEquals(Arrays.asList(""), keysOf(keySpec(",", "2,2"), ""));
+      assertEquals(Arrays.asList("b"), keysOf(keySpec(",", "2,5"), "a,b"));
+   }
+
+   @Test(description = "a key past the end of the line is empty and points to the line end")
+   public void test_keyPastEndOfLine() {
+      Chunk ch = chunkOf(keySpec(",", "5,6"), false, "a,b", "c");
+      for (int i = 0; i < ch.size(); i++) {
+         long line = ch.markerAt(i);
+         assertEquals(0, Chunk.lengthOf(ch.keyAt(i)));
+         assertEquals(Chunk.offsetOf(line) + Chunk.lengthOf(line), Chunk.offsetOf(ch.keyAt(i)));
+      }
+   }
+
+   @Test(description = "empty fields between, before and after separators make empty keys")
+   public void test_emptyFields() {
+      assertEquals(Arrays.asList("", "c"), keysOf(keySpec(",", "2,2", "3,3"), "a,,c"));
+      assertEquals(Arrays.asList("", "a"), keysOf(keySpec(",", "1,1", "2,2"), ",a"));
+      assertEquals(Arrays.asList("a", ""), keysOf(keySpec(",", "1,1", "2,2"), "a,"));
+      assertEquals(Arrays.asList(""), keysOf(keySpec(",", "2"), "a,"));
+      assertEquals(Arrays.asList(",a"), keysOf(keySpec(",", "2"), ",,a"));
+      assertEquals(Arrays.asList("", ""), keysOf(keySpec(",", "1,1", "2,2"), ","));
+   }
+
+   @Test(description = "several keys are extracted in the order they were specified, they may overlap")
+   public void test_multipleKeys() {
+      assertEquals(Arrays.asList("c", "a", "b,c"), keysOf(keySpec(",", "3,3", "1,1", "2"), "a,b,c"));
+      assertEquals(Arrays.asList("b", ""), keysOf(keySpec(",", "2,2", "4,4"), "a,b,c"));
+   }
+
+   @Test(description = "lines are sorted by the keys one by one, then as a whole")
+   public void test_sortByMultipleKeys() {
+      checkAllEngines(keySpec(",", "2,2", "1,1"),
+                      Arrays.asList("a,1", "b,1", "c,1", "a,2", "a,2,x", "a,2,y"),
+                      "b,1", "a,2,y", "a,2", "c,1", "a,1", "a,2,x");
+   }
+
+   @Test(description = "missing and empty keys go before the others, they are equal and lines are compared then")
+   public void test_sortMissingAndEmptyKeys() {
+      checkAllEngines(keySpec(",", "2,2"),
+                      Arrays.asList("", "a", "a,", "b", "b,", "a,a", ",b"),
+                      "a,a", "b,", ",b", "a", "", "b", "a,");
+   }
+
+   @Test(description = "a separator at the line start makes the first field empty")
+   public void test_sortSeparatorAtLineStart() {
+      checkAllEngines(keySpec(",", "1,1"),
+                      Arrays.asList(",a", ",b", "a", "a,", "b"),
+                      "b", ",b", "a,", ",a", "a");
+   }
+
+   @Test(description = "keys are parsed from the command line options and printed back")
+   public void test_parse() {
+      assertEquals("-k 2,3 -k 1 -t ,", parse("-k", "2,3", "-k", "1", "-t", ",").toString());
+      assertEquals("-t \\t", parse("-t", "\\t").toString());
+      assertTrue(parse() == KeySpec.WHOLE_LINE);
+   }
+
+   @Test(description = "a start field less than 1 is incorrect", expectedExceptions = IllegalArgumentException.class)
+   public void test_parseZeroField() {
+      parse("-k", "0");
+   }
+
+   @Test(description = "an end field less than the start one is incorrect",
+         expectedExceptions = IllegalArgumentException.class)
+   public void test_parseEndBeforeStart() {
+      parse("-k", "3,2");
+   }
+
+   @Test(description = "a field must be a number", expectedExceptions = IllegalArgumentException.class)
+   public void test_parseNotNumber() {
+      parse("-k", "a");
+   }
+
+   @Test(description = "a separator must be a single character", expectedExceptions = IllegalArgumentException.class)
+   public void test_parseLongSeparator() {
+      parse("-t", ",,");
+   }
+
+   /**
+    * @param separator a separator option or {@code null} for the default one
+    * @param keys key options
+    */
+   private static KeySpec keySpec(String separator, String... keys) {
+      List<String> options = new ArrayList<>();
+      for (String key : keys)
+         options.addAll(Arrays.asList(KeySpec.KEY_FLAG, key));
+      if (separator != null)
+         options.addAll(Arrays.asList(KeySpec.SEPARATOR_FLAG, separator));
+      return parse(options.toArray(new String[options.size()]));
+   }
+
+   private static KeySpec parse(String... options) {
+      return KeySpec.parse(CliFlags.parse(options, Arrays.asList(KeySpec.KEY_FLAG, KeySpec.SEPARATOR_FLAG),
+                                          Arrays.<String>asList()));
+   }
+
+   private static List<String> keysOf(KeySpec keySpec, String line) {
+      Chunk ch = chunkOf(keySpec, false, line);
+      List<String> keys = new ArrayList<>();
+      for (int k = 0; k < keySpec.numKeys(); k++) {
+         long key = ch.keyAt(0, k);
+         keys.add(new String(ch.rawData(), Chunk.offsetOf(key), Chunk.lengthOf(key), LATIN1));
+      }
+      return keys;
+   }
+
+   private static void checkAllEngines(KeySpec keySpec, List<String> expected, String... lines) {
+      for (SortEngine engine : SortEngine.values()) {
+         Chunk ch = chunkOf(keySpec, false, lines);
+         engine.sort(ch);
+         assertEquals(engine.engineName(), expected, linesOf(ch));
+      }
+
+      for (int i = 1; i < expected.size(); i++)
+         assertTrue(keySpec.compareLines(expected.get(i - 1).getBytes(LATIN1), expected.get(i).getBytes(LATIN1)) < 0);
+   }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link LoserTree}.
+ *
+ * @author Serj Sintsov
+ */
+public class LoserTreeTest extends BaseChunkTest {
+
+   @Test(description = "no runs at all")
+   public void test_onNoRuns() throws IOException {
+      LoserTree tree = new LoserTree(new ChunkReader[0]);
+      assertTrue(tree.isEmpty());
+      tree.close();
+   }
+
+   @Test(description = "only empty runs and runs of empty chunks")
+   public void test_onEmptyRuns() throws IOException {
+      ChunksReader[] runs = {new ChunksReader(), new ChunksReader(chunkOf(), chunkOf()), new ChunksReader()};
+      LoserTree tree = new LoserTree(runs);
+
+      assertTrue(tree.isEmpty());
+      for (ChunksReader run : runs)
+         assertTrue(run.closed);
+      tree.close();
+   }
+
+   @Test(description = "a single run is passed through as is")
+   public void test_onOneRun() throws IOException {
+      assertEquals(sorted("a", "b", "c"), merge(new ChunksReader(chunkOf("a", "b"), chunkOf("c"))));
+   }
+
+   @Test(description = "empty runs and empty chunks between the others are skipped")
+   public void test_onEmptyRunsBetweenOthers() throws IOException {
+      List<String> merged = merge(new ChunksReader(),
+                                  new ChunksReader(chunkOf("b"), chunkOf(), chunkOf("d", "f")),
+                                  new ChunksReader(chunkOf()),
+                                  new ChunksReader(chunkOf("a", "c"), chunkOf("e")),
+                                  new ChunksReader());
+
+      assertEquals(sorted("a", "b", "c", "d", "e", "f"), merged);
+   }
+
+   @Test(description = "runs exhausted at different times, the last one holds the largest lines")
+   public void test_onExhaustedRuns() throws IOException {
+      ChunksReader shortRun = new ChunksReader(chunkOf("a"));
+      ChunksReader longRun = new ChunksReader(chunkOf("b", "c"), chunkOf("x", "y", "z"));
+      LoserTree tree = new LoserTree(new ChunkReader[]{longRun, shortRun});
+
+      List<String> merged = new ArrayList<>();
+      while (!tree.isEmpty()) {
+         merged.add(lineAt(tree.minChunk(), tree.minIndex()));
+         tree.next();
+         if (merged.size() == 1)
+            assertTrue("an exhausted run is closed at once", shortRun.closed);
+      }
+      tree.close();
+
+      assertEquals(sorted("a", "b", "c", "x", "y", "z"), merged);
+      assertTrue(longRun.closed);
+   }
+
+   @Test(description = "equal lines are taken from the runs in their order")
+   public void test_onEqualLines() throws IOException {
+      Chunk first = chunkOf("a", "b");
+      Chunk second = chunkOf("a", "b");
+      LoserTree tree = new LoserTree(new ChunkReader[]{new ChunksReader(first), new ChunksReader(second)});
+
+      Chunk[] expected = {first, second, first, second};
+      for (Chunk ch : expected) {
+         assertTrue(tree.minChunk() == ch);
+         tree.next();
+      }
+      assertTrue(tree.isEmpty());
+      tree.close();
+   }
+
+   @Test(description = "any number of runs, which is not a power of two, of random lengths")
+   public void test_onRandomRuns() throws IOException {
+      Random rnd = new Random(3);
+      for (int t = 0; t < 100; t++) {
+         List<String> all = new ArrayList<>();
+         ChunkReader[] runs = new ChunkReader[1 + rnd.nextInt(9)];
+         for (int r = 0; r < runs.length; r++) {
+            List<Chunk> chunks = new ArrayList<>();
+            List<String> run = new ArrayList<>();
+            for (int n = rnd.nextInt(20); n > 0; n--)
+               run.add(Integer.toString(rnd.nextInt(50)));
+            all.addAll(run);
+            run = sorted(run.toArray(new String[run.size()]));
+
+            for (int i = 0; i < run.size(); ) {
+               int n = Math.min(run.size() - i, rnd.nextInt(4));
+               chunks.add(chunkOf(run.subList(i, i + n).toArray(new String[n])));
+               i += n;
+            }
+            runs[r] = new ChunksReader(chunks.toArray(new Chunk[chunks.size()]));
+         }
+
+         assertEquals(sorted(all.toArray(new String[all.size()])), merge(runs));
+      }
+   }
+
+   private static List<String> merge(ChunkReader... runs) throws IOException {
+      List<String> merged = new ArrayList<>();
+      LoserTree tree = new LoserTree(runs);
+      while (!tree.isEmpty()) {
+         merged.add(lineAt(tree.minChunk(), tree.minIndex()));
+         tree.next();
+      }
+      tree.close();
+      return merged;
+   }
+
+}
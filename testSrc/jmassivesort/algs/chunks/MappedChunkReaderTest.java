@@ -0,0 +1,105 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link MappedChunkReader}.
+ *
+ * @author Serj Sintsov
+ */
+public class MappedChunkReaderTest extends BaseChunkTest {
+
+   @Test(description = "the whole chunk is copied into an array of its size if it fits the region size")
+   public void test_oneRegion() throws IOException {
+      Path in = writeLines(new Path(createTmpDir("oneRegion"), "in.txt"), "bb", "a", "", "ccc");
+
+      MappedChunkReader rd = new MappedChunkReader(localFs(), in, 0, 10, 100, KeySpec.WHOLE_LINE);
+      try {
+         Chunk ch = rd.nextChunk();
+         assertEquals(Arrays.asList("bb", "a", "", "ccc"), linesOf(ch));
+         assertEquals(10, ch.rawData().length);
+         assertNull(rd.nextChunk());
+      }
+      finally {
+         rd.close();
+      }
+   }
+
+   @Test(description = "regions of a chunk larger than the region size refill the same array of at most that size")
+   public void test_regionsRefillOneArray() throws IOException {
+      String[] lines = new String[200];
+      for (int i = 0; i < lines.length; i++)
+         lines[i] = repeat((char) ('a' + i % 26), 1 + i * 7 % 13);
+      Path in = writeLines(new Path(createTmpDir("regionsRefillOneArray"), "in.txt"), lines);
+      long fLen = localFs().getFileStatus(in).getLen();
+
+      int regionSz = 50;
+      MappedChunkReader rd = new MappedChunkReader(localFs(), in, 0, fLen, regionSz, KeySpec.WHOLE_LINE);
+      try {
+         List<String> read = new ArrayList<>();
+         byte[] data = null;
+         int regions = 0;
+         Chunk ch;
+         while ((ch = rd.nextChunk()) != null) {
+            if (data == null)
+               data = ch.rawData();
+            assertSame(data, ch.rawData());
+            read.addAll(linesOf(ch));
+            regions++;
+         }
+
+         assertEquals(regionSz, data.length);
+         assertTrue(regions >= fLen / regionSz);
+         assertEquals(Arrays.asList(lines), read);
+      }
+      finally {
+         rd.close();
+      }
+   }
+
+   @Test(description = "a line longer than the region size can't be read", expectedExceptions = IOException.class)
+   public void test_lineLongerThanRegion() throws IOException {
+      Path in = writeLines(new Path(createTmpDir("lineLongerThanRegion"), "in.txt"), "a", repeat('b', 20));
+
+      MappedChunkReader rd = new MappedChunkReader(localFs(), in, 0, 23, 10, KeySpec.WHOLE_LINE);
+      try {
+         while (rd.nextChunk() != null) ;
+      }
+      finally {
+         rd.close();
+      }
+   }
+
+   private static String repeat(char c, int n) {
+      char[] chars = new char[n];
+      Arrays.fill(chars, c);
+      return new String(chars);
+   }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link MergePlanner}.
+ *
+ * @author Serj Sintsov
+ */
+public class MergePlannerTest {
+
+   private static final Path TMP_DIR = new Path("/tmp/runs");
+   private static final Path OUT = new Path("/out/sorted");
+
+   @Test(description = "runs which fit into the fan-in are merged in one step right into the output")
+   public void test_onFewRuns() {
+      List<MergePlanner.MergeStep> steps = plan(5, 10, 1);
+
+      assertEquals(1, steps.size());
+      assertEquals(5, steps.get(0).getInputs().size());
+      assertEquals(OUT, steps.get(0).getOutput());
+      assertFalse(steps.get(0).isIntermediate());
+   }
+
+   @Test(description = "one run or no runs at all are still copied to the output")
+   public void test_onOneRun() {
+      assertEquals(1, plan(1, 2, 1).size());
+      assertEquals(1, plan(0, 2, 1).size());
+   }
+
+   @Test(description = "the first step merges just enough runs so all the others merge exactly fan-in runs")
+   public void test_stepCounts() {
+      // (numRuns - 1) / (fanIn - 1) merges rounded up, the first one takes the remainder
+      checkSteps(11, 10, new int[]{2, 10});
+      checkSteps(10, 3, new int[]{2, 3, 3, 3, 3});
+      checkSteps(9, 3, new int[]{3, 3, 3, 3});
+      checkSteps(100, 10, new int[]{10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10});
+      checkSteps(5, 2, new int[]{2, 2, 2, 2});
+   }
+
+   @Test(description = "the shortest runs are merged first")
+   public void test_shortestRunsFirst() {
+      List<FileStatus> runs = new ArrayList<>();
+      long[] lengths = {50, 10, 40, 20, 30};
+      for (int i = 0; i < lengths.length; i++)
+         runs.add(run(i, lengths[i]));
+
+      List<MergePlanner.MergeStep> steps = new MergePlanner(3).plan(runs, TMP_DIR, ".chunk", OUT);
+
+      assertEquals(2, steps.size());
+      assertEquals(runPath(1), steps.get(0).getInputs().get(0));
+      assertEquals(runPath(3), steps.get(0).getInputs().get(1));
+      assertEquals(runPath(4), steps.get(0).getInputs().get(2));
+      assertTrue(steps.get(1).getInputs().contains(steps.get(0).getOutput()));
+      assertEquals(3, steps.get(1).getInputs().size());
+   }
+
+   @Test(description = "fan-in is reduced as long as the number of passes stays the same")
+   public void test_fanIn() {
+      assertEquals(2, MergePlanner.fanIn(1, 128));
+      assertEquals(100, MergePlanner.fanIn(100, 128));
+      assertEquals(12, MergePlanner.fanIn(129, 128));
+      assertEquals(10, MergePlanner.fanIn(100, 10));
+      assertEquals(5, MergePlanner.fanIn(101, 10));
+      assertEquals(2, MergePlanner.fanIn(1000, 2));
+   }
+
+   @Test(description = "fan-in less than 2 can't merge anything", expectedExceptions = IllegalArgumentException.class)
+   public void test_onTooSmallFanIn() {
+      new MergePlanner(1);
+   }
+
+   private static void checkSteps(int numRuns, int fanIn, int[] expectedInputs) {
+      List<MergePlanner.MergeStep> steps = plan(numRuns, fanIn, 1);
+
+      assertEquals(expectedInputs.length, steps.size());
+      for (int i = 0; i < steps.size(); i++) {
+         MergePlanner.MergeStep step = steps.get(i);
+         assertEquals(expectedInputs[i], step.getInputs().size());
+         assertEquals(i < steps.size() - 1, step.isIntermediate());
+         if (step.isIntermediate())
+            assertEquals(TMP_DIR, step.getOutput().getParent());
+      }
+      assertEquals(OUT, steps.get(steps.size() - 1).getOutput());
+   }
+
+   private static List<MergePlanner.MergeStep> plan(int numRuns, int fanIn, long runLen) {
+      List<FileStatus> runs = new ArrayList<>();
+      for (int i = 0; i < numRuns; i++)
+         runs.add(run(i, runLen));
+      return new MergePlanner(fanIn).plan(runs, TMP_DIR, ".chunk", OUT);
+   }
+
+   private static FileStatus run(int i, long len) {
+      return new FileStatus(len, false, 1, 0, 0, runPath(i));
+   }
+
+   private static Path runPath(int i) {
+      return new Path(TMP_DIR, i + ".chunk");
+   }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for the numeric keys {@code -n} of {@link KeySpec}: lines are sorted
+ * as {@link Long#parseLong(String)} values of their first keys, then by their bytes.
+ *
+ * @author Serj Sintsov
+ */
+public class NumericKeyTest extends BaseChunkTest {
+
+   private static final KeySpec NUMERIC = new KeySpec(new int[0], new int[0], (byte) '\t', true);
+   private static final KeySpec NUMERIC_SECOND_FIELD = new KeySpec(new int[]{2}, new int[]{2}, (byte) ',', true);
+
+   @Test(description = "prefix is the value shifted to compare as unsigned, leading blanks and sign are parsed")
+   public void test_prefixOfNumbers() {
+      checkPrefix(0, "0");
+      checkPrefix(0, "-0");
+      checkPrefix(42, "42");
+      checkPrefix(42, "  \t42");
+      checkPrefix(-17, "-17");
+      checkPrefix(-17, "\t -17");
+      checkPrefix(7, "007");
+      checkPrefix(12, "12abc");
+      checkPrefix(3, "3 4");
+   }
+
+   @Test(description = "a line without digits before other bytes is 0")
+   public void test_prefixWithoutDigits() {
+      checkPrefix(0, "");
+      checkPrefix(0, "   ");
+      checkPrefix(0, "abc");
+      checkPrefix(0, "-");
+      checkPrefix(0, "- 5");
+      checkPrefix(0, "+5");
+      checkPrefix(0, "x12");
+   }
+
+   @Test(description = "the whole range of long is parsed")
+   public void test_prefixOfLimits() {
+      checkPrefix(Long.MAX_VALUE, String.valueOf(Long.MAX_VALUE));
+      checkPrefix(Long.MIN_VALUE, String.valueOf(Long.MIN_VALUE));
+      checkPrefix(Long.MAX_VALUE, "000" + Long.MAX_VALUE);
+      checkPrefix(Long.MIN_VALUE + 1, String.valueOf(Long.MIN_VALUE + 1));
+   }
+
+   @Test(description = "a number above the max value of long is out of range",
+         expectedExceptions = NumberFormatException.class)
+   public void test_prefixAboveMax() {
+      prefixOf("9223372036854775808");
+   }
+
+   @Test(description = "a number below the min value of long is out of range",
+         expectedExceptions = NumberFormatException.class)
+   public void test_prefixBelowMin() {
+      prefixOf("-9223372036854775809");
+   }
+
+   @Test(description = "a number of many digits is out of range rather than wrapped around",
+         expectedExceptions = NumberFormatException.class)
+   public void test_prefixOfManyDigits() {
+      prefixOf("123456789012345678901234567890");
+   }
+
+   @Test(description = "a chunk with a number out of range can't be read",
+         expectedExceptions = NumberFormatException.class)
+   public void test_chunkOutOfRange() {
+      chunkOf(NUMERIC, false, "1", "99999999999999999999", "2");
+   }
+
+   @Test(description = "lines are sorted by their values, negative numbers, blanks and lines without digits")
+   public void test_sortNumbers() {
+      checkAllEngines(NUMERIC, "10", "9", "-1", "  3", "abc", "-20", "", "0", "\t-3", "100", "2x");
+   }
+
+   @Test(description = "the min and max values of long go first and last")
+   public void test_sortLimits() {
+      checkAllEngines(NUMERIC, String.valueOf(Long.MAX_VALUE), "0", String.valueOf(Long.MIN_VALUE), "-1", "1",
+                      String.valueOf(Long.MAX_VALUE - 1), String.valueOf(Long.MIN_VALUE + 1));
+   }
+
+   @Test(description = "lines with equal values are ordered by their bytes")
+   public void test_sortTiesByBytes() {
+      checkAllEngines(NUMERIC, "5", "5b", "  5", "05", "5a", "\t5", "-0", "0", "x", "", "+0", "00");
+   }
+
+   @Test(description = "the first key is the number, lines with equal numbers are ordered by their bytes")
+   public void test_sortByKey() {
+      checkAllEngines(NUMERIC_SECOND_FIELD, "b,10", "a,9", "c,-1", "d", "e,", "a,10", "b,9x", "b, 9");
+   }
+
+   @Test(description = "random numbers in the whole range of long with blanks, signs and suffixes")
+   public void test_sortRandomNumbers() {
+      Random rnd = new Random(42);
+      String[] blanks = {"", " ", "  ", "\t"};
+      String[] suffixes = {"", "", "a", " b", ".5"};
+      for (int t = 0; t < 100; t++) {
+         String[] lines = new String[rnd.nextInt(300)];
+         for (int i = 0; i < lines.length; i++) {
+            long value;
+            switch (rnd.nextInt(4)) {
+               case 0: value = rnd.nextLong(); break;
+               case 1: value = rnd.nextInt(21) - 10; break;
+               case 2: value = rnd.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE; break;
+               default: value = rnd.nextInt(); break;
+            }
+            lines[i] = rnd.nextInt(20) == 0 ? "none"
+                  : blanks[rnd.nextInt(blanks.length)] + value + suffixes[rnd.nextInt(suffixes.length)];
+         }
+         checkAllEngines(NUMERIC, lines);
+      }
+   }
+
+   private static void checkPrefix(long expected, String line) {
+      assertEquals(line, expected ^ Long.MIN_VALUE, prefixOf(line));
+   }
+
+   private static long prefixOf(String line) {
+      byte[] data = line.getBytes(LATIN1);
+      return KeySpec.numericPrefix(data, 0, data.length);
+   }
+
+   private static void checkAllEngines(KeySpec keySpec, String... lines) {
+      List<String> expected = numericallySorted(keySpec, lines);
+      for (SortEngine engine : SortEngine.values()) {
+         Chunk ch = chunkOf(keySpec, false, lines);
+         engine.sort(ch);
+         assertEquals(engine.engineName(), expected, linesOf(ch));
+      }
+   }
+
+   /**
+    * @return lines sorted by {@link Long#parseLong(String)} of the leading number of the key, then by their bytes
+    */
+   private static List<String> numericallySorted(final KeySpec keySpec, String... lines) {
+      List<String> sorted = new ArrayList<>(Arrays.asList(lines));
+      Collections.sort(sorted, new Comparator<String>() {
+         @Override
+         public int compare(String l1, String l2) {
+            int c = Long.compare(valueOf(keyOf(keySpec, l1)), valueOf(keyOf(keySpec, l2)));
+            return c != 0 ? c : l1.compareTo(l2);
+         }
+      });
+      return sorted;
+   }
+
+   private static String keyOf(KeySpec keySpec, String line) {
+      if (keySpec.isWholeLine())
+         return line;
+      String[] fields = line.split(",", -1);
+      return fields.length > 1 ? fields[1] : "";
+   }
+
+   private static long valueOf(String key) {
+      int i = 0;
+      while (i < key.length() && (key.charAt(i) == ' ' || key.charAt(i) == '\t'))
+         i++;
+      int start = i;
+      if (i < key.length() && key.charAt(i) == '-')
+         i++;
+      int digits = i;
+      while (i < key.length() && Character.isDigit(key.charAt(i)))
+         i++;
+      return i == digits ? 0 : Long.parseLong(key.substring(start, i));
+   }
+
+}
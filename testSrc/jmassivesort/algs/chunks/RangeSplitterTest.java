@@ -0,0 +1,162 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link RangeSplitter}.
+ *
+ * @author Serj Sintsov
+ */
+public class RangeSplitterTest extends BaseChunkTest {
+
+   private static final KeySpec FIRST_FIELD = new KeySpec(new int[]{1}, new int[]{1}, (byte) ',', false);
+
+   @Test(description = "every bound is the first line which is not less than the splitter")
+   public void test_boundsOfRuns() throws IOException {
+      Path dir = createTmpDir("boundsOfRuns");
+      Path run1 = writeLines(new Path(dir, "1.chunk"), "a", "b", "c", "d", "e");
+      Path run2 = writeLines(new Path(dir, "2.chunk"), "b", "b", "c", "x");
+
+      long[][] bounds = bounds(Arrays.asList(run1, run2), KeySpec.WHOLE_LINE, DuplicateMode.KEEP, "c", "d");
+
+      assertEquals(Arrays.toString(new long[]{0, 4, 6, 10}), Arrays.toString(bounds[0]));
+      assertEquals(Arrays.toString(new long[]{0, 4, 6, 8}), Arrays.toString(bounds[1]));
+   }
+
+   @Test(description = "splitters before the first line and after the last one give empty ranges")
+   public void test_boundsOutOfRun() throws IOException {
+      Path dir = createTmpDir("boundsOutOfRun");
+      Path run = writeLines(new Path(dir, "1.chunk"), "b", "c");
+      Path empty = writeLines(new Path(dir, "2.chunk"));
+
+      long[][] bounds = bounds(Arrays.asList(run, empty), KeySpec.WHOLE_LINE, DuplicateMode.KEEP, "a", "z");
+
+      assertEquals(Arrays.toString(new long[]{0, 0, 4, 4}), Arrays.toString(bounds[0]));
+      assertEquals(Arrays.toString(new long[]{0, 0, 0, 0}), Arrays.toString(bounds[1]));
+   }
+
+   @Test(description = "lines longer than the probe buffer are read and compared as a whole")
+   public void test_boundsOfLongLines() throws IOException {
+      String[] lines = new String[20];
+      for (int i = 0; i < lines.length; i++)
+         lines[i] = String.format("%02d", i) + repeat('x', 5000);
+      Path run = writeLines(new Path(createTmpDir("boundsOfLongLines"), "1.chunk"), lines);
+
+      long[][] bounds = bounds(Collections.singletonList(run), KeySpec.WHOLE_LINE, DuplicateMode.KEEP,
+                               lines[7], "07");
+
+      assertEquals(7L * lines[0].length() + 7, bounds[0][1]);
+      assertEquals(7L * lines[0].length() + 7, bounds[0][2]);
+   }
+
+   @Test(description = "lines with the key of a splitter go after it unless duplicates are kept")
+   public void test_boundsOfEqualKeys() throws IOException {
+      Path run = writeLines(new Path(createTmpDir("boundsOfEqualKeys"), "1.chunk"), "b,2", "c,1", "c,9", "d,0");
+
+      long[][] kept = bounds(Collections.singletonList(run), FIRST_FIELD, DuplicateMode.KEEP, "c,5");
+      long[][] unique = bounds(Collections.singletonList(run), FIRST_FIELD, DuplicateMode.UNIQUE, "c,5");
+
+      assertEquals(8, kept[0][1]);
+      assertEquals(4, unique[0][1]);
+   }
+
+   @Test(description = "counts of counted runs are skipped by the search")
+   public void test_boundsOfCountedRun() throws IOException {
+      Path run = writeLines(new Path(createTmpDir("boundsOfCountedRun"), "1.chunk"), "9\ta", "1\tb", "12\tc");
+
+      long[][] bounds = bounds(Collections.singletonList(run), KeySpec.WHOLE_LINE, DuplicateMode.COUNT, "b");
+
+      assertEquals(4, bounds[0][1]);
+   }
+
+   @Test(description = "splitters are sorted and divide the lines of all the runs into about equal ranges")
+   public void test_sampleSplitters() throws IOException {
+      Path dir = createTmpDir("sampleSplitters");
+      Path run1 = writeLines(new Path(dir, "1.chunk"), numbers(0, 1000, 2));
+      Path run2 = writeLines(new Path(dir, "2.chunk"), numbers(1, 1000, 2));
+      Path empty = writeLines(new Path(dir, "3.chunk"));
+
+      List<byte[]> splitters = RangeSplitter.sampleSplitters(localFs(), Arrays.asList(run1, empty, run2), 4, 16,
+                                                             KeySpec.WHOLE_LINE, DuplicateMode.KEEP);
+
+      assertEquals(3, splitters.size());
+      for (int s = 0; s < splitters.size(); s++) {
+         int value = Integer.parseInt(new String(splitters.get(s), LATIN1));
+         assertTrue("splitter " + value, Math.abs(value - 250 * (s + 1)) <= 50);
+      }
+   }
+
+   @Test(description = "splitters of counted runs have no counts")
+   public void test_sampleSplittersOfCountedRun() throws IOException {
+      Path run = writeLines(new Path(createTmpDir("sampleSplittersOfCountedRun"), "1.chunk"), "3\ta", "1\tb",
+                            "2\tc", "7\td");
+
+      List<byte[]> splitters = RangeSplitter.sampleSplitters(localFs(), Collections.singletonList(run), 2, 4,
+                                                             KeySpec.WHOLE_LINE, DuplicateMode.COUNT);
+
+      assertEquals(1, splitters.size());
+      assertEquals("c", new String(splitters.get(0), LATIN1));
+   }
+
+   @Test(description = "no lines give no splitters")
+   public void test_sampleSplittersOfEmptyRuns() throws IOException {
+      Path run = writeLines(new Path(createTmpDir("sampleSplittersOfEmptyRuns"), "1.chunk"));
+
+      assertTrue(RangeSplitter.sampleSplitters(localFs(), Collections.singletonList(run), 4, KeySpec.WHOLE_LINE,
+                                               DuplicateMode.KEEP).isEmpty());
+   }
+
+   @Test(description = "parts of the file start with lines")
+   public void test_splitByLines() throws IOException {
+      Path file = writeLines(new Path(createTmpDir("splitByLines"), "input"), "aaaaaaa", "b", "ccc", "dd");
+
+      assertEquals(Arrays.toString(new long[]{0, 8, 14, 17}),
+                   Arrays.toString(RangeSplitter.splitByLines(localFs(), file, 3)));
+   }
+
+   private static long[][] bounds(List<Path> runs, KeySpec keySpec, DuplicateMode duplicates, String... splitters)
+         throws IOException {
+      byte[][] lines = new byte[splitters.length][];
+      for (int s = 0; s < splitters.length; s++)
+         lines[s] = splitters[s].getBytes(LATIN1);
+      return RangeSplitter.bounds(localFs(), runs, Arrays.asList(lines), keySpec, duplicates);
+   }
+
+   private static String[] numbers(int from, int to, int step) {
+      String[] lines = new String[(to - from + step - 1) / step];
+      for (int i = 0; i < lines.length; i++)
+         lines[i] = String.format("%04d", from + i * step);
+      return lines;
+   }
+
+   private static String repeat(char c, int n) {
+      char[] chars = new char[n];
+      Arrays.fill(chars, c);
+      return new String(chars);
+   }
+
+}
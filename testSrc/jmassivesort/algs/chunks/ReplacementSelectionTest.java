@@ -0,0 +1,183 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link ReplacementSelection}.
+ * <p/>
+ * Reversed input makes every run exactly as large as the number of lines
+ * which fit into the memory, the other tests measure their runs by it.
+ *
+ * @author Serj Sintsov
+ */
+public class ReplacementSelectionTest extends BaseChunkTest {
+
+   private static final int LINE_LENGTH = 12;
+   private static final long MEMORY_BUDGET = 16 * 1024;
+
+   @Test(description = "reversed input gives runs of the lines which fit into the memory, packed ones take little more")
+   public void test_reversedInput() throws IOException {
+      List<String> lines = sorted(randomLines(new Random(1), 5000, LINE_LENGTH, LINE_LENGTH));
+      Collections.reverse(lines);
+
+      List<List<String>> runs = generate("reversedInput", MEMORY_BUDGET, DuplicateMode.KEEP, lines);
+
+      int linesInMemory = runs.get(0).size();
+      assertTrue("lines take their bytes and less than 32 bytes more",
+                 linesInMemory >= MEMORY_BUDGET / (LINE_LENGTH + 32));
+      for (int r = 0; r < runs.size() - 1; r++)
+         assertEquals(linesInMemory, runs.get(r).size());
+      checkRuns(lines, runs);
+   }
+
+   @Test(description = "random input gives runs about twice as large as the memory")
+   public void test_randomInput() throws IOException {
+      List<String> lines = randomLines(new Random(2), 50000, LINE_LENGTH, LINE_LENGTH);
+
+      List<List<String>> runs = generate("randomInput", MEMORY_BUDGET, DuplicateMode.KEEP, lines);
+
+      double avg = (double) (lines.size() - runs.get(runs.size() - 1).size()) / (runs.size() - 1);
+      double ratio = avg / linesInMemory("randomInputMemory", MEMORY_BUDGET);
+      assertTrue("runs are " + ratio + " times as large as the memory", ratio > 1.8 && ratio < 2.2);
+      checkRuns(lines, runs);
+   }
+
+   @Test(description = "sorted input and input sorted except for local disorder become a single run")
+   public void test_sortedInput() throws IOException {
+      List<String> lines = sorted(randomLines(new Random(3), 20000, 1, 30));
+      assertEquals(1, generate("sortedInput", MEMORY_BUDGET, DuplicateMode.KEEP, lines).size());
+
+      Random rnd = new Random(3);
+      List<String> disordered = new ArrayList<>(lines);
+      for (int i = 0; i + 50 < disordered.size(); i += 50)
+         Collections.shuffle(disordered.subList(i, i + 50), rnd);
+      List<List<String>> runs = generate("disorderedInput", MEMORY_BUDGET, DuplicateMode.KEEP, disordered);
+      assertEquals(1, runs.size());
+      checkRuns(disordered, runs);
+   }
+
+   @Test(description = "lines of very different lengths are moved together when the gaps are closed")
+   public void test_linesOfDifferentLengths() throws IOException {
+      List<String> lines = randomLines(new Random(4), 20000, 0, 300);
+      lines.set(777, randomLines(new Random(5), 1, 20000, 20000).get(0)); // larger than the memory
+
+      List<List<String>> runs = generate("linesOfDifferentLengths", MEMORY_BUDGET, DuplicateMode.KEEP, lines);
+
+      assertTrue(runs.size() > 1);
+      checkRuns(lines, runs);
+   }
+
+   @Test(description = "no input gives no runs")
+   public void test_emptyInput() throws IOException {
+      assertEquals(0, generate("emptyInput", MEMORY_BUDGET, DuplicateMode.KEEP, Collections.<String>emptyList())
+            .size());
+   }
+
+   @Test(description = "duplicates within a run are written once, with their count if they are counted")
+   public void test_duplicates() throws IOException {
+      List<String> lines = randomLines(new Random(6), 20000, 1, 2);
+
+      List<List<String>> unique = generate("uniqueDuplicates", MEMORY_BUDGET, DuplicateMode.UNIQUE, lines);
+      List<List<String>> counted = generate("countedDuplicates", MEMORY_BUDGET, DuplicateMode.COUNT, lines);
+
+      Map<String, Integer> expected = new HashMap<>();
+      for (String line : lines)
+         expected.put(line, expected.containsKey(line) ? expected.get(line) + 1 : 1);
+      Map<String, Integer> counts = new HashMap<>();
+      for (List<String> run : counted) {
+         for (String line : run) {
+            int tab = line.indexOf('\t');
+            String key = line.substring(tab + 1);
+            int count = Integer.parseInt(line.substring(0, tab));
+            counts.put(key, counts.containsKey(key) ? counts.get(key) + count : count);
+         }
+      }
+      assertEquals(expected, counts);
+
+      assertEquals(counted.size(), unique.size());
+      for (List<String> run : unique) {
+         for (int i = 1; i < run.size(); i++)
+            assertTrue(run.get(i - 1).compareTo(run.get(i)) < 0);
+      }
+   }
+
+   /**
+    * @return number of lines of {@link #LINE_LENGTH} which fit into the memory
+    */
+   private int linesInMemory(String name, long memoryBudget) throws IOException {
+      List<String> lines = sorted(randomLines(new Random(7), 5000, LINE_LENGTH, LINE_LENGTH));
+      Collections.reverse(lines);
+      return generate(name, memoryBudget, DuplicateMode.KEEP, lines).get(0).size();
+   }
+
+   /**
+    * Every run is sorted and all of them have the lines of the input.
+    */
+   private static void checkRuns(List<String> lines, List<List<String>> runs) {
+      List<String> all = new ArrayList<>();
+      for (List<String> run : runs) {
+         assertEquals(sorted(run), run);
+         all.addAll(run);
+      }
+      assertEquals(sorted(lines), sorted(all));
+   }
+
+   private List<List<String>> generate(String name, long memoryBudget, DuplicateMode duplicates, List<String> lines)
+         throws IOException {
+      Path dir = createTmpDir(name);
+
+      List<Chunk> chunks = new ArrayList<>();
+      for (int i = 0; i < lines.size(); i += 1000) {
+         List<String> part = lines.subList(i, Math.min(lines.size(), i + 1000));
+         chunks.add(chunkOf(part.toArray(new String[part.size()])));
+      }
+      int numRuns = new ReplacementSelection(memoryBudget, localFs(), dir, null, KeySpec.WHOLE_LINE, duplicates)
+            .generate(new ChunksReader(chunks.toArray(new Chunk[chunks.size()])));
+
+      List<List<String>> runs = new ArrayList<>();
+      for (int r = 1; r <= numRuns; r++)
+         runs.add(readLines(ChunkSortingOptions.chunkOutPath(dir, r, null)));
+      assertEquals(numRuns, localFs().listStatus(dir).length);
+      return runs;
+   }
+
+   private static List<String> randomLines(Random rnd, int n, int minLength, int maxLength) {
+      List<String> lines = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+         char[] line = new char[minLength + rnd.nextInt(maxLength - minLength + 1)];
+         for (int k = 0; k < line.length; k++)
+            line[k] = (char) ('a' + rnd.nextInt(26));
+         lines.add(new String(line));
+      }
+      return lines;
+   }
+
+}
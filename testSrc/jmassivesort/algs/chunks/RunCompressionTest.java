@@ -0,0 +1,212 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.SortingAlgorithmException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link RunCompression}: compressed runs read back as they were written
+ * and can't be read by byte positions.
+ *
+ * @author Serj Sintsov
+ */
+public class RunCompressionTest extends BaseChunkTest {
+
+   private static final String[] CODECS = {"deflate", "gzip"};
+
+   @Test(description = "a compressed run reads back to the same lines")
+   public void test_roundTrip() throws IOException {
+      List<String> lines = randomLines(new Random(42), 20000);
+      Path dir = createTmpDir("roundTrip");
+
+      for (String name : CODECS) {
+         CompressionCodec codec = codec(name);
+         Path run = writeRun(RunCompression.withExtension(new Path(dir, name + ".chunk"), codec), codec, lines);
+
+         assertTrue(run.getName().endsWith(codec.getDefaultExtension()));
+         assertEquals(codec.getClass(), RunCompression.codecOf(localFs(), run).getClass());
+         assertTrue("run is compressed", localFs().getFileStatus(run).getLen() < bytesOf(lines));
+         assertEquals(name, lines, readRun(run, 64 * 1024));
+         assertEquals(name, lines, readRun(run, 100));
+      }
+   }
+
+   @Test(description = "an empty run and a run of empty lines read back as they were")
+   public void test_roundTripOfEmptyLines() throws IOException {
+      Path dir = createTmpDir("roundTripOfEmptyLines");
+      CompressionCodec codec = codec("deflate");
+
+      Path empty = writeRun(RunCompression.withExtension(new Path(dir, "1.chunk"), codec), codec,
+                            Collections.<String>emptyList());
+      assertEquals(Collections.<String>emptyList(), readRun(empty, 100));
+
+      Path emptyLines = writeRun(RunCompression.withExtension(new Path(dir, "2.chunk"), codec), codec,
+                                 Arrays.asList("", "", "a", ""));
+      assertEquals(Arrays.asList("", "", "a", ""), readRun(emptyLines, 100));
+   }
+
+   @Test(description = "a run without a codec extension is not compressed")
+   public void test_uncompressedRun() throws IOException {
+      Path run = writeRun(new Path(createTmpDir("uncompressedRun"), "1.chunk"), null, Arrays.asList("a", "b"));
+
+      assertNull(RunCompression.codecOf(localFs(), run));
+      assertEquals(run, RunCompression.withExtension(run, null));
+      assertEquals(Arrays.asList("a", "b"), readLines(run));
+   }
+
+   @Test(description = "an unknown codec is rejected", expectedExceptions = IllegalArgumentException.class)
+   public void test_unknownCodec() {
+      codec("nosuchcodec");
+   }
+
+   @Test(description = "a compressed run can't be read by ranges", expectedExceptions = IllegalArgumentException.class)
+   public void test_rangeOfCompressedRun() throws IOException {
+      CompressionCodec codec = codec("deflate");
+      Path run = writeRun(RunCompression.withExtension(new Path(createTmpDir("rangeOfCompressedRun"), "1.chunk"),
+                                                       codec), codec, Arrays.asList("a", "b"));
+
+      new SequentialChunkReader(100, localFs(), run, 0, 2).close();
+   }
+
+   @Test(description = "compressed runs can't be split into key ranges by byte positions")
+   public void test_splittingCompressedRuns() throws IOException {
+      CompressionCodec codec = codec("deflate");
+      Path dir = createTmpDir("splittingCompressedRuns");
+      List<Path> runs = Arrays.asList(
+            writeRun(new Path(dir, "1.chunk"), null, sorted(randomLines(new Random(1), 1000))),
+            writeRun(RunCompression.withExtension(new Path(dir, "2.chunk"), codec), codec,
+                     sorted(randomLines(new Random(2), 1000))));
+
+      try {
+         RangeSplitter.sampleSplitters(localFs(), runs, 4, KeySpec.WHOLE_LINE, DuplicateMode.KEEP);
+         fail("compressed run is sampled");
+      }
+      catch (IllegalArgumentException e) {
+         assertTrue(e.getMessage().contains("2.chunk"));
+      }
+
+      try {
+         RangeSplitter.bounds(localFs(), runs, Collections.singletonList("m".getBytes(LATIN1)), KeySpec.WHOLE_LINE,
+                              DuplicateMode.KEEP);
+         fail("compressed run is searched");
+      }
+      catch (IllegalArgumentException e) {
+         assertTrue(e.getMessage().contains("2.chunk"));
+      }
+
+      try {
+         RangeSplitter.splitByLines(localFs(), runs.get(1), 4);
+         fail("compressed run is split");
+      }
+      catch (IllegalArgumentException e) {
+         assertTrue(e.getMessage().contains("2.chunk"));
+      }
+   }
+
+   @Test(description = "a parallel merge of compressed runs merges them one by one instead of by key ranges")
+   public void test_parallelMergeOfCompressedRuns() throws Exception {
+      CompressionCodec codec = codec("deflate");
+      Path dir = createTmpDir("parallelMergeOfCompressedRuns");
+      Path runsDir = new Path(dir, "runs");
+      List<String> all = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+         List<String> lines = sorted(randomLines(new Random(i), 2000));
+         all.addAll(lines);
+         writeRun(RunCompression.withExtension(new Path(runsDir, i + ".chunk"), codec), codec, lines);
+      }
+      Path out = new Path(dir, "output");
+
+      new ChunkMerging(new ChunkMergingOptions(out, runsDir, 0, 16, null, 4, false, KeySpec.WHOLE_LINE,
+                                               DuplicateMode.KEEP, localFs())).apply();
+
+      assertEquals(sorted(all), readLines(out));
+   }
+
+   @Test(description = "a compressed input can't be sampled by the sample sort",
+         expectedExceptions = SortingAlgorithmException.class)
+   public void test_sampleSortOfCompressedInput() throws IOException, SortingAlgorithmException {
+      CompressionCodec codec = codec("deflate");
+      Path dir = createTmpDir("sampleSortOfCompressedInput");
+      Path in = writeRun(RunCompression.withExtension(new Path(dir, "input"), codec), codec,
+                         randomLines(new Random(3), 1000));
+
+      new SampleSort(new SampleSortOptions(in, new Path(dir, "output"), new Path(dir, "tmp"), 4, 2,
+                                           64 * 1024 * 1024, SortEngine.QUICK, true, KeySpec.WHOLE_LINE,
+                                           DuplicateMode.KEEP, localFs())).apply();
+   }
+
+   private static CompressionCodec codec(String name) {
+      return RunCompression.codecByName(name, new Configuration());
+   }
+
+   private static Path writeRun(Path run, CompressionCodec codec, List<String> lines) throws IOException {
+      BufferedChunkWriter wr = new BufferedChunkWriter(localFs(), run, 4 * 1024, 1, codec);
+      try {
+         wr.write(chunkOf(lines.toArray(new String[lines.size()])));
+      }
+      finally {
+         wr.close();
+      }
+      return run;
+   }
+
+   /**
+    * @param chunkSz size of the chunks to read the run by
+    */
+   private static List<String> readRun(Path run, int chunkSz) throws IOException {
+      List<String> lines = new ArrayList<>();
+      SequentialChunkReader rd = new SequentialChunkReader(chunkSz, localFs(), run);
+      try {
+         for (Chunk ch = rd.nextChunk(); ch != null; ch = rd.nextChunk())
+            lines.addAll(linesOf(ch));
+      }
+      finally {
+         rd.close();
+      }
+      return lines;
+   }
+
+   private static List<String> randomLines(Random rnd, int n) {
+      List<String> lines = new ArrayList<>(n);
+      for (int i = 0; i < n; i++)
+         lines.add(Integer.toString(rnd.nextInt(100000), 36));
+      return lines;
+   }
+
+   private static long bytesOf(List<String> lines) {
+      long bytes = 0;
+      for (String line : lines)
+         bytes += line.length() + 1;
+      return bytes;
+   }
+
+}
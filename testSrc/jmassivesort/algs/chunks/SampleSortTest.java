@@ -0,0 +1,120 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import jmassivesort.algs.SortingAlgorithmException;
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link SampleSort}.
+ *
+ * @author Serj Sintsov
+ */
+public class SampleSortTest extends BaseChunkTest {
+
+   private static final int BUCKETS = 4;
+   private static final long MEMORY_BUDGET = 64 * 1024 * 1024;
+
+   @Test(description = "the buckets laid one after another are the sorted input")
+   public void test_onRandomLines() throws IOException, SortingAlgorithmException {
+      Random rnd = new Random(5);
+      List<String> lines = new ArrayList<>();
+      for (int i = 0; i < 5000; i++)
+         lines.add(Integer.toString(rnd.nextInt(100000), 36));
+
+      List<List<String>> buckets = sort("onRandomLines", lines, DuplicateMode.KEEP);
+
+      assertEquals(sorted(lines), concat(buckets));
+      for (List<String> bucket : buckets)
+         assertFalse(bucket.isEmpty());
+   }
+
+   @Test(description = "a line equal to several splitters is spread evenly over the buckets between them")
+   public void test_onSkewedLines() throws IOException, SortingAlgorithmException {
+      List<String> lines = skewedLines();
+
+      List<List<String>> buckets = sort("onSkewedLines", lines, DuplicateMode.KEEP);
+
+      assertEquals(sorted(lines), concat(buckets));
+      List<Integer> counts = new ArrayList<>();
+      for (List<String> bucket : buckets)
+         if (bucket.contains("m"))
+            counts.add(Collections.frequency(bucket, "m"));
+
+      assertEquals(BUCKETS - 1, counts.size());
+      assertTrue(counts.toString(), Collections.max(counts) - Collections.min(counts) <= 1);
+   }
+
+   @Test(description = "a frequent line is written once if duplicates are not kept")
+   public void test_onSkewedLinesUnique() throws IOException, SortingAlgorithmException {
+      List<String> lines = skewedLines();
+
+      List<String> sorted = concat(sort("onSkewedLinesUnique", lines, DuplicateMode.UNIQUE));
+
+      assertEquals(new ArrayList<>(new TreeSet<>(lines)), sorted);
+   }
+
+   /**
+    * @return lines where {@code m} is 9 of 10 lines, so all the splitters are {@code m}
+    */
+   private static List<String> skewedLines() {
+      List<String> lines = new ArrayList<>();
+      for (int i = 0; i < 2000; i++)
+         lines.add(i % 20 == 0 ? "a" + i : (i % 20 == 1 ? "z" + i : "m"));
+      Collections.shuffle(lines, new Random(1));
+      return lines;
+   }
+
+   /**
+    * @return lines of every bucket
+    */
+   private List<List<String>> sort(String name, List<String> lines, DuplicateMode duplicates)
+         throws IOException, SortingAlgorithmException {
+      Path dir = createTmpDir(name);
+      Path in = writeLines(new Path(dir, "input"), lines.toArray(new String[lines.size()]));
+      Path out = new Path(dir, "output");
+      Path tmp = new Path(dir, "tmp");
+
+      new SampleSort(new SampleSortOptions(in, out, tmp, BUCKETS, 2, MEMORY_BUDGET, SortEngine.QUICK, true,
+                                           KeySpec.WHOLE_LINE, duplicates, localFs())).apply();
+
+      assertFalse("parts are deleted", localFs().exists(tmp));
+      List<List<String>> buckets = new ArrayList<>();
+      for (int b = 0; b < BUCKETS; b++)
+         buckets.add(readLines(ChunkMerging.segmentPath(out, b)));
+      return buckets;
+   }
+
+   private static List<String> concat(List<List<String>> buckets) {
+      List<String> lines = new ArrayList<>();
+      for (List<String> bucket : buckets)
+         lines.addAll(bucket);
+      return lines;
+   }
+
+}
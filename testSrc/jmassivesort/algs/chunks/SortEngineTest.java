@@ -0,0 +1,88 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link SortEngine}: radix and quick sorts must give the order of {@code LC_ALL=C sort}.
+ *
+ * @author Serj Sintsov
+ */
+public class SortEngineTest extends BaseChunkTest {
+
+   @Test(description = "lines sharing prefixes longer than the 8 bytes kept in the markers")
+   public void test_onSharedPrefixes() {
+      checkAllEngines("http://example.com/b", "http://example.com/a", "http://example.com/", "http://example.com",
+                      "http://example.com/a/", "http://example.co", "", "http://example.com/ab", "http://");
+   }
+
+   @Test(description = "bytes >= 0x80 are unsigned and go after ASCII ones")
+   public void test_onHighBitBytes() {
+      checkAllEngines("\u00e9t\u00e9", "ete", "\u00ff", "z", "\u0080", "abcdefgh\u00e9", "abcdefghz", "abcdefgh",
+                      "\u00e9", "\u00e9t\u00e8");
+   }
+
+   @Test(description = "duplicates and lines which are prefixes of each other")
+   public void test_onDuplicatesAndPrefixes() {
+      checkAllEngines("aaa", "a", "aa", "aaa", "", "a", "aaaaaaaaa", "aaaaaaaa", "aaaaaaaaa");
+   }
+
+   @Test(description = "random lines of a small alphabet with long common prefixes and high-bit bytes")
+   public void test_onRandomLines() {
+      Random rnd = new Random(42);
+      char[] alphabet = {'a', 'b', '\u0080', '\u00e9'};
+      for (int t = 0; t < 200; t++) {
+         String[] lines = new String[rnd.nextInt(300)];
+         for (int i = 0; i < lines.length; i++) {
+            StringBuilder sb = new StringBuilder(rnd.nextBoolean() ? "common-prefix-" : "");
+            for (int len = rnd.nextInt(12); len > 0; len--)
+               sb.append(alphabet[rnd.nextInt(alphabet.length)]);
+            lines[i] = sb.toString();
+         }
+         checkAllEngines(lines);
+      }
+   }
+
+   private static void checkAllEngines(String... lines) {
+      List<String> expected = sorted(lines);
+      for (SortEngine engine : SortEngine.values()) {
+         Chunk ch = chunkOf(lines);
+         engine.sort(ch);
+         assertEquals(engine.engineName(), expected, linesOf(ch));
+         assertSortedPrefixes(ch);
+      }
+   }
+
+   private static void assertSortedPrefixes(Chunk ch) {
+      List<Long> prefixes = new ArrayList<>();
+      for (int i = 0; i < ch.size(); i++) {
+         long m = ch.markerAt(i);
+         assertEquals(Chunk.prefix(ch.rawData(), Chunk.offsetOf(m), Chunk.lengthOf(m)), ch.prefixAt(i));
+         prefixes.add(ch.prefixAt(i));
+      }
+      for (int i = 1; i < prefixes.size(); i++)
+         assertTrue(Chunk.comparePrefixes(prefixes.get(i - 1), prefixes.get(i)) <= 0);
+   }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link SortKeys}: encoded lines compared as bytes are in the order of the key spec.
+ *
+ * @author Serj Sintsov
+ */
+public class SortKeysTest extends BaseChunkTest {
+
+   private static final KeySpec FOLD_CASE = new KeySpec(new int[0], new int[0], (byte) '\t', false, true, null);
+   private static final KeySpec FOLD_CASE_KEYS = new KeySpec(new int[]{1, 2}, new int[]{1, 2}, (byte) ',', false,
+                                                             true, null);
+   private static final KeySpec COLLATED = new KeySpec(new int[0], new int[0], (byte) '\t', false, false,
+                                                       Locale.US);
+
+   @Test(description = "chunks of keys compared by bytes are not encoded")
+   public void test_notCollated() {
+      Chunk ch = chunkOf("b", "a");
+      assertTrue(SortKeys.encode(ch) == ch);
+   }
+
+   @Test(description = "lines are decoded as they were")
+   public void test_lineOf() {
+      Chunk encoded = SortKeys.encode(chunkOf(FOLD_CASE, false, "abc", "", "a\tb\u0001\u0000"));
+
+      assertEquals(Arrays.asList("abc", "", "a\tb\u0001\u0000"), decodedLines(encoded));
+      for (int i = 0; i < encoded.size(); i++) {
+         String line = lineAt(encoded, i);
+         assertTrue(line.indexOf('\n') < 0);
+      }
+   }
+
+   @Test(description = "bytes below EOL are escaped above the key terminator, so shorter keys go first")
+   public void test_escapedBytes() {
+      checkOrder(FOLD_CASE, "a b", "a\tb", "a", "A\u0001", "a\u0000", "a\n", "A", "");
+   }
+
+   @Test(description = "every key ends with the terminator, so keys are compared one by one")
+   public void test_keysInOrder() {
+      checkOrder(FOLD_CASE_KEYS, "ab,a", "a,x", "A,x", "a,", "ab,", "a\u0001,z", "a,x,1", "b");
+   }
+
+   @Test(description = "lines with equal sort keys are compared by their bytes")
+   public void test_equalSortKeys() {
+      checkOrder(FOLD_CASE, "abc", "ABC", "aBc", "Abc");
+   }
+
+   @Test(description = "collation keys, which have zero bytes, keep the order of the collator, lines are UTF-8")
+   public void test_collationKeys() {
+      checkOrder(COLLATED, "b", "A", "a", "C", "\u00c3\u00a0", "ab", "a b", "a-b", "", "B");
+   }
+
+   @Test(description = "random lines of letters, separators and control bytes")
+   public void test_onRandomLines() {
+      Random rnd = new Random(9);
+      char[] alphabet = {'a', 'A', 'b', 'B', ',', '\t', ' ', '\u0000', '\u0001', '\u0011'};
+      for (int t = 0; t < 100; t++) {
+         String[] lines = new String[rnd.nextInt(50)];
+         for (int i = 0; i < lines.length; i++) {
+            char[] line = new char[rnd.nextInt(6)];
+            for (int k = 0; k < line.length; k++)
+               line[k] = alphabet[rnd.nextInt(alphabet.length)];
+            lines[i] = new String(line);
+         }
+         checkOrder(FOLD_CASE, lines);
+         checkOrder(FOLD_CASE_KEYS, lines);
+      }
+   }
+
+   private static void checkOrder(KeySpec keySpec, String... lines) {
+      List<String> expected = new ArrayList<>(Arrays.asList(lines));
+      Collections.sort(expected, order(keySpec));
+
+      Chunk encoded = SortKeys.encode(chunkOf(keySpec, false, lines));
+      SortEngine.QUICK.sort(encoded);
+
+      assertEquals(expected, decodedLines(encoded));
+   }
+
+   private static List<String> decodedLines(Chunk encoded) {
+      List<String> lines = new ArrayList<>();
+      for (int i = 0; i < encoded.size(); i++) {
+         long m = SortKeys.lineOf(encoded.rawData(), encoded.markerAt(i));
+         lines.add(new String(encoded.rawData(), Chunk.offsetOf(m), Chunk.lengthOf(m), LATIN1));
+      }
+      return lines;
+   }
+
+   /**
+    * @return the order of the key spec: keys one by one, then the lines as bytes
+    */
+   private static Comparator<String> order(final KeySpec keySpec) {
+      final Collator collator = Collator.getInstance(Locale.US);
+      return new Comparator<String>() {
+         @Override
+         public int compare(String l1, String l2) {
+            List<String> keys1 = keysOf(l1, keySpec);
+            List<String> keys2 = keysOf(l2, keySpec);
+            for (int k = 0; k < keys1.size(); k++) {
+               int c = keySpec == COLLATED ? collator.compare(utf8(keys1.get(k)), utf8(keys2.get(k)))
+                                           : keys1.get(k).toUpperCase(Locale.ROOT)
+                                                          .compareTo(keys2.get(k).toUpperCase(Locale.ROOT));
+               if (c != 0)
+                  return c;
+            }
+            return l1.compareTo(l2);
+         }
+      };
+   }
+
+   private static List<String> keysOf(String line, KeySpec keySpec) {
+      if (keySpec != FOLD_CASE_KEYS)
+         return Collections.singletonList(line);
+
+      String[] fields = line.split(",", -1);
+      return Arrays.asList(fields[0], fields.length > 1 ? fields[1] : "");
+   }
+
+   /**
+    * Lines are read by the collator as UTF-8.
+    */
+   private static String utf8(String latin1) {
+      return new String(latin1.getBytes(LATIN1), StandardCharsets.UTF_8);
+   }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for {@link TopK}: the output is the head of the sorted input.
+ *
+ * @author Serj Sintsov
+ */
+public class TopKTest extends BaseChunkTest {
+
+   private static final KeySpec NUMERIC = new KeySpec(new int[0], new int[0], (byte) '\t', true);
+
+   @Test(description = "the first k lines are written in order")
+   public void test_firstLines() throws IOException {
+      checkTopK(3, "d", "b", "e", "a", "c");
+      checkTopK(1, "d", "b", "e", "a", "c");
+   }
+
+   @Test(description = "duplicates at the k-th line are kept as many times as they fit")
+   public void test_duplicatesAtBoundary() throws IOException {
+      checkTopK(3, "c", "b", "b", "a", "b", "d");
+      checkTopK(4, "b", "b", "b", "b", "b", "b");
+      checkTopK(2, "", "b", "", "", "a");
+   }
+
+   @Test(description = "lines with equal keys at the k-th line are ordered by their bytes")
+   public void test_equalKeysAtBoundary() throws IOException {
+      assertEquals(Arrays.asList("-1", "5 a", "5 b"), topK(NUMERIC, false, 3, "5 c", "5 b", "7", "-1", "5 a"));
+   }
+
+   @Test(description = "k larger than the input gives the whole input sorted, an empty input gives nothing")
+   public void test_kLargerThanInput() throws IOException {
+      checkTopK(10, "c", "a", "b", "a");
+      checkTopK(4, "c", "a", "b", "a");
+      checkTopK(5);
+   }
+
+   @Test(description = "reversed, the last k lines are written in descending order")
+   public void test_lastLines() throws IOException {
+      assertEquals(Arrays.asList("e", "d", "d"), topK(KeySpec.WHOLE_LINE, true, 3, "d", "a", "e", "b", "d", "c"));
+      assertEquals(Arrays.asList("b", "a"), topK(KeySpec.WHOLE_LINE, true, 5, "a", "b"));
+   }
+
+   @Test(description = "random lines with many duplicates, k is less and greater than the growing heap capacity")
+   public void test_randomLines() throws IOException {
+      Random rnd = new Random(42);
+      String[] lines = new String[3000];
+      for (int i = 0; i < lines.length; i++)
+         lines[i] = Integer.toString(rnd.nextInt(500), 36);
+
+      for (int k : new int[]{1, 7, 100, 1023, 1024, 1025, 2000, 2999, 3000, 5000})
+         checkTopK(k, lines);
+   }
+
+   private void checkTopK(int k, String... lines) throws IOException {
+      List<String> sorted = sorted(lines);
+      assertEquals("k=" + k, sorted.subList(0, Math.min(k, sorted.size())),
+                   topK(KeySpec.WHOLE_LINE, false, k, lines));
+
+      Collections.reverse(sorted);
+      assertEquals("reversed k=" + k, sorted.subList(0, Math.min(k, sorted.size())),
+                   topK(KeySpec.WHOLE_LINE, true, k, lines));
+   }
+
+   private List<String> topK(KeySpec keySpec, boolean reverse, int k, String... lines) throws IOException {
+      Path dir = createTmpDir("topK");
+      Path in = writeLines(new Path(dir, "in.txt"), lines);
+      Path out = new Path(dir, "out.txt");
+
+      new TopK(new TopKOptions(in, out, k, reverse, keySpec, localFs())).apply();
+      return new ArrayList<>(readLines(out));
+   }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013 Serj Sintsov <ssivikt@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmassivesort.algs.chunks;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for {@link UnsignedBytes}: the word-wise comparison agrees with the byte-wise one.
+ *
+ * @author Serj Sintsov
+ */
+public class UnsignedBytesTest {
+
+   private static final int MAX_LENGTH = 3 * UnsignedBytes.WORDS_THRESHOLD + 10;
+   private static final byte[] DIFFERENT_BYTES = {0, 1, 'a', 0x7F, (byte) 0x80, (byte) 0xE9, (byte) 0xFF};
+
+   @Test(description = "equal ranges of every length around the word and threshold boundaries")
+   public void test_equalRanges() {
+      for (int len = 0; len <= MAX_LENGTH; len++) {
+         byte[] a = filled(len, (byte) 'x');
+         assertEquals(0, UnsignedBytes.compare(a, 0, len, a.clone(), 0, len));
+      }
+   }
+
+   @Test(description = "ranges which differ in one byte, at every position, by ASCII and high-bit bytes")
+   public void test_differentByte() {
+      for (int len = 1; len <= MAX_LENGTH; len++)
+         for (int pos = 0; pos < len; pos++)
+            for (byte b1 : DIFFERENT_BYTES)
+               for (byte b2 : DIFFERENT_BYTES) {
+                  byte[] a = filled(len, (byte) 'x');
+                  byte[] b = filled(len, (byte) 'x');
+                  a[pos] = b1;
+                  b[pos] = b2;
+                  checkCompare(a, 0, len, b, 0, len);
+               }
+   }
+
+   @Test(description = "a range which is a prefix of the other one is less")
+   public void test_unequalLengths() {
+      for (int len1 = 0; len1 <= MAX_LENGTH; len1++)
+         for (int len2 = 0; len2 <= MAX_LENGTH; len2++) {
+            byte[] a = filled(MAX_LENGTH, (byte) 0xC0);
+            checkCompare(a, 0, len1, a, 0, len2);
+            assertEquals(Integer.signum(len1 - len2), Integer.signum(UnsignedBytes.compare(a, 0, len1, a, 0, len2)));
+         }
+   }
+
+   @Test(description = "ranges at different offsets of the same and of different arrays")
+   public void test_offsets() {
+      Random rnd = new Random(17);
+      byte[] data = new byte[4 * MAX_LENGTH];
+      for (int t = 0; t < 100000; t++) {
+         for (int i = 0; i < data.length; i++)
+            data[i] = DIFFERENT_BYTES[rnd.nextInt(2) + 4]; // two high-bit bytes, so long equal runs are common
+         int len1 = rnd.nextInt(MAX_LENGTH);
+         int len2 = rnd.nextInt(MAX_LENGTH);
+         int off1 = rnd.nextInt(data.length - len1);
+         int off2 = rnd.nextInt(data.length - len2);
+
+         checkCompare(data, off1, len1, data, off2, len2);
+         checkCompare(data, off1, len1, data.clone(), off1, len1);
+      }
+   }
+
+   private static void checkCompare(byte[] a, int offA, int lenA, byte[] b, int offB, int lenB) {
+      int n = Math.min(lenA, lenB);
+      int c = UnsignedBytes.compareBytes(a, offA, b, offB, n);
+      int expected = Integer.signum(c != 0 ? c : lenA - lenB);
+
+      assertEquals(expected, Integer.signum(UnsignedBytes.compare(a, offA, lenA, b, offB, lenB)));
+      assertEquals(-expected, Integer.signum(UnsignedBytes.compare(b, offB, lenB, a, offA, lenA)));
+      if (c != 0)
+         assertEquals(expected, Integer.signum(firstDifference(a, offA, b, offB, n)));
+   }
+
+   /**
+    * @return the difference of the first differing bytes taken as unsigned
+    */
+   private static int firstDifference(byte[] a, int offA, byte[] b, int offB, int n) {
+      for (int k = 0; k < n; k++)
+         if (a[offA + k] != b[offB + k])
+            return (a[offA + k] & 0xFF) - (b[offB + k] & 0xFF);
+      return 0;
+   }
+
+   private static byte[] filled(int len, byte b) {
+      byte[] bytes = new byte[len];
+      Arrays.fill(bytes, b);
+      return bytes;
+   }
+
+}